@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import javacard.framework.AID;
+import javacard.framework.APDU;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-APDU dispatch overhead.
+ *
+ * <p><code>resetReflection</code> is the baseline: the APDU reset through
+ * <code>Method.invoke</code> as it was done before <code>FrameworkBridge</code>.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApduDispatchBenchmark {
+    private static final byte[] NOP = new byte[]{0x01, 0x02, 0x00, 0x00};
+
+    private APDU apdu;
+    private Method resetMethod;
+    private Simulator simulator;
+    private final byte[] response = new byte[258];
+
+    @Setup
+    public void setUp() throws Exception {
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        runtime.activateSimulatorRuntimeInstance();
+        apdu = runtime.shortAPDU;
+        resetMethod = APDU.class.getDeclaredMethod("internalReset", byte.class, ApduCase.class, byte[].class, int.class);
+        resetMethod.setAccessible(true);
+
+        simulator = new Simulator(runtime);
+        AID aid = AIDUtil.create("010203040506070809");
+        simulator.installApplet(aid, HelloWorldApplet.class);
+        simulator.selectApplet(aid);
+    }
+
+    @Benchmark
+    public void resetReflection() throws Exception {
+        resetMethod.invoke(apdu, APDU.PROTOCOL_T0, ApduCase.Case1, NOP, NOP.length);
+        resetMethod.invoke(apdu, APDU.PROTOCOL_T0, null, null, 0);
+    }
+
+    @Benchmark
+    public void resetBridge() {
+        FrameworkBridge.resetAPDU(apdu, APDU.PROTOCOL_T0, ApduCase.Case1, NOP, NOP.length);
+        FrameworkBridge.resetAPDU(apdu, APDU.PROTOCOL_T0, null, null, 0);
+    }
+
+    @Benchmark
+    public byte[] transmitNop() {
+        simulator.transmitCommand(NOP, 0, NOP.length, response, 0);
+        return response;
+    }
+}
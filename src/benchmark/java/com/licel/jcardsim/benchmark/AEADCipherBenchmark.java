@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.benchmark;
+
+import com.licel.jcardsim.base.Simulator;
+import javacard.framework.Util;
+import javacard.security.AESKey;
+import javacard.security.KeyBuilder;
+import javacardx.crypto.AEADCipher;
+import javacardx.crypto.Cipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-GCM encryption of one response per operation: <code>init</code> with
+ * a fresh nonce, <code>updateAAD</code> and <code>doFinal</code>, in place
+ * or into a separate buffer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AEADCipherBenchmark {
+    private static final short TAG_LENGTH = 16;
+
+    /** payload length, the largest payload leaves room for the tag in a short length */
+    @Param({"256", "32000"})
+    short length;
+
+    private AEADCipher cipher;
+    private AESKey key;
+    private final byte[] nonce = new byte[12];
+    private final byte[] aad = new byte[16];
+    private byte[] data;
+    private byte[] buffer;
+    private byte[] out;
+
+    @Setup
+    public void setUp() {
+        // activates the default runtime for this thread
+        new Simulator();
+        Random random = new Random(42);
+        byte[] keyBytes = new byte[16];
+        random.nextBytes(keyBytes);
+        key = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        key.setKey(keyBytes, (short) 0);
+        cipher = (AEADCipher) Cipher.getInstance(AEADCipher.ALG_AES_GCM, false);
+        data = new byte[length];
+        random.nextBytes(data);
+        buffer = new byte[length + TAG_LENGTH];
+        out = new byte[length + TAG_LENGTH];
+    }
+
+    @Benchmark
+    public byte[] encryptInPlace() {
+        Util.arrayCopyNonAtomic(data, (short) 0, buffer, (short) 0, length);
+        init();
+        cipher.doFinal(buffer, (short) 0, length, buffer, (short) 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        init();
+        cipher.doFinal(data, (short) 0, length, out, (short) 0);
+        return out;
+    }
+
+    private void init() {
+        // GCM must not reuse a nonce
+        for (short i = (short) (nonce.length - 1); i >= 0 && ++nonce[i] == 0; i--) {
+        }
+        cipher.init(key, Cipher.MODE_ENCRYPT, nonce, (short) 0, (short) nonce.length);
+        cipher.updateAAD(aad, (short) 0, (short) aad.length);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.benchmark;
+
+import com.licel.jcardsim.base.Simulator;
+import javacard.security.Checksum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of <code>Checksum</code>, one <code>doFinal</code> per operation.
+ * The <code>...Bitwise</code> benchmarks are the previous bit at a time
+ * algorithms as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"16", "256", "4096", "32767"})
+    int length;
+
+    private Checksum crc16;
+    private Checksum crc32;
+    private byte[] data;
+    private final byte[] out = new byte[4];
+
+    @Setup
+    public void setUp() {
+        // activates the default runtime for this thread
+        new Simulator();
+        crc16 = Checksum.getInstance(Checksum.ALG_ISO3309_CRC16, false);
+        crc32 = Checksum.getInstance(Checksum.ALG_ISO3309_CRC32, false);
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public byte[] crc16() {
+        crc16.doFinal(data, (short) 0, (short) length, out, (short) 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] crc32() {
+        crc32.doFinal(data, (short) 0, (short) length, out, (short) 0);
+        return out;
+    }
+
+    /** baseline: the bit at a time CRC16 which the table driven one replaced */
+    @Benchmark
+    public short crc16Bitwise() {
+        short fcs = 0;
+        for (int i = 0; i < length; i++) {
+            short d = (short) (data[i] << 8);
+            for (int k = 0; k < 8; k++) {
+                if (((fcs ^ d) & 0x8000) != 0) {
+                    fcs = (short) ((fcs << 1) ^ 0x1021);
+                } else {
+                    fcs <<= 1;
+                }
+                d <<= 1;
+            }
+        }
+        return fcs;
+    }
+
+    /** baseline: the bit at a time CRC32 which the table driven one replaced */
+    @Benchmark
+    public int crc32Bitwise() {
+        short fcsH = 0;
+        short fcsL = 0;
+        for (int i = 0; i < length; i++) {
+            short d = (short) (reflect8(data[i]) << 8);
+            for (int k = 0; k < 8; k++) {
+                boolean xor = ((fcsH ^ d) & 0x8000) != 0;
+                short h = (short) (fcsH << 1);
+                if ((fcsL & 0x8000) != 0) {
+                    h++;
+                }
+                short l = (short) (fcsL << 1);
+                fcsH = xor ? (short) (h ^ 0x04C1) : h;
+                fcsL = xor ? (short) (l ^ 0x1DB7) : l;
+                d <<= 1;
+            }
+        }
+        return ~((reflect16(fcsL) << 16) | (reflect16(fcsH) & 0xFFFF));
+    }
+
+    private static byte reflect8(byte input) {
+        byte reflected = 0;
+        for (int i = 0; i < 8; i++) {
+            if ((input & (0x80 >> i)) != 0) {
+                reflected |= (1 << i);
+            }
+        }
+        return reflected;
+    }
+
+    private static short reflect16(short input) {
+        short reflected = 0;
+        for (int i = 0; i < 16; i++) {
+            if ((input & (0x8000 >> i)) != 0) {
+                reflected |= (1 << i);
+            }
+        }
+        return reflected;
+    }
+}
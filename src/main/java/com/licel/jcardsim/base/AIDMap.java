@@ -0,0 +1,416 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <code>SortedMap</code> with <code>AID</code> keys which is indexed by the
+ * raw AID bytes.
+ *
+ * <p>Iteration order is the order of <code>AIDUtil.comparator()</code>.
+ * Exact lookups, including <code>get(Object)</code> and
+ * <code>containsKey</code>, use a hash table of the AID bytes, partial (prefix) lookups
+ * use a trie. Both operate directly on <code>(buffer, offset, length)</code>
+ * without creating an <code>AID</code>.</p>
+ *
+ * <p>The map can only be modified by <code>put</code>, <code>remove</code>,
+ * <code>putAll</code> and <code>clear</code>; views are read-only.</p>
+ *
+ * @param <V> type of the mapped values
+ */
+public class AIDMap<V> extends AbstractMap<AID, V> implements SortedMap<AID, V> {
+    // maximum AID length
+    private static final int MAX_AID_LENGTH = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final TreeMap<AID, V> sorted = new TreeMap<AID, V>(AIDUtil.comparator());
+    private final IdentityHashMap<AID, V> byInstance = new IdentityHashMap<AID, V>();
+    private final TrieNode root = new TrieNode();
+    private HashEntry[] table = new HashEntry[INITIAL_CAPACITY];
+
+    @Override
+    public int size() {
+        return sorted.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return byInstance.containsKey(key) || findByKey(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        V value = byInstance.get(key);
+        if (value != null || key == null) {
+            return value;
+        }
+        HashEntry e = findByKey(key);
+        return e == null ? null : (V) e.value;
+    }
+
+    @Override
+    public V put(AID key, V value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        V previous = remove(key);
+        byte[] bytes = new byte[MAX_AID_LENGTH];
+        int length = key.getBytes(bytes, (short) 0);
+
+        sorted.put(key, value);
+        byInstance.put(key, value);
+        addToTable(new HashEntry(bytes, length, hash(bytes, 0, length), key, value));
+        addToTrie(bytes, length, key);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends AID, ? extends V> m) {
+        for (Entry<? extends AID, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        HashEntry e = findByKey(key);
+        if (e == null) {
+            return null;
+        }
+        sorted.remove(e.aid);
+        byInstance.remove(e.aid);
+        removeFromTable(e);
+        removeFromTrie(root, e.bytes, 0, e.length);
+        return (V) e.value;
+    }
+
+    @Override
+    public void clear() {
+        sorted.clear();
+        byInstance.clear();
+        table = new HashEntry[INITIAL_CAPACITY];
+        root.children = TrieNode.NO_CHILDREN;
+        root.labels = TrieNode.NO_LABELS;
+        root.aid = null;
+        root.first = null;
+    }
+
+    /**
+     * Find the registered <code>AID</code> which is equal to the AID bytes in
+     * <code>buffer</code>
+     * @param buffer the byte array containing the AID bytes
+     * @param offset the start of AID bytes in <code>buffer</code>
+     * @param length the length of the AID bytes in <code>buffer</code>
+     * @return registered AID or null
+     */
+    public AID getKey(byte[] buffer, int offset, int length) {
+        HashEntry e = find(buffer, offset, length);
+        return e == null ? null : e.aid;
+    }
+
+    /**
+     * Find the value mapped to the AID bytes in <code>buffer</code>
+     * @param buffer the byte array containing the AID bytes
+     * @param offset the start of AID bytes in <code>buffer</code>
+     * @param length the length of the AID bytes in <code>buffer</code>
+     * @return mapped value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(byte[] buffer, int offset, int length) {
+        HashEntry e = find(buffer, offset, length);
+        return e == null ? null : (V) e.value;
+    }
+
+    /**
+     * Find the first registered <code>AID</code> (in iteration order) which
+     * starts with the bytes in <code>buffer</code>
+     * @param buffer the byte array containing the partial AID bytes
+     * @param offset the start of partial AID bytes in <code>buffer</code>
+     * @param length the length of partial AID bytes in <code>buffer</code>
+     * @return registered AID or null
+     * @see javacard.framework.AID#partialEquals(byte[], short, byte)
+     */
+    public AID findFirstByPrefix(byte[] buffer, int offset, int length) {
+        if (length < 0 || length > MAX_AID_LENGTH) {
+            return null;
+        }
+        TrieNode node = root;
+        for (int i = 0; i < length && node != null; i++) {
+            node = node.child(buffer[offset + i]);
+        }
+        return node == null ? null : node.first;
+    }
+
+    public Comparator<? super AID> comparator() {
+        return sorted.comparator();
+    }
+
+    public SortedMap<AID, V> subMap(AID fromKey, AID toKey) {
+        return Collections.unmodifiableSortedMap(sorted.subMap(fromKey, toKey));
+    }
+
+    public SortedMap<AID, V> headMap(AID toKey) {
+        return Collections.unmodifiableSortedMap(sorted.headMap(toKey));
+    }
+
+    public SortedMap<AID, V> tailMap(AID fromKey) {
+        return Collections.unmodifiableSortedMap(sorted.tailMap(fromKey));
+    }
+
+    public AID firstKey() {
+        return sorted.firstKey();
+    }
+
+    public AID lastKey() {
+        return sorted.lastKey();
+    }
+
+    @Override
+    public Set<AID> keySet() {
+        return Collections.unmodifiableSet(sorted.keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(sorted.values());
+    }
+
+    @Override
+    public Set<Entry<AID, V>> entrySet() {
+        return Collections.unmodifiableMap(sorted).entrySet();
+    }
+
+    /**
+     * Look up an <code>AID</code> key by its bytes
+     */
+    private HashEntry findByKey(Object key) {
+        if (!(key instanceof AID)) {
+            return null;
+        }
+        byte[] bytes = new byte[MAX_AID_LENGTH];
+        int length = ((AID) key).getBytes(bytes, (short) 0);
+        return find(bytes, 0, length);
+    }
+
+    private HashEntry find(byte[] buffer, int offset, int length) {
+        if (length < 0 || length > MAX_AID_LENGTH) {
+            return null;
+        }
+        int hash = hash(buffer, offset, length);
+        for (HashEntry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && e.matches(buffer, offset, length)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void addToTable(HashEntry entry) {
+        if (sorted.size() > table.length * 3 / 4) {
+            HashEntry[] old = table;
+            table = new HashEntry[old.length * 2];
+            for (HashEntry head : old) {
+                for (HashEntry e = head; e != null; ) {
+                    HashEntry next = e.next;
+                    int index = e.hash & (table.length - 1);
+                    e.next = table[index];
+                    table[index] = e;
+                    e = next;
+                }
+            }
+        }
+        int index = entry.hash & (table.length - 1);
+        entry.next = table[index];
+        table[index] = entry;
+    }
+
+    private void removeFromTable(HashEntry entry) {
+        int index = entry.hash & (table.length - 1);
+        HashEntry prev = null;
+        for (HashEntry e = table[index]; e != null; prev = e, e = e.next) {
+            if (e == entry) {
+                if (prev == null) {
+                    table[index] = e.next;
+                } else {
+                    prev.next = e.next;
+                }
+                return;
+            }
+        }
+    }
+
+    private void addToTrie(byte[] bytes, int length, AID aid) {
+        TrieNode[] path = new TrieNode[length + 1];
+        TrieNode node = root;
+        path[0] = node;
+        for (int i = 0; i < length; i++) {
+            node = node.childOrCreate(bytes[i]);
+            path[i + 1] = node;
+        }
+        node.aid = aid;
+        for (int i = length; i >= 0; i--) {
+            path[i].updateFirst();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if <code>node</code> became empty
+     */
+    private static boolean removeFromTrie(TrieNode node, byte[] bytes, int depth, int length) {
+        if (depth == length) {
+            node.aid = null;
+        } else {
+            TrieNode child = node.child(bytes[depth]);
+            if (child != null && removeFromTrie(child, bytes, depth + 1, length)) {
+                node.removeChild(bytes[depth]);
+            }
+        }
+        node.updateFirst();
+        return node.aid == null && node.children.length == 0;
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + buffer[offset + i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class HashEntry {
+        final byte[] bytes;
+        final int length;
+        final int hash;
+        final AID aid;
+        final Object value;
+        HashEntry next;
+
+        HashEntry(byte[] bytes, int length, int hash, AID aid, Object value) {
+            this.bytes = bytes;
+            this.length = length;
+            this.hash = hash;
+            this.aid = aid;
+            this.value = value;
+        }
+
+        boolean matches(byte[] buffer, int offset, int len) {
+            if (len != length) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (bytes[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Trie node. Children are sorted by unsigned label so that the first
+     * AID of a subtree is also the first one in <code>AIDUtil.comparator()</code> order.
+     */
+    private static final class TrieNode {
+        static final byte[] NO_LABELS = new byte[0];
+        static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+        byte[] labels = NO_LABELS;
+        TrieNode[] children = NO_CHILDREN;
+        /** AID ending at this node */
+        AID aid;
+        /** first AID of this subtree */
+        AID first;
+
+        TrieNode child(byte label) {
+            int index = indexOf(label);
+            return index < 0 ? null : children[index];
+        }
+
+        TrieNode childOrCreate(byte label) {
+            int index = indexOf(label);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            byte[] newLabels = new byte[labels.length + 1];
+            TrieNode[] newChildren = new TrieNode[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            TrieNode node = new TrieNode();
+            newLabels[index] = label;
+            newChildren[index] = node;
+            labels = newLabels;
+            children = newChildren;
+            return node;
+        }
+
+        void removeChild(byte label) {
+            int index = indexOf(label);
+            if (index < 0) {
+                return;
+            }
+            byte[] newLabels = new byte[labels.length - 1];
+            TrieNode[] newChildren = new TrieNode[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index + 1, newLabels, index, newLabels.length - index);
+            System.arraycopy(children, index + 1, newChildren, index, newChildren.length - index);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        void updateFirst() {
+            first = aid != null ? aid : (children.length > 0 ? children[0].first : null);
+        }
+
+        /**
+         * @return index of <code>label</code> or <code>-(insertion point) - 1</code>
+         */
+        private int indexOf(byte label) {
+            int key = label & 0xFF;
+            int low = 0;
+            int high = labels.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midKey = labels[mid] & 0xFF;
+                if (midKey < key) {
+                    low = mid + 1;
+                } else if (midKey > key) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
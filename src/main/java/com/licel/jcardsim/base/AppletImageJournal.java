@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Persistent image of a single applet instance.
+ *
+ * <p>The image consists of a base file holding a complete serialized applet
+ * and an append-only journal file (<code>&lt;base&gt;.journal</code>).
+ * Every journal record describes the byte ranges in which the serialized
+ * applet differs from the previous version, so the cost of persisting an
+ * APDU is proportional to the number of modified bytes instead of the size
+ * of the applet. Once the journal grows beyond the compaction threshold
+ * the base file is rewritten and the journal is discarded.</p>
+ *
+ * <p>Journal record layout:</p>
+ * <pre>
+ * int imageLength
+ * { int offset, int length, byte[length] data }*
+ * int -1
+ * </pre>
+ * A record which is not terminated (e.g. because the simulator was killed
+ * during a write) is ignored on load.
+ */
+public class AppletImageJournal {
+    /** Suffix of the journal file */
+    public static final String JOURNAL_SUFFIX = ".journal";
+    // unchanged gaps shorter than this are written as part of the surrounding run
+    private static final int MERGE_GAP = 8;
+    // run terminator
+    private static final int END_OF_RECORD = -1;
+
+    private final File baseFile;
+    private final File journalFile;
+    private final long compactThreshold;
+
+    /** last persisted image */
+    private byte[] image = new byte[0];
+    /** length of the last persisted image */
+    private int imageLength;
+    /** known journal size, -1 if the persisted state is unknown */
+    private long journalSize = -1;
+    /** known base file size */
+    private long baseSize = -1;
+
+    /**
+     * Create a journal for <code>baseFile</code>
+     * @param baseFile file holding the complete applet image
+     * @param compactThreshold journal size in bytes which triggers compaction
+     */
+    public AppletImageJournal(File baseFile, long compactThreshold) {
+        this.baseFile = baseFile;
+        this.journalFile = new File(baseFile.getPath() + JOURNAL_SUFFIX);
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * @return file holding the complete applet image
+     */
+    public File getBaseFile() {
+        return baseFile;
+    }
+
+    /**
+     * @return journal file
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * @return true if the image was loaded or written by this instance,
+     * or the base file exists
+     */
+    public boolean exists() {
+        return baseSize >= 0 || baseFile.isFile();
+    }
+
+    /**
+     * Read the base image and replay the journal.
+     * @return the current applet image
+     * @throws IOException if the base file cannot be read
+     */
+    public byte[] load() throws IOException {
+        byte[] current = readFully(baseFile);
+        long replayed = 0;
+        if (journalFile.isFile()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            try {
+                while (true) {
+                    int newLength = in.readInt();
+                    long recordSize = 4;
+                    byte[] next = Arrays.copyOf(current, newLength);
+                    int offset;
+                    while ((offset = in.readInt()) != END_OF_RECORD) {
+                        int length = in.readInt();
+                        in.readFully(next, offset, length);
+                        recordSize += 8 + length;
+                    }
+                    current = next;
+                    replayed += recordSize + 4;
+                }
+            } catch (EOFException e) {
+                // end of journal or torn record
+            } finally {
+                in.close();
+            }
+            if (replayed != journalFile.length()) {
+                // drop torn record so that following appends stay aligned
+                compact(current, current.length);
+            }
+        }
+        remember(current, current.length);
+        journalSize = currentJournalSize();
+        baseSize = baseFile.length();
+        return current;
+    }
+
+    /**
+     * Write a complete image and discard the journal.
+     * @param data serialized applet
+     * @param length length of the serialized applet
+     * @throws IOException if writing fails
+     */
+    public void write(byte[] data, int length) throws IOException {
+        compact(data, length);
+    }
+
+    /**
+     * Append the difference between <code>data</code> and the last
+     * persisted image to the journal. The files are assumed to be
+     * modified only through this instance once they were loaded or written.
+     * @param data serialized applet
+     * @param length length of the serialized applet
+     * @throws IOException if writing fails
+     */
+    public void update(byte[] data, int length) throws IOException {
+        if (journalSize < 0) {
+            // persisted state is unknown
+            compact(data, length);
+            return;
+        }
+        if (length == imageLength && equalRange(data, 0, length)) {
+            return;
+        }
+        if (journalSize >= compactThreshold) {
+            compact(data, length);
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+        long written = 4;
+        try {
+            out.writeInt(length);
+            int common = Math.min(length, imageLength);
+            int i = 0;
+            while (i < common) {
+                if (data[i] == image[i]) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                int end = i + 1;
+                int j = i + 1;
+                while (j < common && j - end < MERGE_GAP) {
+                    if (data[j] != image[j]) {
+                        end = j + 1;
+                    }
+                    j++;
+                }
+                written += writeRun(out, data, start, end - start);
+                i = end;
+            }
+            if (length > imageLength) {
+                written += writeRun(out, data, imageLength, length - imageLength);
+            }
+            out.writeInt(END_OF_RECORD);
+            written += 4;
+        } finally {
+            out.close();
+        }
+        journalSize += written;
+        remember(data, length);
+    }
+
+    /**
+     * Rewrite the base file with <code>data</code> and remove the journal.
+     * @param data serialized applet
+     * @param length length of the serialized applet
+     * @throws IOException if writing fails
+     */
+    public void compact(byte[] data, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(baseFile);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("Unable to delete " + journalFile.getAbsolutePath());
+        }
+        journalSize = 0;
+        baseSize = length;
+        remember(data, length);
+    }
+
+    /**
+     * Delete base and journal files.
+     */
+    public void delete() {
+        baseFile.delete();
+        journalFile.delete();
+        journalSize = -1;
+        baseSize = -1;
+        imageLength = 0;
+    }
+
+    private long currentJournalSize() {
+        return journalFile.isFile() ? journalFile.length() : 0;
+    }
+
+    private boolean equalRange(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] != image[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void remember(byte[] data, int length) {
+        if (image.length < length) {
+            image = new byte[Math.max(length, image.length * 2)];
+        }
+        System.arraycopy(data, 0, image, 0, length);
+        imageLength = length;
+    }
+
+    private static int writeRun(DataOutputStream out, byte[] data, int offset, int length) throws IOException {
+        out.writeInt(offset);
+        out.writeInt(length);
+        out.write(data, offset, length);
+        return 8 + length;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] data = new byte[(int) file.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.licel.jcardsim.base;
 
 import com.licel.jcardsim.io.JavaCardInterface;
+import java.nio.ByteBuffer;
 import javacard.framework.AID;
 import javacard.framework.ISO7816;
 import javacard.framework.SystemException;
@@ -38,6 +39,33 @@ public class CardManager implements CardManagerInterface {
     public static byte[] dispatchApdu(JavaCardInterface sim, byte[] capdu) {
         return impl.dispatchApduImpl(sim, capdu);
     }
+
+    /**
+     * Dispatch the remaining bytes of <code>capdu</code> and put the response into <code>rapdu</code>.
+     * Commands which are forwarded to a <code>Simulator</code> by the default CardManager
+     * do not allocate intermediate arrays.
+     * @param sim card
+     * @param capdu command apdu
+     * @param rapdu buffer receiving the response apdu
+     * @return length of the response apdu
+     */
+    public static int dispatchApdu(JavaCardInterface sim, ByteBuffer capdu, ByteBuffer rapdu) {
+        if (impl.getClass() == CardManager.class && sim instanceof Simulator && !isCreateApplet(capdu)) {
+            return ((Simulator) sim).transmitCommand(capdu, rapdu);
+        }
+        byte[] command = new byte[capdu.remaining()];
+        capdu.get(command);
+        byte[] response = dispatchApdu(sim, command);
+        rapdu.put(response);
+        return response.length;
+    }
+
+    private static boolean isCreateApplet(ByteBuffer capdu) {
+        int position = capdu.position();
+        return capdu.remaining() > ISO7816.OFFSET_INS
+                && capdu.get(position + ISO7816.OFFSET_CLA) == (byte) 0x80
+                && capdu.get(position + ISO7816.OFFSET_INS) == (byte) 0xb8;
+    }
     
     public byte[] dispatchApduImpl(JavaCardInterface sim, byte[] capdu) {
         byte[] theSW = new byte[2];
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.DigestRandomGenerator;
+import org.bouncycastle.crypto.prng.RandomGenerator;
+
+/**
+ * Root random generator of a simulated card.
+ *
+ * <p>Random generators of the card, such as <code>RandomData</code>
+ * instances, are seeded from this source instead of the system entropy
+ * pool. The source is either</p>
+ * <ul>
+ * <li>seeded once from <code>SecureRandom.nextBytes</code>, which does not
+ * block on low entropy, or</li>
+ * <li>deterministic: seeded only from a configured seed, so a test run
+ * produces the same random data every time as long as the generators are
+ * created in the same order.</li>
+ * </ul>
+ * <p>A runtime uses the source passed to its constructor. Subclasses may
+ * override <code>nextSeed</code> and <code>reset</code> to plug in another
+ * generator.</p>
+ *
+ * @see SimulatorRuntime#getEntropySource()
+ */
+public class EntropySource {
+    /** System property which configures the seed of the deterministic mode */
+    public static final String SEED_PROPERTY = "com.licel.jcardsim.randomdata.seed";
+
+    private static final int ROOT_SEED_LENGTH = 32;
+
+    private final byte[] seed;
+    private RandomGenerator root;
+
+    /**
+     * @param seed seed of the deterministic mode, or null to seed from <code>SecureRandom</code>
+     */
+    protected EntropySource(byte[] seed) {
+        this.seed = seed;
+        initRoot();
+    }
+
+    /**
+     * Create a source which is deterministic if <code>SEED_PROPERTY</code> is set
+     * @return new source
+     */
+    public static EntropySource fromSystemProperties() {
+        return fromSystemProperties(0);
+    }
+
+    /**
+     * Create a source for one of several runtimes which is deterministic if
+     * <code>SEED_PROPERTY</code> is set. Each index gets its own stream,
+     * index 0 is the stream of <code>fromSystemProperties()</code>.
+     * @param index index of the runtime, e.g. the card of a <code>SimulatorPool</code>
+     * @return new source
+     */
+    public static EntropySource fromSystemProperties(int index) {
+        String value = System.getProperty(SEED_PROPERTY);
+        if (value == null) {
+            return seeded();
+        }
+        byte[] seed = value.getBytes(Charset.forName("UTF-8"));
+        if (index != 0) {
+            seed = Arrays.copyOf(seed, seed.length + 4);
+            seed[seed.length - 4] = (byte) (index >>> 24);
+            seed[seed.length - 3] = (byte) (index >>> 16);
+            seed[seed.length - 2] = (byte) (index >>> 8);
+            seed[seed.length - 1] = (byte) index;
+        }
+        return new EntropySource(seed);
+    }
+
+    /**
+     * Create a source seeded from <code>SecureRandom</code>
+     * @return new source
+     */
+    public static EntropySource seeded() {
+        return new EntropySource(null);
+    }
+
+    /**
+     * Create a deterministic source
+     * @param seed seed, copied
+     * @return new source
+     */
+    public static EntropySource deterministic(byte[] seed) {
+        return new EntropySource(seed.clone());
+    }
+
+    /**
+     * @return true if the output only depends on the configured seed
+     */
+    public boolean isDeterministic() {
+        return seed != null;
+    }
+
+    /**
+     * Fill <code>buffer</code> with seed material for a new generator
+     * @param buffer buffer to fill
+     */
+    public synchronized void nextSeed(byte[] buffer) {
+        root.nextBytes(buffer);
+    }
+
+    /**
+     * Restart a deterministic source from its seed, reseed otherwise
+     */
+    public synchronized void reset() {
+        initRoot();
+    }
+
+    private void initRoot() {
+        root = new DigestRandomGenerator(new SHA256Digest());
+        if (seed != null) {
+            root.addSeedMaterial(seed);
+        } else {
+            byte[] systemSeed = new byte[ROOT_SEED_LENGTH];
+            SystemRandom.INSTANCE.nextBytes(systemSeed);
+            root.addSeedMaterial(systemSeed);
+            root.addSeedMaterial(System.nanoTime());
+        }
+    }
+
+    /** lazily created, <code>new SecureRandom()</code> may be slow */
+    private static final class SystemRandom {
+        static final SecureRandom INSTANCE = new SecureRandom();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.APDU;
+import javacard.framework.Applet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Direct calls into non-public parts of the Java Card API classes.
+ *
+ * <p>The targets are resolved once and kept as <code>MethodHandle</code>s,
+ * so the calls do not box arguments and can be inlined by the JIT, unlike
+ * <code>Method.invoke</code>.</p>
+ */
+final class FrameworkBridge {
+    private static final MethodType INSTALL_TYPE = MethodType.methodType(void.class, byte[].class, short.class, byte.class);
+
+    private static final MethodHandle APDU_RESET;
+
+    static {
+        try {
+            Method m = APDU.class.getDeclaredMethod("internalReset", byte.class, ApduCase.class, byte[].class, int.class);
+            m.setAccessible(true);
+            APDU_RESET = MethodHandles.lookup().unreflect(m);
+        } catch (Exception e) {
+            throw new RuntimeException("Internal reflection error", e);
+        }
+    }
+
+    /** <code>install(byte[], short, byte)</code> per applet class */
+    private static final ClassValue<MethodHandle> INSTALL_METHODS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> appletClass) {
+            Method m;
+            try {
+                m = appletClass.getMethod("install", byte[].class, short.class, byte.class);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+            try {
+                return MethodHandles.lookup().unreflect(m).asType(INSTALL_TYPE);
+            } catch (IllegalAccessException e) {
+                // behave like Method.invoke: fail on every call
+                return MethodHandles.dropArguments(
+                        MethodHandles.throwException(void.class, IllegalAccessException.class).bindTo(e),
+                        0, INSTALL_TYPE.parameterList());
+            }
+        }
+    };
+
+    private FrameworkBridge() {
+    }
+
+    /**
+     * Call <code>APDU.internalReset</code>
+     * @param apdu APDU to reset
+     * @param protocol active protocol
+     * @param apduCase case of the command or null
+     * @param buffer command or null
+     * @param length length of the command
+     */
+    static void resetAPDU(APDU apdu, byte protocol, ApduCase apduCase, byte[] buffer, int length) {
+        try {
+            APDU_RESET.invokeExact(apdu, protocol, apduCase, buffer, length);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("Internal reflection error", e);
+        }
+    }
+
+    /**
+     * Find the <code>install</code> method of an applet class
+     * @param appletClass applet class
+     * @return method handle of type <code>(byte[], short, byte)void</code>
+     * @throws IllegalArgumentException if <code>appletClass</code> has no <code>install</code> method
+     */
+    static MethodHandle findInstallMethod(Class<? extends Applet> appletClass) {
+        MethodHandle handle = INSTALL_METHODS.get(appletClass);
+        if (handle == null) {
+            throw new IllegalArgumentException("Class does not provide install method");
+        }
+        return handle;
+    }
+}
@@ -22,15 +22,15 @@ import static com.licel.jcardsim.base.Simulator.ATR_SYSTEM_PROPERTY;
 import static com.licel.jcardsim.base.Simulator.DEFAULT_ATR;
 import com.licel.jcardsim.utils.AIDUtil;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import javacard.framework.AID;
 import javacard.framework.Applet;
 import javacard.framework.SystemException;
@@ -38,10 +38,34 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
 
 public class PersistentSimulatorRuntime extends SimulatorRuntime {
     public static final String PERSISTENT_BASE_DIR = "persistentSimulatorRuntime.dir";
+    /** if set to <code>true</code> only modified bytes are appended to a per-applet journal after each APDU */
+    public static final String PERSISTENT_JOURNAL = "persistentSimulatorRuntime.journal";
+    /** journal size in bytes after which the applet file is rewritten, default 65536 */
+    public static final String PERSISTENT_JOURNAL_COMPACT_SIZE = "persistentSimulatorRuntime.journal.compactSize";
+    /**
+     * if set to <code>true</code> the applet is serialized after an APDU only if the APDU
+     * modified a persistent array through the Java Card API (e.g. <code>Util.arrayCopy</code>,
+     * key setters). Applets which update fields or arrays directly must not use this option.
+     */
+    public static final String PERSISTENT_TRACK_WRITES = "persistentSimulatorRuntime.journal.trackWrites";
+    static final long DEFAULT_JOURNAL_COMPACT_SIZE = 64 * 1024;
     protected final Kryo kryo;
     protected String appletsDir;
+    /** write deltas instead of complete applet images */
+    protected final boolean journalEnabled;
+    /** journal size which triggers compaction */
+    protected final long journalCompactSize;
+    /** applet images by AID */
+    protected final SortedMap<AID, AppletImageJournal> appletImages = new TreeMap<AID, AppletImageJournal>(AIDUtil.comparator());
+    // reusable serialization buffer
+    private final Output imageOutput = new Output(4096, -1);
         
     public PersistentSimulatorRuntime() {        
+        journalEnabled = Boolean.parseBoolean(System.getProperty(PERSISTENT_JOURNAL, "false"));
+        journalCompactSize = Long.parseLong(System.getProperty(PERSISTENT_JOURNAL_COMPACT_SIZE,
+                String.valueOf(DEFAULT_JOURNAL_COMPACT_SIZE)));
+        trackPersistentWrites = Boolean.parseBoolean(System.getProperty(PERSISTENT_TRACK_WRITES, "false"));
+
         kryo = new Kryo();
         kryo.setReferences(true);      
         kryo.setRegistrationRequired(false);
@@ -73,14 +97,14 @@ public class PersistentSimulatorRuntime extends SimulatorRuntime {
         super.loadApplet(aid, appletClass);
 
         if(appletsDir != null) {
-            File appletInstanceFile = new File(appletsDir, AIDUtil.toString(aid));
-            if (appletInstanceFile.isFile()) {
+            AppletImageJournal appletImage = getAppletImage(aid);
+            if (appletImage.getBaseFile().isFile()) {
                 try {
-                    try(Input input = new Input(new FileInputStream(appletInstanceFile))) {
+                    try(Input input = new Input(appletImage.load())) {
                         Applet object = (Applet) kryo.readClassAndObject(input);
                         applets.put(aid, new ApplicationInstance(aid, object));
                     }
-                } catch (FileNotFoundException ex) {
+                } catch (IOException ex) {
                     throw new RuntimeException(ex);
                 }
             }
@@ -99,11 +123,9 @@ public class PersistentSimulatorRuntime extends SimulatorRuntime {
 //                if(bLength > 0) {
 //                    varianceAid = new AID(bArray, bOffset, bLength);
 //                }
-                File appletInstanceFile = new File(appletsDir, AIDUtil.toString(varianceAid));
                 Applet applet = lookupApplet(varianceAid).getApplet();
-                try(Output output = new Output(new FileOutputStream(appletInstanceFile))) {
-                    kryo.writeClassAndObject(output, applet);
-                }
+                serialize(applet);
+                getAppletImage(varianceAid).write(imageOutput.getBuffer(), imageOutput.position());
             } catch(Exception e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
@@ -140,21 +162,26 @@ public class PersistentSimulatorRuntime extends SimulatorRuntime {
         loadFiles.clear();
         generatedLoadFileAIDs.clear();
         Arrays.fill(responseBuffer, (byte) 0);
+        transactionJournal.clear();
         transactionDepth = 0;
         responseBufferSize = 0;
+        persistentMemoryUsed = 0;
         currentAID = null;
         previousAID = null;
         
         transientMemory.forgetBuffers();
+        entropySource.reset();
+        keyManager.clear();
     }
     
     @Override
-    public byte[] transmitCommand(byte[] command) throws SystemException {
+    protected int processCommand(byte[] command, int offset, int length) throws SystemException {
+        persistentWritten = false;
         try {
-            return super.transmitCommand(command);
+            return super.processCommand(command, offset, length);
         } finally {
             Applet applet = getApplet(getAID());
-            if(appletsDir != null && applet != null) {
+            if(appletsDir != null && applet != null && (!trackPersistentWrites || persistentWritten)) {
                 updateAppletFile(getAID(), applet);
             }
         }
@@ -182,8 +209,8 @@ public class PersistentSimulatorRuntime extends SimulatorRuntime {
     protected void deleteApplet(AID aid) {
         super.deleteApplet(aid);
         if(appletsDir != null) {
-            File appletFile = new File(appletsDir, AIDUtil.toString(aid));
-            appletFile.delete();
+            getAppletImage(aid).delete();
+            appletImages.remove(aid);
         }
     }
     
@@ -202,16 +229,33 @@ public class PersistentSimulatorRuntime extends SimulatorRuntime {
             
     private void updateAppletFile(AID aid, Applet applet) {
         try {
-            File appletInstanceFile = new File(appletsDir, AIDUtil.toString(aid));
-            if(!appletInstanceFile.isFile())
-                throw new RuntimeException("Path " + appletInstanceFile.getAbsolutePath() + " doesn't exist");
-            try (Output output = new Output(new FileOutputStream(appletInstanceFile))) {
-                kryo.writeClassAndObject(output, applet);
+            AppletImageJournal appletImage = getAppletImage(aid);
+            if(!appletImage.exists())
+                throw new RuntimeException("Path " + appletImage.getBaseFile().getAbsolutePath() + " doesn't exist");
+            serialize(applet);
+            if (journalEnabled) {
+                appletImage.update(imageOutput.getBuffer(), imageOutput.position());
+            } else {
+                appletImage.write(imageOutput.getBuffer(), imageOutput.position());
             }
         } catch(Exception e) {
             throw new RuntimeException(e);
         }
     }
+
+    private void serialize(Applet applet) {
+        imageOutput.reset();
+        kryo.writeClassAndObject(imageOutput, applet);
+    }
+
+    private AppletImageJournal getAppletImage(AID aid) {
+        AppletImageJournal appletImage = appletImages.get(aid);
+        if (appletImage == null) {
+            appletImage = new AppletImageJournal(new File(appletsDir, AIDUtil.toString(aid)), journalCompactSize);
+            appletImages.put(aid, appletImage);
+        }
+        return appletImage;
+    }
     
     private void updateAppletFiles() {
         if( appletsDir != null ){
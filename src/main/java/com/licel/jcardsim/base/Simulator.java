@@ -21,7 +21,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 
@@ -262,6 +265,64 @@ public class Simulator implements JavaCardInterface {
         }
     }
 
+    /**
+     * Transmit APDU without allocating a response
+     * @param command buffer containing the command apdu
+     * @param offset offset of the command apdu in <code>command</code>
+     * @param length length of the command apdu
+     * @param response buffer receiving the response apdu
+     * @param responseOffset offset in <code>response</code>
+     * @return length of the response apdu
+     * @see SimulatorRuntime#transmitCommand(byte[], int, int, byte[], int)
+     */
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset) {
+        synchronized (runtime) {
+            return runtime.transmitCommand(command, offset, length, response, responseOffset);
+        }
+    }
+
+    /**
+     * Transmit APDU without allocating a response
+     * @param command command apdu
+     * @param response buffer receiving the response apdu
+     * @return length of the response apdu
+     * @see SimulatorRuntime#transmitCommand(java.nio.ByteBuffer, java.nio.ByteBuffer)
+     */
+    public int transmitCommand(ByteBuffer command, ByteBuffer response) {
+        synchronized (runtime) {
+            return runtime.transmitCommand(command, response);
+        }
+    }
+
+    public List<byte[]> transmitBatch(List<byte[]> commands) {
+        return transmitBatch(commands, false);
+    }
+
+    /**
+     * Transmit a sequence of APDUs while holding the lock of the runtime
+     * once for the whole batch. If a command throws an exception, the
+     * exception is propagated and the responses of the preceding commands
+     * are not returned; the state changes of these commands remain.
+     * @param commands command apdus
+     * @param stopOnError if true, the remaining commands are skipped after the
+     * first response with a status word other than 0x9000
+     * @return response apdus, in the order of <code>commands</code>
+     * @see JavaCardInterface#transmitBatch(java.util.List, boolean)
+     */
+    public List<byte[]> transmitBatch(List<byte[]> commands, boolean stopOnError) {
+        List<byte[]> responses = new ArrayList<byte[]>(commands.size());
+        synchronized (runtime) {
+            for (byte[] command : commands) {
+                byte[] response = runtime.transmitCommand(command);
+                responses.add(response);
+                if (stopOnError && ByteUtil.getSW(response) != ISO7816.SW_NO_ERROR) {
+                    break;
+                }
+            }
+        }
+        return responses;
+    }
+
     public void reset() {
         synchronized (runtime) {
             runtime.reset();
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Set of independent simulated cards driven by a fixed number of worker threads.
+ *
+ * <p>Every card has its own <code>SimulatorRuntime</code>. Tasks submitted
+ * for one card are executed one after another in submission order, tasks
+ * for different cards run in parallel. Before a task is executed the
+ * runtime of its card is bound to the worker thread, so the task may also
+ * call <code>JCSystem</code> and other Java Card API methods directly.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * SimulatorPool pool = new SimulatorPool(1000, Runtime.getRuntime().availableProcessors());
+ * for (int i = 0; i &lt; pool.size(); i++) {
+ *     pool.getSimulator(i).installApplet(aid, MyApplet.class);
+ * }
+ * Future&lt;List&lt;byte[]&gt;&gt; responses = pool.transmitCommands(42, commands);
+ * ...
+ * pool.close();
+ * </pre>
+ */
+public class SimulatorPool implements Closeable {
+    private final List<Simulator> simulators;
+    private final List<Card> cards;
+    private final ExecutorService executor;
+
+    /**
+     * Create a pool of cards using <code>SimulatorRuntime</code>.
+     * If a seed is configured, card <code>i</code> uses
+     * <code>EntropySource.fromSystemProperties(i)</code>, so every card has its
+     * own reproducible random stream.
+     * @param cardCount number of cards
+     * @param threadCount number of worker threads
+     * @throws java.lang.IllegalArgumentException if <code>cardCount</code> or <code>threadCount</code> is not positive
+     */
+    public SimulatorPool(int cardCount, int threadCount) {
+        this(cardCount, threadCount, new Supplier<SimulatorRuntime>() {
+            private int index;
+
+            public SimulatorRuntime get() {
+                return new SimulatorRuntime(new TransientMemory(), EntropySource.fromSystemProperties(index++));
+            }
+        });
+    }
+
+    /**
+     * Create a pool of cards
+     * @param cardCount number of cards
+     * @param threadCount number of worker threads
+     * @param runtimeFactory creates the runtime of every card, must return a new instance on each call
+     * @throws java.lang.IllegalArgumentException if <code>cardCount</code> or <code>threadCount</code> is not positive
+     */
+    public SimulatorPool(int cardCount, int threadCount, Supplier<? extends SimulatorRuntime> runtimeFactory) {
+        if (cardCount <= 0) {
+            throw new IllegalArgumentException("cardCount must be positive");
+        }
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        List<Simulator> simulatorList = new ArrayList<Simulator>(cardCount);
+        List<Card> cardList = new ArrayList<Card>(cardCount);
+        for (int i = 0; i < cardCount; i++) {
+            Simulator simulator = new Simulator(runtimeFactory.get());
+            simulatorList.add(simulator);
+            cardList.add(new Card(simulator));
+        }
+        simulators = Collections.unmodifiableList(simulatorList);
+        cards = cardList;
+        executor = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+    }
+
+    /**
+     * @return number of cards
+     */
+    public int size() {
+        return cards.size();
+    }
+
+    /**
+     * Return the simulator of a card.
+     *
+     * <p>The simulator may be used from any thread, calls are serialized with
+     * the tasks of the pool by <code>Simulator</code> itself. Only tasks
+     * submitted to the pool are guaranteed to run in submission order.</p>
+     *
+     * @param card index of the card
+     * @return simulator
+     * @throws java.lang.IndexOutOfBoundsException if <code>card</code> is not valid
+     */
+    public Simulator getSimulator(int card) {
+        return simulators.get(card);
+    }
+
+    /**
+     * @return simulators of all cards, by index
+     */
+    public List<Simulator> getSimulators() {
+        return simulators;
+    }
+
+    /**
+     * Schedule a task for a card
+     * @param card index of the card
+     * @param task task which is called with the simulator of the card
+     * @param <T> result type
+     * @return future of the result of <code>task</code>
+     * @throws java.lang.IndexOutOfBoundsException if <code>card</code> is not valid
+     * @throws java.util.concurrent.RejectedExecutionException if the pool is closed
+     */
+    public <T> Future<T> submit(int card, final Function<? super Simulator, ? extends T> task) {
+        final Card c = cards.get(card);
+        FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+            public T call() {
+                c.simulator.runtime.activateSimulatorRuntimeInstance();
+                return task.apply(c.simulator);
+            }
+        });
+        c.execute(future);
+        return future;
+    }
+
+    /**
+     * Schedule a batch of command APDUs for a card.
+     *
+     * <p>The commands are transmitted in order without interleaving with
+     * other tasks of the same card.</p>
+     *
+     * @param card index of the card
+     * @param commands command APDUs
+     * @return future of the response APDUs, in the order of <code>commands</code>
+     * @throws java.lang.IndexOutOfBoundsException if <code>card</code> is not valid
+     * @throws java.util.concurrent.RejectedExecutionException if the pool is closed
+     */
+    public Future<List<byte[]>> transmitCommands(int card, List<byte[]> commands) {
+        final List<byte[]> batch = new ArrayList<byte[]>(commands);
+        return submit(card, new Function<Simulator, List<byte[]>>() {
+            public List<byte[]> apply(Simulator simulator) {
+                return simulator.transmitBatch(batch);
+            }
+        });
+    }
+
+    /**
+     * Stop accepting tasks. Tasks which are already scheduled are completed.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return true if <code>close</code> has been called
+     */
+    public boolean isClosed() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Task queue of one card, at most one task of a card is on the executor at a time
+     */
+    private final class Card implements Runnable {
+        final Simulator simulator;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+        private boolean scheduled;
+
+        Card(Simulator simulator) {
+            this.simulator = simulator;
+        }
+
+        void execute(Runnable task) {
+            synchronized (this) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("SimulatorPool is closed");
+                }
+                queue.add(task);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // closed concurrently; other threads may have queued tasks
+                // after this one and returned, those must still complete
+                boolean accepted;
+                synchronized (this) {
+                    queue.removeFirstOccurrence(task);
+                    accepted = !queue.isEmpty();
+                    if (!accepted) {
+                        scheduled = false;
+                    }
+                }
+                if (accepted) {
+                    run();
+                }
+                throw e;
+            }
+        }
+
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = queue.poll();
+                }
+                // FutureTask does not throw
+                task.run();
+                synchronized (this) {
+                    if (queue.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    // yield the worker to other cards between tasks
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // pool is closed, complete the remaining tasks on this thread
+                }
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String prefix = "jcardsim-pool-" + poolNumber.incrementAndGet() + "-worker-";
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -15,16 +15,18 @@
  */
 package com.licel.jcardsim.base;
 
+import com.licel.jcardsim.crypto.KeyManager;
 import com.licel.jcardsim.utils.AIDUtil;
 import com.licel.jcardsim.utils.BiConsumer;
 import com.licel.jcardsim.utils.ByteUtil;
 import javacard.framework.*;
 import javacardx.apdu.ExtendedLength;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,24 +37,53 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @see Applet
  */
 public class SimulatorRuntime {
+    /** System property which configures the commit capacity in bytes */
+    public static final String COMMIT_CAPACITY_PROPERTY = "com.licel.jcardsim.card.commitCapacity";
+    /**
+     * System property which configures the persistent memory budget in bytes.
+     * Only the storage of persistent keys built with <code>KeyBuilder.buildKey</code>
+     * is charged, objects created by applets with <code>new</code> are not.
+     */
+    public static final String PERSISTENT_MEMORY_PROPERTY = "com.licel.jcardsim.card.persistentMemory";
     // holds the Applet registration callback
     protected final ThreadLocal<BiConsumer<Applet,AID>> registrationCallback;
+    /** index of installed applets by AID bytes */
+    private final AIDMap<ApplicationInstance> appletIndex = new AIDMap<ApplicationInstance>();
     /** storage for installed applets */
-    protected final SortedMap<AID, ApplicationInstance> applets = new TreeMap<AID, ApplicationInstance>(AIDUtil.comparator());
+    protected final SortedMap<AID, ApplicationInstance> applets = appletIndex;
     /** storage for load files */
     protected final SortedMap<AID, LoadFile> loadFiles = new TreeMap<AID, LoadFile>(AIDUtil.comparator());
     /** storage for automatically generated loadFile AIDs */
     protected final SortedMap<AID, AID> generatedLoadFileAIDs = new TreeMap<AID, AID>(AIDUtil.comparator());
-    /** method for resetting APDUs */
-    protected final Method apduPrivateResetMethod;
     /** outbound response byte array buffer */
     protected final byte[] responseBuffer = new byte[Short.MAX_VALUE + 2];
+    /** status word of the last command */
+    protected final byte[] statusWord = new byte[2];
+    /** staging buffer for commands which do not start at offset 0 */
+    private byte[] commandBuffer;
     /** transient memory */
     protected final TransientMemory transientMemory;
+    /** undo log of the current transaction */
+    protected final TransactionJournal transactionJournal;
+    /** persistent memory budget in bytes */
+    protected final int persistentMemoryCapacity;
+    /** bytes charged against <code>persistentMemoryCapacity</code> */
+    protected int persistentMemoryUsed;
+    /** root random generator */
+    protected final EntropySource entropySource;
+    /** host side key store */
+    protected final KeyManager keyManager = new KeyManager();
     /** regular APDU */
     protected final APDU shortAPDU;
     /** extended APDU */
     protected final APDU extendedAPDU;
+    /**
+     * <code>APDU.internalReset(byte, ApduCase, byte[], int)</code>
+     * @deprecated no longer used by the runtime, which resets the APDU through
+     * <code>resetAPDU</code>; kept for subclasses
+     */
+    @Deprecated
+    protected final Method apduPrivateResetMethod;
 
     /** current selected applet */
     protected AID currentAID;
@@ -68,6 +99,10 @@ public class SimulatorRuntime {
     protected byte currentProtocol = APDU.PROTOCOL_T0;
     /** current depth of transaction */
     protected byte transactionDepth = 0;
+    /** if true, <code>notePersistentWrite</code> sets <code>persistentWritten</code> */
+    protected boolean trackPersistentWrites = false;
+    /** if a persistent array was modified through the Java Card API since the flag was cleared */
+    protected boolean persistentWritten = false;
     /** previousActiveObject */
     protected Object previousActiveObject;
 
@@ -75,9 +110,20 @@ public class SimulatorRuntime {
         this(new TransientMemory());
     }
 
-    @SuppressWarnings("unchecked")
     public SimulatorRuntime(TransientMemory transientMemory) {
+        this(transientMemory, EntropySource.fromSystemProperties());
+    }
+
+    /**
+     * @param transientMemory transient memory of the card
+     * @param entropySource root random generator of the card
+     */
+    @SuppressWarnings("unchecked")
+    public SimulatorRuntime(TransientMemory transientMemory, EntropySource entropySource) {
         this.transientMemory = transientMemory;
+        this.transactionJournal = new TransactionJournal(Integer.getInteger(COMMIT_CAPACITY_PROPERTY, Short.MAX_VALUE));
+        this.persistentMemoryCapacity = Integer.getInteger(PERSISTENT_MEMORY_PROPERTY, Integer.MAX_VALUE);
+        this.entropySource = entropySource;
         try {
             Constructor<?> ctor = APDU.class.getDeclaredConstructors()[0];
             ctor.setAccessible(true);
@@ -85,7 +131,7 @@ public class SimulatorRuntime {
             shortAPDU = (APDU) ctor.newInstance(false);
             extendedAPDU = (APDU) ctor.newInstance(true);
 
-            apduPrivateResetMethod = APDU.class.getDeclaredMethod("internalReset", byte.class, ApduCase.class, byte[].class);
+            apduPrivateResetMethod = APDU.class.getDeclaredMethod("internalReset", byte.class, ApduCase.class, byte[].class, int.class);
             apduPrivateResetMethod.setAccessible(true);
 
             Field f = Applet.class.getDeclaredField("registrationCallback");
@@ -119,13 +165,8 @@ public class SimulatorRuntime {
      * @return Applet AID or null
      */
     public AID lookupAID(byte buffer[], short offset, byte length) {
-        // no construct new AID, iterate applets
-        for (AID aid : applets.keySet()) {
-            if (aid.equals(buffer, offset, length)) {
-                return aid;
-            }
-        }
-        return null;
+        // no construct new AID, use index
+        return appletIndex.getKey(buffer, offset, length);
     }
 
     /**
@@ -134,12 +175,10 @@ public class SimulatorRuntime {
      * @return ApplicationInstance or null
      */
     public ApplicationInstance lookupApplet(AID lookupAid) {
-        for (AID aid : applets.keySet()) {
-            if (aid.equals(lookupAid)) {
-                return applets.get(aid);
-            }
+        if (lookupAid == null) {
+            return null;
         }
-        return null;
+        return applets.get(lookupAid);
     }
 
     /**
@@ -239,11 +278,86 @@ public class SimulatorRuntime {
      * @return response apdu
      */
     public byte[] transmitCommand(byte[] command) throws SystemException {
+        int dataLength = processCommand(command, 0, command.length);
+        byte[] response = new byte[dataLength + 2];
+        System.arraycopy(responseBuffer, 0, response, 0, dataLength);
+        response[dataLength] = statusWord[0];
+        response[dataLength + 1] = statusWord[1];
+        return response;
+    }
+
+    /**
+     * Transmit APDU to previous selected applet without allocating a response.
+     * @param command buffer containing the command apdu
+     * @param offset offset of the command apdu in <code>command</code>
+     * @param length length of the command apdu
+     * @param response buffer receiving the response apdu
+     * @param responseOffset offset in <code>response</code>
+     * @return length of the response apdu
+     * @throws java.lang.IllegalArgumentException if <code>response</code> is too small for the response apdu
+     */
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset)
+            throws SystemException {
+        int dataLength = processCommand(command, offset, length);
+        if (responseOffset < 0 || response.length - responseOffset < dataLength + 2) {
+            throw new IllegalArgumentException("response: insufficient space for " + (dataLength + 2) + " bytes");
+        }
+        System.arraycopy(responseBuffer, 0, response, responseOffset, dataLength);
+        response[responseOffset + dataLength] = statusWord[0];
+        response[responseOffset + dataLength + 1] = statusWord[1];
+        return dataLength + 2;
+    }
+
+    /**
+     * Transmit APDU to previous selected applet without allocating a response.
+     * Reads the command from the remaining bytes of <code>command</code> and
+     * writes the response at the position of <code>response</code>.
+     * @param command command apdu
+     * @param response buffer receiving the response apdu
+     * @return length of the response apdu
+     * @throws java.lang.IllegalArgumentException if <code>response</code> is too small for the response apdu
+     */
+    public int transmitCommand(ByteBuffer command, ByteBuffer response) throws SystemException {
+        int length = command.remaining();
+        int dataLength;
+        if (command.hasArray()) {
+            dataLength = processCommand(command.array(), command.arrayOffset() + command.position(), length);
+        } else {
+            byte[] buffer = getCommandBuffer(length);
+            command.duplicate().get(buffer, 0, length);
+            dataLength = processCommand(buffer, 0, length);
+        }
+        command.position(command.limit());
+        if (response.remaining() < dataLength + 2) {
+            throw new IllegalArgumentException("response: insufficient space for " + (dataLength + 2) + " bytes");
+        }
+        response.put(responseBuffer, 0, dataLength);
+        response.put(statusWord);
+        return dataLength + 2;
+    }
+
+    /**
+     * Process a command apdu. The response data is left in
+     * <code>responseBuffer</code>, the status word in <code>statusWord</code>.
+     * @param command buffer containing the command apdu
+     * @param offset offset of the command apdu in <code>command</code>
+     * @param length length of the command apdu
+     * @return number of response data bytes to be returned
+     */
+    protected int processCommand(byte[] command, int offset, int length) throws SystemException {
         activateSimulatorRuntimeInstance();
 
-        final ApduCase apduCase = ApduCase.getCase(command);
-        final byte[] theSW = new byte[2];
-        byte[] response;
+        if (offset < 0 || length < 0 || offset + length > command.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (offset != 0 || length != command.length) {
+            byte[] buffer = getCommandBuffer(length);
+            System.arraycopy(command, offset, buffer, 0, length);
+            command = buffer;
+        }
+
+        final ApduCase apduCase = ApduCase.getCase(command, 0, length);
+        final byte[] theSW = statusWord;
 
         Applet applet = getApplet(getAID());
 
@@ -259,13 +373,13 @@ public class SimulatorRuntime {
             }
             else if (applet == null) {
                 Util.setShort(theSW, (short) 0, ISO7816.SW_APPLET_SELECT_FAILED);
-                return theSW;
+                return 0;
             }
         }
 
         if (applet == null) {
             Util.setShort(theSW, (short) 0, ISO7816.SW_COMMAND_NOT_ALLOWED);
-            return theSW;
+            return 0;
         }
 
         if (apduCase.isExtended()) {
@@ -274,7 +388,7 @@ public class SimulatorRuntime {
             }
             else {
                 Util.setShort(theSW, (short)0, ISO7816.SW_WRONG_LENGTH);
-                return theSW;
+                return 0;
             }
         }
         else {
@@ -298,9 +412,16 @@ public class SimulatorRuntime {
             }
 
             // set apdu
-            resetAPDU(apdu, apduCase, command);
+            resetAPDU(apdu, apduCase, command, length);
 
-            applet.process(apdu);
+            try {
+                applet.process(apdu);
+            } finally {
+                // a transaction must not span several APDUs
+                if (transactionDepth != 0) {
+                    abortTransaction();
+                }
+            }
             Util.setShort(theSW, (short) 0, (short) 0x9000);
         } catch (Throwable e) {
             Util.setShort(theSW, (short) 0, ISO7816.SW_UNKNOWN);
@@ -315,15 +436,16 @@ public class SimulatorRuntime {
 
         // if theSW = 0x61XX or 0x9XYZ than return data (ISO7816-3)
         if(theSW[0] == 0x61 || theSW[0] == 0x62 || theSW[0] == 0x63 || (theSW[0] >= (byte)0x90 && theSW[0] <= (byte)0x9F) || isNotAbortingCase(theSW) ) {
-            response = new byte[responseBufferSize + 2];
-            Util.arrayCopyNonAtomic(responseBuffer, (short) 0, response, (short) 0, responseBufferSize);
-            Util.arrayCopyNonAtomic(theSW, (short) 0, response, responseBufferSize, (short) 2);
-        }
-        else {
-            response = theSW;
+            return responseBufferSize;
         }
+        return 0;
+    }
 
-        return response;
+    private byte[] getCommandBuffer(int length) {
+        if (commandBuffer == null || commandBuffer.length < length) {
+            commandBuffer = new byte[length];
+        }
+        return commandBuffer;
     }
 
     /**
@@ -343,19 +465,11 @@ public class SimulatorRuntime {
             return applets.isEmpty() ? null : applets.firstKey();
         }
 
-        for (AID aid : applets.keySet()) {
-            if (aid.equals(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC])) {
-                return aid;
-            }
-        }
-
-        for (AID aid : applets.keySet()) {
-            if (aid.partialEquals(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC])) {
-                return aid;
-            }
+        AID aid = appletIndex.getKey(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC]);
+        if (aid != null) {
+            return aid;
         }
-
-        return null;
+        return appletIndex.findFirstByPrefix(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC]);
     }
 
     protected void deselect(ApplicationInstance applicationInstance) {
@@ -389,6 +503,8 @@ public class SimulatorRuntime {
      */
     public void reset() {
         Arrays.fill(responseBuffer, (byte) 0);
+        // card tear: undo an unfinished transaction
+        transactionJournal.rollback();
         transactionDepth = 0;
         responseBufferSize = 0;
         currentAID = null;
@@ -411,24 +527,42 @@ public class SimulatorRuntime {
         loadFiles.clear();
         generatedLoadFileAIDs.clear();
         Arrays.fill(responseBuffer, (byte) 0);
+        transactionJournal.clear();
         transactionDepth = 0;
         responseBufferSize = 0;
+        persistentMemoryUsed = 0;
         currentAID = null;
         previousAID = null;
         transientMemory.clearOnReset();
         transientMemory.forgetBuffers();
+        entropySource.reset();
+        keyManager.clear();
     }
 
     public TransientMemory getTransientMemory() {
         return transientMemory;
     }
 
+    /**
+     * @return root random generator of this card, seeds <code>RandomData</code> instances
+     */
+    public EntropySource getEntropySource() {
+        return entropySource;
+    }
+
+    /**
+     * @return key store of this card
+     */
+    public KeyManager getKeyManager() {
+        return keyManager;
+    }
+
     protected void resetAPDU(APDU apdu, ApduCase apduCase, byte[] buffer) {
-        try {
-            apduPrivateResetMethod.invoke(apdu, currentProtocol, apduCase, buffer);
-        } catch (Exception e) {
-            throw new RuntimeException("Internal reflection error", e);
-        }
+        resetAPDU(apdu, apduCase, buffer, buffer == null ? 0 : buffer.length);
+    }
+
+    protected void resetAPDU(APDU apdu, ApduCase apduCase, byte[] buffer, int length) {
+        FrameworkBridge.resetAPDU(apdu, currentProtocol, apduCase, buffer, length);
     }
 
     public APDU getCurrentAPDU() {
@@ -457,6 +591,7 @@ public class SimulatorRuntime {
         if (transactionDepth != 0) {
             TransactionException.throwIt(TransactionException.IN_PROGRESS);
         }
+        transactionJournal.clear();
         transactionDepth = 1;
     }
 
@@ -467,6 +602,7 @@ public class SimulatorRuntime {
         if (transactionDepth == 0) {
             TransactionException.throwIt(TransactionException.NOT_IN_PROGRESS);
         }
+        transactionJournal.rollback();
         transactionDepth = 0;
     }
 
@@ -477,6 +613,7 @@ public class SimulatorRuntime {
         if (transactionDepth == 0) {
             TransactionException.throwIt(TransactionException.NOT_IN_PROGRESS);
         }
+        transactionJournal.clear();
         transactionDepth = 0;
     }
 
@@ -488,44 +625,121 @@ public class SimulatorRuntime {
         return transactionDepth;
     }
 
+    /**
+     * Store the pre-image of <code>array[off..off+len-1]</code> in the
+     * transaction journal. Does nothing if no transaction is in progress
+     * or if <code>array</code> is transient.
+     * @param array array about to be modified
+     * @param off offset of the modified range
+     * @param len length of the modified range
+     * @throws ArrayIndexOutOfBoundsException if the range is outside of <code>array</code>
+     * @throws NullPointerException if <code>array</code> is <code>null</code>
+     * @throws TransactionException with reason <code>BUFFER_FULL</code> if the commit capacity is exceeded
+     */
+    public void recordUndo(byte[] array, short off, short len) {
+        if (transactionDepth == 0) {
+            return;
+        }
+        if (array == null) {
+            throw new NullPointerException();
+        }
+        if (len < 0) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        // the APDU buffer is a global transient array
+        if (array == shortAPDU.getBuffer() || array == extendedAPDU.getBuffer()) {
+            return;
+        }
+        if (transientMemory.isTransient(array) != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+            return;
+        }
+        transactionJournal.record(array, off, len);
+    }
+
+    /**
+     * Note that <code>array</code> is about to be modified through the Java Card API.
+     * Sets <code>persistentWritten</code> if writes are tracked and
+     * <code>array</code> is persistent. Direct stores of an applet into its
+     * fields or arrays are not seen.
+     * @param array array about to be modified
+     */
+    public void notePersistentWrite(byte[] array) {
+        if (!trackPersistentWrites || persistentWritten || array == null) {
+            return;
+        }
+        if (array == shortAPDU.getBuffer() || array == extendedAPDU.getBuffer()) {
+            return;
+        }
+        if (transientMemory.isTransient(array) == JCSystem.NOT_A_TRANSIENT_OBJECT) {
+            persistentWritten = true;
+        }
+    }
+
     /**
      * @see javacard.framework.JCSystem#getUnusedCommitCapacity()
-     * @return The current implementation always returns 32767
+     * @return unused commit capacity in bytes, at most 32767
      */
     public short getUnusedCommitCapacity() {
-        return Short.MAX_VALUE;
+        return (short) Math.min(transactionJournal.getUnusedCapacity(), Short.MAX_VALUE);
     }
 
     /**
      * @see javacard.framework.JCSystem#getMaxCommitCapacity()
-     * @return The current implementation always returns 32767
+     * @return commit capacity in bytes, at most 32767
      */
     public short getMaxCommitCapacity() {
-        return Short.MAX_VALUE;
+        return (short) Math.min(transactionJournal.getCapacity(), Short.MAX_VALUE);
     }
 
     /**
      * @see javacard.framework.JCSystem#getAvailableMemory(byte)
-     * @return The current implementation always returns 32767
+     * @return available persistent memory in bytes, at most 32767
      */
     public short getAvailablePersistentMemory() {
-        return Short.MAX_VALUE;
+        return (short) Math.min(persistentMemoryCapacity - persistentMemoryUsed, Short.MAX_VALUE);
     }
 
     /**
      * @see javacard.framework.JCSystem#getAvailableMemory(byte)
-     * @return The current implementation always returns 32767
+     * @return available transient memory in bytes, at most 32767
      */
     public short getAvailableTransientResetMemory() {
-        return Short.MAX_VALUE;
+        return (short) Math.min(transientMemory.getAvailableMemory(), Short.MAX_VALUE);
     }
 
     /**
      * @see javacard.framework.JCSystem#getAvailableMemory(byte)
-     * @return The current implementation always returns 32767
+     * @return available transient memory in bytes, at most 32767
      */
     public short getAvailableTransientDeselectMemory() {
-        return Short.MAX_VALUE;
+        return (short) Math.min(transientMemory.getAvailableMemory(), Short.MAX_VALUE);
+    }
+
+    /**
+     * Charge a persistent allocation against the persistent memory budget.
+     *
+     * <p>Objects created by applets with <code>new</code> are not seen by
+     * the simulator. <code>KeyBuilder.buildKey</code> calls this method with
+     * the storage size of the key components of persistent keys.</p>
+     *
+     * @param bytes size of the allocation in bytes
+     * @throws SystemException with reason <code>NO_RESOURCE</code> if the budget is exceeded
+     */
+    public void allocatePersistentMemory(int bytes) {
+        if (bytes < 0) {
+            throw new NegativeArraySizeException();
+        }
+        if (bytes > persistentMemoryCapacity - persistentMemoryUsed) {
+            SystemException.throwIt(SystemException.NO_RESOURCE);
+        }
+        persistentMemoryUsed += bytes;
+    }
+
+    /**
+     * @return bytes of the persistent memory budget in use
+     */
+    public int getUsedPersistentMemory() {
+        return persistentMemoryUsed;
     }
 
     /**
@@ -613,13 +827,7 @@ public class SimulatorRuntime {
         }
 
         Class<? extends Applet> appletClass = module.getAppletClass();
-        Method initMethod;
-        try {
-            initMethod = appletClass.getMethod("install",
-                    new Class[]{byte[].class, short.class, byte.class});
-        } catch (NoSuchMethodException e) {
-            throw new IllegalArgumentException("Class does not provide install method");
-        }
+        MethodHandle initMethod = FrameworkBridge.findInstallMethod(appletClass);
 
         final AtomicInteger callCount = new AtomicInteger(0);
         registrationCallback.set(new BiConsumer<Applet,AID>() {
@@ -640,17 +848,12 @@ public class SimulatorRuntime {
         });
 
         try {
-            initMethod.invoke(null, bArray, bOffset, bLength);
+            initMethod.invokeExact(bArray, bOffset, bLength);
         }
-        catch (InvocationTargetException e) {
-            try {
-                ISOException isoException = (ISOException) e.getCause();
-                throw isoException;
-            } catch (ClassCastException cce){
-                throw new SystemException(SystemException.ILLEGAL_AID);
-            }
+        catch (ISOException e) {
+            throw e;
         }
-        catch (Exception e) {
+        catch (Throwable e) {
             throw new SystemException(SystemException.ILLEGAL_AID);
         }
         finally {
@@ -82,6 +82,18 @@ public class SimulatorSystem {
         return simulatorRuntime;
     }
 
+    /**
+     * Get the currently active SimulatorRuntime instance if there is one
+     *
+     * Unlike <code>instance()</code> this method may be used by helpers which
+     * are also called outside of an applet context.
+     *
+     * @return current instance or <code>null</code>
+     */
+    public static SimulatorRuntime peekInstance() {
+        return currentRuntime.get();
+    }
+
     /**
      * Internal method to set the currently active SimulatorRuntime
      * @param simulatorRuntime simulatorRuntime to set
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.util.Arrays;
+
+import javacard.framework.TransactionException;
+
+/**
+ * Undo log of the JCRE transaction subsystem.
+ *
+ * <p>Before a persistent byte array is modified inside a transaction the
+ * previous contents of the modified range are stored in a pre-allocated
+ * buffer. <code>rollback()</code> restores the pre-images in reverse order,
+ * <code>clear()</code> discards them on commit. No objects are allocated
+ * while recording or restoring.</p>
+ *
+ * <p>Every entry is charged its length plus <code>ENTRY_OVERHEAD</code>
+ * bytes against the commit capacity.</p>
+ *
+ * @see javacard.framework.JCSystem#beginTransaction()
+ * @see javacard.framework.JCSystem#getUnusedCommitCapacity()
+ */
+public class TransactionJournal {
+    /** Bytes charged for the bookkeeping of a single entry */
+    public static final int ENTRY_OVERHEAD = 8;
+
+    private final int capacity;
+    private final byte[] preImages;
+    private final byte[][] arrays;
+    private final int[] offsets;
+    private final int[] lengths;
+    private int entries;
+    private int used;
+
+    /**
+     * Create a journal
+     * @param capacity commit capacity in bytes
+     * @throws java.lang.IllegalArgumentException if <code>capacity</code> is negative
+     */
+    public TransactionJournal(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        int maxEntries = capacity / (ENTRY_OVERHEAD + 1);
+        preImages = new byte[capacity];
+        arrays = new byte[maxEntries][];
+        offsets = new int[maxEntries];
+        lengths = new int[maxEntries];
+    }
+
+    /**
+     * @return commit capacity in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return unused commit capacity in bytes
+     */
+    public int getUnusedCapacity() {
+        return capacity - used - entries * ENTRY_OVERHEAD;
+    }
+
+    /**
+     * @return <code>true</code> if no pre-image is stored
+     */
+    public boolean isEmpty() {
+        return entries == 0;
+    }
+
+    /**
+     * Store the current contents of <code>array[offset..offset+length-1]</code>
+     * @param array persistent array about to be modified
+     * @param offset offset of the modified range
+     * @param length length of the modified range
+     * @throws ArrayIndexOutOfBoundsException if the range is outside of <code>array</code>
+     * @throws TransactionException with reason <code>BUFFER_FULL</code> if the commit capacity is exceeded
+     */
+    public void record(byte[] array, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (offset < 0 || offset + length > array.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (length + ENTRY_OVERHEAD > getUnusedCapacity()) {
+            TransactionException.throwIt(TransactionException.BUFFER_FULL);
+        }
+        System.arraycopy(array, offset, preImages, used, length);
+        arrays[entries] = array;
+        offsets[entries] = offset;
+        lengths[entries] = length;
+        used += length;
+        entries++;
+    }
+
+    /**
+     * Restore all recorded pre-images (latest first) and clear the journal
+     */
+    public void rollback() {
+        for (int i = entries - 1; i >= 0; i--) {
+            used -= lengths[i];
+            System.arraycopy(preImages, used, arrays[i], offsets[i], lengths[i]);
+        }
+        clear();
+    }
+
+    /**
+     * Forget all recorded pre-images
+     */
+    public void clear() {
+        Arrays.fill(arrays, 0, entries, null);
+        entries = 0;
+        used = 0;
+    }
+}
@@ -15,7 +15,6 @@
  */
 package com.licel.jcardsim.base;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -24,12 +23,49 @@ import javacard.framework.SystemException;
 
 /**
  * Basic implementation of storage transient memory of JCRE.
+ *
+ * <p>Transient arrays are registered per clear event and per element type
+ * in weak identity sets. <code>isTransient</code> is a hash lookup, and
+ * arrays that are no longer referenced by an applet are neither cleared
+ * nor counted anymore.</p>
+ *
+ * <p>Every array is charged its length times the element size (one byte
+ * for <code>boolean</code> and <code>byte</code>, two bytes for
+ * <code>short</code> and object references) against a RAM budget which is
+ * shared by both clear events. As the runtime does not support object
+ * deletion, the memory is only returned by <code>forgetBuffers()</code>.</p>
  */
 public class TransientMemory {
-    /** List of <code>CLEAR_ON_DESELECT</code> arrays */
-    protected final ArrayList<Object> clearOnDeselect = new ArrayList<Object>();
-    /** List of <code>CLEAR_ON_RESET</code> arrays */
-    protected final ArrayList<Object> clearOnReset = new ArrayList<Object>();
+    /** System property which configures the transient memory budget in bytes */
+    public static final String CAPACITY_PROPERTY = "com.licel.jcardsim.card.transientMemory";
+    /** <code>CLEAR_ON_DESELECT</code> arrays */
+    private final Segment clearOnDeselect = new Segment();
+    /** <code>CLEAR_ON_RESET</code> arrays */
+    private final Segment clearOnReset = new Segment();
+    /** RAM budget in bytes */
+    private final int capacity;
+    /** bytes charged against <code>capacity</code> */
+    private int used;
+
+    /**
+     * Create transient memory with the budget from <code>CAPACITY_PROPERTY</code>,
+     * unlimited if the property is not set
+     */
+    public TransientMemory() {
+        this(Integer.getInteger(CAPACITY_PROPERTY, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Create transient memory
+     * @param capacity RAM budget in bytes
+     * @throws java.lang.IllegalArgumentException if <code>capacity</code> is negative
+     */
+    public TransientMemory(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+    }
 
     /**
      * @see javacard.framework.JCSystem#makeTransientBooleanArray(short, byte)
@@ -38,6 +74,8 @@ public class TransientMemory {
      * @return the new transient array
      */
     public boolean[] makeBooleanArray(short length, byte event) {
+        segment(event);
+        allocate(length);
         boolean[] array = new boolean[length];
         storeArray(array, event);
         return array;
@@ -50,6 +88,8 @@ public class TransientMemory {
      * @return the new transient array
      */
     public byte[] makeByteArray(int length, byte event) {
+        segment(event);
+        allocate(length);
         byte[] array = new byte[length];
         storeArray(array, event);
         return array;
@@ -62,6 +102,8 @@ public class TransientMemory {
      * @return the new transient array
      */
     public short[] makeShortArray(short length, byte event) {
+        segment(event);
+        allocate(length * 2);
         short[] array = new short[length];
         storeArray(array, event);
         return array;
@@ -74,6 +116,8 @@ public class TransientMemory {
      * @return the new transient array
      */
     public Object[] makeObjectArray(short length, byte event) {
+        segment(event);
+        allocate(length * 2);
         Object[] array = new Object[length];
         storeArray(array, event);
         return array;
@@ -124,28 +168,83 @@ public class TransientMemory {
     }
 
     /**
-     * Store <code>arrayRef</code> in memory depends by event type
-     * @param arrayRef array reference
+     * Return the number of live transient arrays registered for a clear event
+     * @param event <code>CLEAR_ON_DESELECT</code> or <code>CLEAR_ON_RESET</code>
+     * @return number of arrays cleared on <code>event</code>
+     * @throws SystemException with reason <code>ILLEGAL_VALUE</code> if <code>event</code> is not valid
+     */
+    public int getArrayCount(byte event) {
+        return segment(event).size();
+    }
+
+    /**
+     * @return RAM budget in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return bytes of the RAM budget used by transient arrays
+     */
+    public int getUsedMemory() {
+        return used;
+    }
+
+    /**
+     * @return bytes of the RAM budget still available
+     */
+    public int getAvailableMemory() {
+        return capacity - used;
+    }
+
+    /**
+     * Charge an allocation against the RAM budget
+     * @param bytes size of the allocation in bytes
+     * @throws SystemException with reason <code>NO_TRANSIENT_SPACE</code> if the budget is exceeded
+     */
+    private void allocate(int bytes) {
+        if (bytes < 0) {
+            throw new NegativeArraySizeException();
+        }
+        if (bytes > capacity - used) {
+            SystemException.throwIt(SystemException.NO_TRANSIENT_SPACE);
+        }
+        used += bytes;
+    }
+
+    /**
+     * Return the segment of an event
      * @param event event type
+     * @return segment
+     * @throws SystemException with reason <code>ILLEGAL_VALUE</code> if <code>event</code> is not valid
      */
-    protected void storeArray(Object arrayRef, byte event) {
+    private Segment segment(byte event) {
         switch (event) {
             case JCSystem.CLEAR_ON_DESELECT:
-                clearOnDeselect.add(arrayRef);
-                break;
+                return clearOnDeselect;
             case JCSystem.CLEAR_ON_RESET:
-                clearOnReset.add(arrayRef);
-                break;
+                return clearOnReset;
             default:
                 SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+                return null;
         }
     }
 
+    /**
+     * Store <code>arrayRef</code> in memory depends by event type
+     * @param arrayRef array reference
+     * @param event event type
+     */
+    protected void storeArray(Object arrayRef, byte event) {
+        segment(event).add(arrayRef);
+    }
+
     /**
      * Zero <code>CLEAR_ON_DESELECT</code> buffers
      */
     protected void clearOnDeselect() {
-        zero(clearOnDeselect);
+        clearOnDeselect.zero();
     }
 
     /**
@@ -153,8 +252,8 @@ public class TransientMemory {
      * buffers
      */
     protected void clearOnReset() {
-        zero(clearOnDeselect);
-        zero(clearOnReset);
+        clearOnDeselect.zero();
+        clearOnReset.zero();
     }
 
     /**
@@ -164,6 +263,7 @@ public class TransientMemory {
         clearOnReset();
         clearOnDeselect.clear();
         clearOnReset.clear();
+        used = 0;
     }
 
     /**
@@ -182,11 +282,71 @@ public class TransientMemory {
                 Arrays.fill((Object[])obj, null);
             }
             else if (obj instanceof boolean[]) {
-                boolean[] array = (boolean[]) obj;
-                for (int i = 0; i < array.length; ++i) {
-                    array[i] = false;
-                }
+                Arrays.fill((boolean[]) obj, false);
+            }
+        }
+    }
+
+    /**
+     * Transient arrays of one clear event, partitioned by element type
+     */
+    private static final class Segment {
+        final WeakIdentitySet<byte[]> bytes = new WeakIdentitySet<byte[]>();
+        final WeakIdentitySet<short[]> shorts = new WeakIdentitySet<short[]>();
+        final WeakIdentitySet<boolean[]> booleans = new WeakIdentitySet<boolean[]>();
+        final WeakIdentitySet<Object[]> objects = new WeakIdentitySet<Object[]>();
+
+        void add(Object array) {
+            if (array instanceof byte[]) {
+                bytes.add((byte[]) array);
+            } else if (array instanceof short[]) {
+                shorts.add((short[]) array);
+            } else if (array instanceof boolean[]) {
+                booleans.add((boolean[]) array);
+            } else if (array instanceof Object[]) {
+                objects.add((Object[]) array);
+            } else {
+                SystemException.throwIt(SystemException.ILLEGAL_VALUE);
             }
         }
+
+        boolean contains(Object obj) {
+            if (obj instanceof byte[]) {
+                return bytes.contains(obj);
+            } else if (obj instanceof short[]) {
+                return shorts.contains(obj);
+            } else if (obj instanceof boolean[]) {
+                return booleans.contains(obj);
+            } else if (obj instanceof Object[]) {
+                return objects.contains(obj);
+            }
+            return false;
+        }
+
+        int size() {
+            return bytes.size() + shorts.size() + booleans.size() + objects.size();
+        }
+
+        void zero() {
+            for (byte[] array : bytes) {
+                Arrays.fill(array, (byte) 0);
+            }
+            for (short[] array : shorts) {
+                Arrays.fill(array, (short) 0);
+            }
+            for (boolean[] array : booleans) {
+                Arrays.fill(array, false);
+            }
+            for (Object[] array : objects) {
+                Arrays.fill(array, null);
+            }
+        }
+
+        void clear() {
+            bytes.clear();
+            shorts.clear();
+            booleans.clear();
+            objects.clear();
+        }
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of objects compared by identity and held by weak references.
+ *
+ * <p>Objects that are no longer strongly reachable disappear from the set
+ * once the garbage collector has cleared them. <code>null</code> is not
+ * supported. Not thread safe.</p>
+ *
+ * @param <T> element type
+ */
+final class WeakIdentitySet<T> implements Iterable<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+    private Entry<T>[] table = newTable(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Add an object
+     * @param obj object to add
+     * @return <code>true</code> if <code>obj</code> was not yet present
+     */
+    boolean add(T obj) {
+        expungeStaleEntries();
+        int hash = hash(obj);
+        int index = hash & (table.length - 1);
+        for (Entry<T> e = table[index]; e != null; e = e.next) {
+            if (e.get() == obj) {
+                return false;
+            }
+        }
+        table[index] = new Entry<T>(obj, hash, table[index], queue);
+        if (++size > table.length - (table.length >>> 2)) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * @param obj object to look up
+     * @return <code>true</code> if <code>obj</code> is present
+     */
+    boolean contains(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        for (Entry<T> e = table[hash(obj) & (table.length - 1)]; e != null; e = e.next) {
+            if (e.get() == obj) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of objects that have not been garbage collected yet
+     */
+    int size() {
+        expungeStaleEntries();
+        return size;
+    }
+
+    /**
+     * Remove all objects
+     */
+    void clear() {
+        while (queue.poll() != null) {
+            // drain
+        }
+        Arrays.fill(table, null);
+        size = 0;
+    }
+
+    /**
+     * Iterate over the objects that are still reachable
+     * @return iterator, <code>remove</code> is not supported
+     */
+    public Iterator<T> iterator() {
+        expungeStaleEntries();
+        return new Iterator<T>() {
+            private final Entry<T>[] tab = table;
+            private int index;
+            private Entry<T> entry;
+            private T next;
+
+            public boolean hasNext() {
+                while (next == null) {
+                    while (entry == null) {
+                        if (index == tab.length) {
+                            return false;
+                        }
+                        entry = tab[index++];
+                    }
+                    next = entry.get();
+                    entry = entry.next;
+                }
+                return true;
+            }
+
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T result = next;
+                next = null;
+                return result;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeStaleEntries() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            Entry<T> stale = (Entry<T>) ref;
+            int index = stale.hash & (table.length - 1);
+            Entry<T> prev = null;
+            for (Entry<T> e = table[index]; e != null; prev = e, e = e.next) {
+                if (e == stale) {
+                    if (prev == null) {
+                        table[index] = e.next;
+                    } else {
+                        prev.next = e.next;
+                    }
+                    size--;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void resize() {
+        Entry<T>[] newTable = newTable(table.length << 1);
+        int mask = newTable.length - 1;
+        int count = 0;
+        for (Entry<T> head : table) {
+            Entry<T> e = head;
+            while (e != null) {
+                Entry<T> next = e.next;
+                if (e.get() != null) {
+                    int index = e.hash & mask;
+                    e.next = newTable[index];
+                    newTable[index] = e;
+                    count++;
+                } else {
+                    // cleared but maybe not enqueued yet, expungeStaleEntries will not find it
+                    e.next = null;
+                }
+                e = next;
+            }
+        }
+        table = newTable;
+        size = count;
+    }
+
+    private static int hash(Object obj) {
+        int h = System.identityHashCode(obj);
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newTable(int capacity) {
+        return (Entry<T>[]) new Entry[capacity];
+    }
+
+    private static final class Entry<T> extends WeakReference<T> {
+        final int hash;
+        Entry<T> next;
+
+        Entry(T referent, int hash, Entry<T> next, ReferenceQueue<T> queue) {
+            super(referent, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+}
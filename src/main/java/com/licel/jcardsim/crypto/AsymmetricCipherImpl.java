@@ -81,7 +81,10 @@ public class AsymmetricCipherImpl extends Cipher {
         }
         ParametersWithRandom params = new ParametersWithRandom(((KeyWithParameters) theKey).getParameters(), new SecureRandomNullProvider());
         engine.init(theMode == MODE_ENCRYPT, params);
-        buffer = JCSystem.makeTransientByteArray((short) engine.getInputBlockSize(), JCSystem.CLEAR_ON_DESELECT);
+        short blockSize = (short) engine.getInputBlockSize();
+        if (buffer == null || buffer.length != blockSize) {
+            buffer = JCSystem.makeTransientByteArray(blockSize, JCSystem.CLEAR_ON_DESELECT);
+        }
         initMode = theMode;
         bufferPos = 0;
         isInitialized = true;
@@ -16,7 +16,6 @@
 package com.licel.jcardsim.crypto;
 
 import java.lang.reflect.Field;
-import javacard.framework.JCSystem;
 import javacard.framework.Util;
 import javacard.security.CryptoException;
 import javacard.security.Key;
@@ -317,7 +316,7 @@ public class AsymmetricSignatureImpl extends Signature implements SignatureMessa
         if (!isInitialized) {
             CryptoException.throwIt(CryptoException.INVALID_INIT);
         }
-        preSig = JCSystem.makeTransientByteArray(sigLength, JCSystem.CLEAR_ON_RESET);
+        preSig = new byte[sigLength];
         Util.arrayCopyNonAtomic(sigAndRecDataBuff, buffOffset, preSig, (short) 0, sigLength);
         try {
             ((SignerWithRecovery) engine).updateWithRecoveredMessage(preSig);
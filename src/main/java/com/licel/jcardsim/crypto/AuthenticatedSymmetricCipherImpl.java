@@ -15,7 +15,6 @@
  */
 package com.licel.jcardsim.crypto;
 
-import javacard.framework.JCSystem;
 import javacard.framework.Util;
 import javacard.security.CryptoException;
 import javacard.security.Key;
@@ -28,7 +27,6 @@ import org.bouncycastle.crypto.modes.GCMBlockCipher;
 import org.bouncycastle.crypto.modes.gcm.GCMUtil;
 import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.internal.asn1.cms.GCMParameters;
 import org.bouncycastle.util.Arrays;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -54,6 +52,21 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
     short totalMsgLen;
     short initAADLen;
 
+    /** key of <code>engine</code>, the engine is reused while the key is unchanged */
+    private SymmetricKeyImpl keyedKey;
+    private int keyedKeyVersion;
+    private byte[] keyedKeyData;
+    /** nonce of the last <code>init</code>, only valid while the engine is keyed */
+    private final byte[] nonce = new byte[NONCE_LENGTH];
+    /** bytes passed to <code>update</code> since <code>init</code> */
+    private int updatedLength;
+    /** output buffer for overlapping or too small output buffers */
+    private byte[] scratch;
+
+    private static final short NONCE_LENGTH = 12;
+    private static final byte[] ZERO_NONCE = new byte[NONCE_LENGTH];
+    private static final int DEFAULT_MAC_SIZE = 128;
+
     public AuthenticatedSymmetricCipherImpl(byte algorithm) {
         this.algorithm = algorithm;
         state = CipherState.Uninitialized;
@@ -124,19 +137,7 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
         }
 
         // AEADCipher in GCM mode will use 0 for initial vector(IV) if this method is used
-        byte[] iv = new byte[12];
-        Arrays.fill(iv, (byte) 0);
-
-        selectCipherEngine(theKey);
-
-        ParametersWithIV parametersWithIV = new ParametersWithIV(((SymmetricKeyImpl) theKey).getParameters(),iv);
-        try{
-            engine.init(theMode == MODE_ENCRYPT, parametersWithIV);
-        }
-        catch (Exception ex){
-            ex.printStackTrace();
-            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
-        }
+        initEngine(theKey, theMode, null, (short) 0, DEFAULT_MAC_SIZE);
 
         initMode = theMode;
         state = CipherState.Initialized;
@@ -188,17 +189,7 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
 
-        selectCipherEngine(theKey);
-        byte[] iv = JCSystem.makeTransientByteArray(bLen, JCSystem.CLEAR_ON_RESET);
-        Util.arrayCopyNonAtomic(bArray, bOff, iv, (short) 0, bLen);
-        ParametersWithIV parametersWithIV = new ParametersWithIV(((SymmetricKeyImpl) theKey).getParameters(),iv);
-        try{
-            engine.init(theMode == MODE_ENCRYPT, parametersWithIV);
-        }
-        catch (Exception ex){
-            ex.printStackTrace();
-            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
-        }
+        initEngine(theKey, theMode, bArray, bOff, DEFAULT_MAC_SIZE);
 
         initMode = theMode;
         state = CipherState.Initialized;
@@ -240,20 +231,7 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
 
-        selectCipherEngine(theKey);
-
-        byte[] iv_nonce = JCSystem.makeTransientByteArray(nonceLen, JCSystem.CLEAR_ON_RESET);
-        Util.arrayCopyNonAtomic(nonceBuf, nonceOff, iv_nonce, (short) 0, nonceLen);
-
-        parameters = new AEADParameters((KeyParameter) ((SymmetricKeyImpl) theKey).getParameters(),tagSize * Byte.SIZE, iv_nonce );
-
-        try{
-            engine.init(theMode == MODE_ENCRYPT, parameters);
-        }
-        catch (Exception ex){
-            ex.printStackTrace();
-            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
-        }
+        initEngine(theKey, theMode, nonceBuf, nonceOff, tagSize * Byte.SIZE);
 
         initMode = theMode;
         initMsgLen = messageLen;
@@ -317,12 +295,17 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
             CryptoException.throwIt(CryptoException.INVALID_INIT);
         }
 
-        int processBuffSize = engine.getUpdateOutputSize(inLength);
-
-        byte[] processBuff = new byte[processBuffSize];
-        short processedBytes = (short)engine.processBytes(inBuff, inOffset, inLength, processBuff, 0);
-        Util.arrayCopyNonAtomic(processBuff, (short) 0,outBuff,outOffset, processedBytes);
+        int outputSize = engine.getUpdateOutputSize(inLength);
+        short processedBytes;
+        if (canWriteDirectly(inBuff, inOffset, inLength, outBuff, outOffset, outputSize)) {
+            processedBytes = (short) engine.processBytes(inBuff, inOffset, inLength, outBuff, outOffset);
+        } else {
+            byte[] processBuff = scratch(outputSize);
+            processedBytes = (short) engine.processBytes(inBuff, inOffset, inLength, processBuff, 0);
+            Util.arrayCopyNonAtomic(processBuff, (short) 0, outBuff, outOffset, processedBytes);
+        }
 
+        updatedLength += inLength;
         totalMsgLen += inLength;
         return processedBytes;
     }
@@ -364,18 +347,30 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
             }
         }
 
-        int processBuffSize = engine.getOutputSize(inLength);
-        byte[] processBuff = new byte[processBuffSize];
+        int outputSize = engine.getOutputSize(inLength);
+        boolean direct = canWriteDirectly(inBuff, inOffset, inLength, outBuff, outOffset, outputSize);
 
         try {
-            short processedBytes = (short) engine.processBytes(inBuff, inOffset, inLength, processBuff, 0);
-            processedBytes += engine.doFinal(processBuff, processedBytes);
-            Util.arrayCopyNonAtomic(processBuff, (short) 0,outBuff,outOffset, processedBytes);
+            short processedBytes;
+            if (direct) {
+                processedBytes = (short) engine.processBytes(inBuff, inOffset, inLength, outBuff, outOffset);
+                processedBytes += engine.doFinal(outBuff, outOffset + processedBytes);
+            } else {
+                byte[] processBuff = scratch(outputSize);
+                processedBytes = (short) engine.processBytes(inBuff, inOffset, inLength, processBuff, 0);
+                processedBytes += engine.doFinal(processBuff, processedBytes);
+                Util.arrayCopyNonAtomic(processBuff, (short) 0,outBuff,outOffset, processedBytes);
+            }
+            updatedLength = 0;
             state = CipherState.Finalized;
             return processedBytes;
 
         } catch (Exception ex) {
             ex.printStackTrace();
+            if (direct) {
+                // do not release unauthenticated plaintext
+                Util.arrayFillNonAtomic(outBuff, outOffset, (short) outputSize, (byte) 0);
+            }
             CryptoException.throwIt(CryptoException.ILLEGAL_USE);
         }
 
@@ -450,7 +445,94 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
         return Arrays.areEqual(mac,0,requiredTagLen,receivedTagBuf,receivedTagOff,receivedTagOff + receivedTagLen);
     }
 
-    private void selectCipherEngine(Key theKey) {
+    /**
+     * Initialize <code>engine</code>.
+     *
+     * <p>The keyed engine is kept until another key is used or the key data
+     * changes, so a new nonce does not repeat the key schedule and the
+     * computation of the GCM multiplier tables.</p>
+     *
+     * @param theKey the key
+     * @param theMode one of MODE_DECRYPT or MODE_ENCRYPT
+     * @param nonceBuf buffer holding a 12 byte nonce, or <code>null</code> for a zero nonce
+     * @param nonceOff offset of the nonce
+     * @param macSize tag size in bits
+     */
+    private void initEngine(Key theKey, byte theMode, byte[] nonceBuf, short nonceOff, int macSize) {
+        checkKey(theKey);
+        SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
+        if (nonceBuf == null) {
+            nonceBuf = ZERO_NONCE;
+            nonceOff = 0;
+        }
+
+        boolean keyed = engine != null && key == keyedKey && key.isSameKey(keyedKeyVersion, keyedKeyData);
+        if (keyed && algorithm == ALG_AES_GCM && theMode == MODE_ENCRYPT
+                && Util.arrayCompare(nonceBuf, nonceOff, nonce, (short) 0, NONCE_LENGTH) == 0) {
+            // a keyed GCM engine rejects the last nonce for encryption, a new engine does not
+            keyed = false;
+        }
+        KeyParameter keyParameter = null;
+        if (!keyed) {
+            keyedKey = null;
+            engine = createCipherEngine(key);
+            keyParameter = (KeyParameter) key.getParameters();
+        }
+        Util.arrayCopyNonAtomic(nonceBuf, nonceOff, nonce, (short) 0, NONCE_LENGTH);
+        // the parameters copy the nonce, they cannot be reused
+        parameters = new AEADParameters(keyParameter, macSize, nonce);
+
+        try{
+            engine.init(theMode == MODE_ENCRYPT, parameters);
+        }
+        catch (Exception ex){
+            keyedKey = null;
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        if (!keyed) {
+            keyedKey = key;
+            keyedKeyVersion = key.getVersion();
+            keyedKeyData = keyParameter.getKey();
+        }
+        updatedLength = 0;
+    }
+
+    /**
+     * Check if the engine may write to the output buffer of the caller
+     * @return false if the output does not fit or could overwrite input which is not yet processed
+     */
+    private boolean canWriteDirectly(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset, int outputSize) {
+        if (outOffset < 0 || outBuff.length - outOffset < outputSize) {
+            return false;
+        }
+        if (inBuff != outBuff || outOffset >= inOffset + inLength || inOffset >= outOffset + outputSize) {
+            return true;
+        }
+        switch (algorithm) {
+            case ALG_AES_CCM:
+                // CCM buffers the whole message before producing output
+                return true;
+            case ALG_AES_GCM:
+                if (initMode != MODE_ENCRYPT) {
+                    // the decryptor holds back the tag and writes a block before
+                    // it has read the matching input
+                    return false;
+                }
+                // the output lags behind the input by the bytes of a partial block
+                return outOffset + updatedLength % 16 <= inOffset;
+            default:
+                return false;
+        }
+    }
+
+    private byte[] scratch(int length) {
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[length];
+        }
+        return scratch;
+    }
+
+    private void checkKey(Key theKey) {
         if (theKey == null) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
@@ -460,14 +542,15 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
         if (!(theKey instanceof SymmetricKeyImpl)) {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
+    }
 
-        SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
-
+    private AEADBlockCipher createCipherEngine(SymmetricKeyImpl key) {
+        AEADBlockCipher cipher = null;
         switch (algorithm) {
 
             case ALG_AES_CCM:
                 try{
-                    engine = new CCMBlockCipher(key.getCipher());
+                    cipher = new CCMBlockCipher(key.getCipher());
                 }
                 catch (Exception ex){
                     ex.printStackTrace();
@@ -477,7 +560,7 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
 
             case ALG_AES_GCM:
                 try{
-                    engine = new GCMBlockCipher(key.getCipher());
+                    cipher = new GCMBlockCipher(key.getCipher());
                 }
                 catch (Exception ex){
                     ex.printStackTrace();
@@ -489,6 +572,7 @@ public class AuthenticatedSymmetricCipherImpl extends AEADCipher {
                 CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
                 break;
         }
+        return cipher;
     }
 
     private boolean checkSupportTagLength(short tagLen){
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javacard.security.CryptoException;
+import javacard.security.Key;
+import javacard.security.Signature;
+
+/**
+ * Host side verification of many asymmetric signatures.
+ *
+ * <p>Verifications are collected with <code>add</code> and grouped by
+ * algorithm and key. <code>verifyAll</code> verifies every group in
+ * parallel on a <code>ForkJoinPool</code>; each worker uses its own
+ * <code>AsymmetricSignatureImpl</code> initialized once per chunk.</p>
+ *
+ * <p>Inside an applet <code>Signature.verify</code> must return its result
+ * immediately, so applets cannot use this class. It is meant for test
+ * drivers which check large numbers of records signed by a simulated
+ * card, or prepare signed records for it.</p>
+ *
+ * <p>Keys must not be modified until <code>verifyAll</code> returns.
+ * Instances are not thread safe.</p>
+ */
+public final class BatchVerifier {
+    /** minimum number of verifications per task */
+    private static final int MIN_CHUNK_SIZE = 4;
+
+    private final ForkJoinPool pool;
+    private final Map<GroupKey, Group> groups = new LinkedHashMap<GroupKey, Group>();
+    private int count;
+
+    /**
+     * Create a batch verifier using the common <code>ForkJoinPool</code>
+     */
+    public BatchVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a batch verifier
+     * @param pool pool executing the verifications
+     * @throws java.lang.NullPointerException if <code>pool</code> is null
+     */
+    public BatchVerifier(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Add a verification. The message and signature are copied.
+     * @param algorithm the <code>Signature.ALG_..</code> algorithm
+     * @param key the public key
+     * @param inBuff the input buffer of data to be verified
+     * @param inOffset the offset into the input buffer at which the data begins
+     * @param inLength the byte length to verify
+     * @param sigBuff the input buffer containing signature data
+     * @param sigOffset the offset into sigBuff where signature data begins
+     * @param sigLength the byte length of the signature data
+     * @return index of the result in the array returned by <code>verifyAll</code>
+     * @throws CryptoException like <code>Signature.init</code> if the algorithm or key is not valid,
+     * with reason <code>ILLEGAL_USE</code> for message recovery algorithms,
+     * or with reason <code>ILLEGAL_VALUE</code> if a length exceeds 32767
+     */
+    public int add(byte algorithm, Key key, byte[] inBuff, int inOffset, int inLength,
+            byte[] sigBuff, int sigOffset, int sigLength) {
+        if (inLength > Short.MAX_VALUE || sigLength > Short.MAX_VALUE) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        GroupKey groupKey = new GroupKey(algorithm, key);
+        Group group = groups.get(groupKey);
+        if (group == null) {
+            // fail early on unsupported algorithms and keys
+            AsymmetricSignatureImpl signature = new AsymmetricSignatureImpl(algorithm);
+            if (signature.isRecovery) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_USE);
+            }
+            signature.init(key, Signature.MODE_VERIFY);
+            group = new Group(groupKey);
+            groups.put(groupKey, group);
+        }
+        byte[] message = new byte[inLength];
+        System.arraycopy(inBuff, inOffset, message, 0, inLength);
+        byte[] signature = new byte[sigLength];
+        System.arraycopy(sigBuff, sigOffset, signature, 0, sigLength);
+        group.indexes.add(count);
+        group.messages.add(message);
+        group.signatures.add(signature);
+        return count++;
+    }
+
+    /**
+     * @return number of pending verifications
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Verify all pending verifications and clear them. A verification which
+     * fails with a <code>CryptoException</code>, e.g. because its key was
+     * cleared, is reported as <code>false</code>.
+     * @return results, indexed by the return value of <code>add</code>
+     */
+    public boolean[] verifyAll() {
+        boolean[] results = new boolean[count];
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, count / (pool.getParallelism() * 4) + 1);
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (Group group : groups.values()) {
+            int size = group.indexes.size();
+            for (int from = 0; from < size; from += chunkSize) {
+                tasks.add(new Chunk(group, from, Math.min(size, from + chunkSize), results));
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        groups.clear();
+        count = 0;
+        return results;
+    }
+
+    /**
+     * Verifies a range of one group
+     */
+    private static final class Chunk extends RecursiveAction {
+        private final Group group;
+        private final int from;
+        private final int to;
+        private final boolean[] results;
+
+        Chunk(Group group, int from, int to, boolean[] results) {
+            this.group = group;
+            this.from = from;
+            this.to = to;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            AsymmetricSignatureImpl signature = new AsymmetricSignatureImpl(group.key.algorithm);
+            try {
+                signature.init(group.key.key, Signature.MODE_VERIFY);
+            } catch (CryptoException e) {
+                // the results of the chunk stay false
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                byte[] message = group.messages.get(i);
+                byte[] sig = group.signatures.get(i);
+                try {
+                    results[group.indexes.get(i)] = signature.verify(message, (short) 0, (short) message.length,
+                            sig, (short) 0, (short) sig.length);
+                } catch (CryptoException e) {
+                    results[group.indexes.get(i)] = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pending verifications with the same algorithm and key
+     */
+    private static final class Group {
+        final GroupKey key;
+        final List<Integer> indexes = new ArrayList<Integer>();
+        final List<byte[]> messages = new ArrayList<byte[]>();
+        final List<byte[]> signatures = new ArrayList<byte[]>();
+
+        Group(GroupKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Algorithm and key, the key is compared by identity
+     */
+    private static final class GroupKey {
+        final byte algorithm;
+        final Key key;
+
+        GroupKey(byte algorithm, Key key) {
+            this.algorithm = algorithm;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) obj;
+            return algorithm == other.algorithm && key == other.key;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(key) + algorithm;
+        }
+    }
+}
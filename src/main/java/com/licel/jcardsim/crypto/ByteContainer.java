@@ -136,16 +136,22 @@ public final class ByteContainer {
     }
 
     /**
-     * Return transient plain byte array representation of the <code>ByteContainer</code>
-     * @param event type of transient byte array
+     * Return plain byte array representation of the <code>ByteContainer</code>
+     *
+     * <p>The returned copy is a scratch array for the crypto engines. It is not
+     * registered in the transient memory of the runtime, so repeated calls
+     * do not grow the <code>CLEAR_ON_...</code> lists. The <code>event</code>
+     * parameter is kept for compatibility and ignored.</p>
+     *
+     * @param event type of transient byte array (ignored)
      * @return plain byte array
      */
     public byte[] getBytes(byte event) {
         if (length == 0) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
-        byte[] result = JCSystem.makeTransientByteArray(length, event);
-        getBytes(result, (short) 0);
+        byte[] result = new byte[length];
+        System.arraycopy(data, 0, result, 0, length);
         return result;
     }
 
@@ -167,6 +173,31 @@ public final class ByteContainer {
         return length;
     }
 
+    /**
+     * Compare the contents of the <code>ByteContainer</code> with a byte array
+     * @param buff byte array
+     * @return true if initialized and the contents equal <code>buff</code>
+     */
+    public boolean contentEquals(byte[] buff) {
+        if (length == 0 || buff.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[i] != buff[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the data is stored in persistent memory
+     */
+    public boolean isPersistent() {
+        return memoryType != JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT
+                && memoryType != JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
+    }
+
     /**
      * Clear internal structure of the <code>ByteContainer</code>
      */
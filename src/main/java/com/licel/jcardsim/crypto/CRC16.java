@@ -29,6 +29,7 @@ import javacard.security.CryptoException;
 public class CRC16 extends Checksum {
 
     static final byte LENGTH = 2;
+    private static final int POLYNOMIAL = 0x1021;
     private byte crc16[];
 
     public CRC16() {
@@ -62,19 +63,41 @@ public class CRC16 extends Checksum {
     }
 
     void crc16(byte inBuf[], short inOff, short inLen) {
-        short fcs = Util.getShort(crc16, (short) 0);
-        for (short i = inOff; i < (short) (inOff + inLen); i++) {
-            short d = (short) (inBuf[i] << 8);
-            for (short k = 0; k < 8; k++) {
-                if ((short) ((fcs ^ d) & 0x8000) != 0) {
-                    fcs = (short) ((short) (fcs << 1) ^ 0x1021);
-                } else {
-                    fcs <<= 1;
-                }
-                d <<= 1;
-            }
+        int fcs = Util.getShort(crc16, (short) 0) & 0xFFFF;
+        int i = inOff;
+        int end = inOff + inLen;
+        for (; i <= end - 8; i += 8) {
+            fcs ^= ((inBuf[i] & 0xFF) << 8) | (inBuf[i + 1] & 0xFF);
+            fcs = TABLE[7][fcs >>> 8] ^ TABLE[6][fcs & 0xFF]
+                    ^ TABLE[5][inBuf[i + 2] & 0xFF] ^ TABLE[4][inBuf[i + 3] & 0xFF]
+                    ^ TABLE[3][inBuf[i + 4] & 0xFF] ^ TABLE[2][inBuf[i + 5] & 0xFF]
+                    ^ TABLE[1][inBuf[i + 6] & 0xFF] ^ TABLE[0][inBuf[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            fcs = ((fcs << 8) & 0xFFFF) ^ TABLE[0][(fcs >>> 8) ^ (inBuf[i] & 0xFF)];
+        }
+        Util.setShort(crc16, (short) 0, (short) fcs);
+    }
 
+    /**
+     * Slicing-by-8 tables, <code>TABLE[k][b]</code> is the CRC of byte <code>b</code>
+     * followed by <code>k</code> zero bytes
+     */
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int fcs = b << 8;
+            for (int k = 0; k < 8; k++) {
+                fcs = (fcs & 0x8000) != 0 ? (fcs << 1) ^ POLYNOMIAL : fcs << 1;
+            }
+            TABLE[0][b] = fcs & 0xFFFF;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int b = 0; b < 256; b++) {
+                int fcs = TABLE[k - 1][b];
+                TABLE[k][b] = ((fcs << 8) & 0xFFFF) ^ TABLE[0][fcs >>> 8];
+            }
         }
-        Util.setShort(crc16, (short) 0, fcs);
     }
 }
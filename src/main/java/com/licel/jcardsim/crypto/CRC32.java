@@ -29,10 +29,9 @@ import javacard.security.CryptoException;
 public class CRC32 extends Checksum {
 
     final static byte LENGTH = 4;
+    /** reflected 0x04C11DB7 */
+    private static final int POLYNOMIAL = 0xEDB88320;
     private byte crc32[];
-    private final byte polynom[] = {
-        4, -63, 29, -73
-    };
 
     public CRC32() {
         crc32 = JCSystem.makeTransientByteArray(LENGTH, JCSystem.CLEAR_ON_DESELECT);
@@ -66,67 +65,45 @@ public class CRC32 extends Checksum {
     }
 
     private void crc32(byte inBuf[], short inOff, short inLen) {
-        short fcs_h = Util.getShort(crc32, (short) 0);
-        short fcs_l = Util.getShort(crc32, (short) 2);
-        short poly_h = Util.getShort(polynom, (short) 0);
-        short poly_l = Util.getShort(polynom, (short) 2);
-        byte carry = 0;
-        for (short i = inOff; i < (short) (inOff + inLen); i++) {
-            short d_h = (short) (reflect8(inBuf[i]) << 8);
-            for (short k = 0; k < 8; k++) {
-                if (((fcs_h ^ d_h) & 0x8000) != 0) {
-                    carry = 0;
-                    short lfcs_h = shift(fcs_h);
-                    if ((fcs_l & 0x8000) != 0) {
-                        carry = 1;
-                    }
-                    short lfcs_l = shift(fcs_l);
-                    if (carry == 1) {
-                        lfcs_h++;
-                    }
-                    fcs_h = (short) (lfcs_h ^ poly_h);
-                    fcs_l = (short) (lfcs_l ^ poly_l);
-                } else {
-                    carry = 0;
-                    short lfcs_h = shift(fcs_h);
-                    if ((fcs_l & 0x8000) != 0) {
-                        carry = 1;
-                    }
-                    short lfcs_l = shift(fcs_l);
-                    if (carry == 1) {
-                        lfcs_h++;
-                    }
-                    fcs_h = lfcs_h;
-                    fcs_l = lfcs_l;
-                }
-                d_h <<= 1;
-            }
-
+        // the register is stored reflected but loaded as is, kept for compatibility
+        int fcs = Integer.reverse(((Util.getShort(crc32, (short) 0) & 0xFFFF) << 16)
+                | (Util.getShort(crc32, (short) 2) & 0xFFFF));
+        int i = inOff;
+        int end = inOff + inLen;
+        for (; i <= end - 8; i += 8) {
+            fcs ^= (inBuf[i] & 0xFF) | ((inBuf[i + 1] & 0xFF) << 8)
+                    | ((inBuf[i + 2] & 0xFF) << 16) | (inBuf[i + 3] << 24);
+            fcs = TABLE[7][fcs & 0xFF] ^ TABLE[6][(fcs >>> 8) & 0xFF]
+                    ^ TABLE[5][(fcs >>> 16) & 0xFF] ^ TABLE[4][fcs >>> 24]
+                    ^ TABLE[3][inBuf[i + 4] & 0xFF] ^ TABLE[2][inBuf[i + 5] & 0xFF]
+                    ^ TABLE[1][inBuf[i + 6] & 0xFF] ^ TABLE[0][inBuf[i + 7] & 0xFF];
         }
-
-        Util.setShort(crc32, (short) 2, reflect16(fcs_h));
-        Util.setShort(crc32, (short) 0, reflect16(fcs_l));
-    }
-
-    private byte reflect8(byte input){
-        byte reflected = 0;
-        for( byte i = 0; i < 8; i++){
-            if((input & (0x80 >> i)) > 0 )
-                reflected |= (1 << i);
+        for (; i < end; i++) {
+            fcs = (fcs >>> 8) ^ TABLE[0][(fcs ^ inBuf[i]) & 0xFF];
         }
-        return reflected;
+        Util.setShort(crc32, (short) 0, (short) (fcs >>> 16));
+        Util.setShort(crc32, (short) 2, (short) fcs);
     }
 
-    private short reflect16(short input){
-        short reflected = 0;
-        for( byte i = 0; i < 16; i++){
-            if((input & (0x8000 >> i)) > 0 )
-                reflected |= (1 << i);
-        }
-        return reflected;
-    }
+    /**
+     * Slicing-by-8 tables of the reflected algorithm, <code>TABLE[k][b]</code>
+     * is the CRC of byte <code>b</code> followed by <code>k</code> zero bytes
+     */
+    private static final int[][] TABLE = new int[8][256];
 
-    short shift(short s) {
-        return s <<= 1;
+    static {
+        for (int b = 0; b < 256; b++) {
+            int fcs = b;
+            for (int k = 0; k < 8; k++) {
+                fcs = (fcs & 1) != 0 ? (fcs >>> 1) ^ POLYNOMIAL : fcs >>> 1;
+            }
+            TABLE[0][b] = fcs;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int b = 0; b < 256; b++) {
+                int fcs = TABLE[k - 1][b];
+                TABLE[k][b] = (fcs >>> 8) ^ TABLE[0][fcs & 0xFF];
+            }
+        }
     }
 }
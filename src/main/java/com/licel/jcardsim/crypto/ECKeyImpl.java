@@ -17,6 +17,11 @@ package com.licel.jcardsim.crypto;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javacard.framework.JCSystem;
 import javacard.security.CryptoException;
 import javacard.security.ECKey;
@@ -29,6 +34,7 @@ import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECKeyParameters;
 import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.FixedPointUtil;
 
 /**
  * Base class for
@@ -37,6 +43,18 @@ import org.bouncycastle.math.ec.ECCurve;
  * @see ECKey
  */
 public abstract class ECKeyImpl extends KeyImpl implements ECKey {
+    /** maximum number of custom curves kept in <code>SHARED_DOMAIN_PARAMETERS</code> */
+    private static final int MAX_SHARED_CURVES = 32;
+    /** named curves by name */
+    private static final Map<String, ECDomainParameters> NAMED_CURVES = new ConcurrentHashMap<String, ECDomainParameters>();
+    /** domain parameters shared by all keys with the same fields, most recently used last */
+    private static final Map<CurveId, ECDomainParameters> SHARED_DOMAIN_PARAMETERS = Collections.synchronizedMap(
+            new LinkedHashMap<CurveId, ECDomainParameters>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CurveId, ECDomainParameters> eldest) {
+                    return size() > MAX_SHARED_CURVES;
+                }
+            });
 
     protected ByteContainer a = new ByteContainer();
     protected ByteContainer b = new ByteContainer();
@@ -48,6 +66,13 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
     protected short e2;
     protected short e3;
     protected boolean isKInitialized;
+    /** domain parameters of the fields above, null if not built yet or a field changed */
+    private ECDomainParameters domainParameters;
+    /**
+     * field, A, B, G and R at the time <code>domainParameters</code> was set.
+     * Transaction rollback and clear events change the fields without a setter call.
+     */
+    private byte[][] domainParametersSource;
 
     /**
      * Construct not-initialized ecc key
@@ -89,6 +114,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
         e1 = 0;
         e2 = 0;
         e3 = 0;
+        domainParameters = null;
     }
 
     protected boolean isDomainParametersInitialized() {
@@ -98,6 +124,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
 
     public void setFieldFP(byte[] buffer, short offset, short length) throws CryptoException {
         fp.setBytes(buffer, offset, length);
+        domainParameters = null;
     }
 
     public void setFieldF2M(short e) throws CryptoException {
@@ -108,27 +135,33 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
         this.e1 = e1;
         this.e2 = e2;
         this.e3 = e3;
+        domainParameters = null;
     }
 
     public void setA(byte[] buffer, short offset, short length) throws CryptoException {
         a.setBytes(buffer, offset, length);
+        domainParameters = null;
     }
 
     public void setB(byte[] buffer, short offset, short length) throws CryptoException {
         b.setBytes(buffer, offset, length);
+        domainParameters = null;
     }
 
     public void setG(byte[] buffer, short offset, short length) throws CryptoException {
         g.setBytes(buffer, offset, length);
+        domainParameters = null;
     }
 
     public void setR(byte[] buffer, short offset, short length) throws CryptoException {
         r.setBytes(buffer, offset, length);
+        domainParameters = null;
     }
 
     public void setK(short K) {
         this.k = K;
         isKInitialized = true;
+        domainParameters = null;
     }
 
     public short getField(byte[] buffer, short offset) throws CryptoException {
@@ -162,6 +195,12 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
      * Get
      * <code>ECDomainParameters</code>
      *
+     * <p>The result is cached until a domain parameter of this key changes,
+     * including changes by an aborted transaction.
+     * Keys with equal domain parameters share one instance, so the
+     * fixed-base multiplication table of the generator is only computed
+     * once per curve.</p>
+     *
      * @return parameters for use with BouncyCastle API
      * @see ECDomainParameters
      */
@@ -169,6 +208,46 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
         if (!isDomainParametersInitialized()) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
+        ECDomainParameters parameters = domainParameters;
+        if (parameters != null && !isDomainParametersSource()) {
+            parameters = null;
+        }
+        if (parameters == null) {
+            CurveId id = new CurveId(fp.isInitialized() ? fp.getBigInteger() : null, size, e1, e2, e3,
+                    a.getBigInteger(), b.getBigInteger(), g.getBytes(JCSystem.CLEAR_ON_RESET), r.getBigInteger(), k);
+            parameters = SHARED_DOMAIN_PARAMETERS.get(id);
+            if (parameters == null) {
+                parameters = buildDomainParameters();
+                FixedPointUtil.precompute(parameters.getG());
+                SHARED_DOMAIN_PARAMETERS.put(id, parameters);
+            }
+            cacheDomainParameters(parameters);
+        }
+        return parameters;
+    }
+
+    private void cacheDomainParameters(ECDomainParameters parameters) {
+        domainParametersSource = new byte[][]{
+            fp.isInitialized() ? fp.getBytes(JCSystem.CLEAR_ON_RESET) : null,
+            a.getBytes(JCSystem.CLEAR_ON_RESET),
+            b.getBytes(JCSystem.CLEAR_ON_RESET),
+            g.getBytes(JCSystem.CLEAR_ON_RESET),
+            r.getBytes(JCSystem.CLEAR_ON_RESET)
+        };
+        domainParameters = parameters;
+    }
+
+    /**
+     * @return true if the fields still hold the bytes <code>domainParameters</code> was built from
+     */
+    private boolean isDomainParametersSource() {
+        byte[][] source = domainParametersSource;
+        return (source[0] == null ? !fp.isInitialized() : fp.contentEquals(source[0]))
+                && a.contentEquals(source[1]) && b.contentEquals(source[2])
+                && g.contentEquals(source[3]) && r.contentEquals(source[4]);
+    }
+
+    private ECDomainParameters buildDomainParameters() {
         ECCurve curve = null;
         if (fp.isInitialized()) {
             curve = new ECCurve.Fp(fp.getBigInteger(), a.getBigInteger(), b.getBigInteger());
@@ -203,6 +282,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
             ECCurve.F2m ecf2m = (ECCurve.F2m) parameters.getCurve();
             setFieldF2M((short) ecf2m.getK1(), (short) ecf2m.getK2(), (short) ecf2m.getK3());
         }
+        cacheDomainParameters(parameters);
     }
 
     /**
@@ -276,13 +356,85 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
                 CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
                 break;
         }
-        X9ECParameters x9params = SECNamedCurves.getByName(curveName);
-        return new ECDomainParameters(
-                x9params.getCurve(),
-                x9params.getG(), // G
-                x9params.getN(), x9params.getH(), x9params.getSeed());
+        ECDomainParameters parameters = NAMED_CURVES.get(curveName);
+        if (parameters == null) {
+            X9ECParameters x9params = SECNamedCurves.getByName(curveName);
+            parameters = new ECDomainParameters(
+                    x9params.getCurve(),
+                    x9params.getG(), // G
+                    x9params.getN(), x9params.getH(), x9params.getSeed());
+            FixedPointUtil.precompute(parameters.getG());
+            ECCurve curve = parameters.getCurve();
+            CurveId id;
+            if (curve instanceof ECCurve.Fp) {
+                id = new CurveId(((ECCurve.Fp) curve).getQ(), keySize, (short) 0, (short) 0, (short) 0,
+                        curve.getA().toBigInteger(), curve.getB().toBigInteger(), parameters.getG().getEncoded(false),
+                        parameters.getN(), parameters.getH().shortValue());
+            } else {
+                ECCurve.F2m f2m = (ECCurve.F2m) curve;
+                id = new CurveId(null, keySize, (short) f2m.getK1(), (short) f2m.getK2(), (short) f2m.getK3(),
+                        curve.getA().toBigInteger(), curve.getB().toBigInteger(), parameters.getG().getEncoded(false),
+                        parameters.getN(), parameters.getH().shortValue());
+            }
+            // keys which set the fields of a named curve explicitly use the same instance
+            SHARED_DOMAIN_PARAMETERS.put(id, parameters);
+            NAMED_CURVES.put(curveName, parameters);
+        }
+        return parameters;
     }
     public void copyDomainParametersFrom(ECKey eckey) throws CryptoException {
         throw new UnsupportedOperationException("Not supported yet.");
     }
+
+    /**
+     * Value of the domain parameter fields of a key
+     */
+    private static final class CurveId {
+        private final BigInteger fp;
+        private final int m;
+        private final short e1;
+        private final short e2;
+        private final short e3;
+        private final BigInteger a;
+        private final BigInteger b;
+        private final byte[] g;
+        private final BigInteger r;
+        private final short k;
+        private final int hash;
+
+        CurveId(BigInteger fp, int m, short e1, short e2, short e3,
+                BigInteger a, BigInteger b, byte[] g, BigInteger r, short k) {
+            this.fp = fp;
+            // the field size only defines F2m curves
+            this.m = fp == null ? m : 0;
+            this.e1 = e1;
+            this.e2 = e2;
+            this.e3 = e3;
+            this.a = a;
+            this.b = b;
+            this.g = g;
+            this.r = r;
+            this.k = k;
+            this.hash = 31 * (31 * (fp == null ? m : fp.hashCode()) + Arrays.hashCode(g)) + r.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CurveId)) {
+                return false;
+            }
+            CurveId other = (CurveId) obj;
+            return hash == other.hash
+                    && (fp == null ? other.fp == null : fp.equals(other.fp))
+                    && m == other.m && e1 == other.e1 && e2 == other.e2 && e3 == other.e3
+                    && a.equals(other.a) && b.equals(other.b)
+                    && Arrays.equals(g, other.g)
+                    && r.equals(other.r) && k == other.k;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
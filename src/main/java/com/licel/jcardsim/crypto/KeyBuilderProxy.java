@@ -15,6 +15,9 @@
  */
 package com.licel.jcardsim.crypto;
 
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.base.SimulatorSystem;
+import javacard.framework.SystemException;
 import javacard.security.CryptoException;
 import javacard.security.Key;
 import javacard.security.KeyBuilder;
@@ -43,6 +46,8 @@ public class KeyBuilderProxy {
      * @throws CryptoException with the following reason codes:<ul>
      * <li><code>CryptoException.NO_SUCH_ALGORITHM</code> if the requested algorithm
      * associated with the specified type, size of key and key encryption interface is not supported.</ul>
+     * @throws SystemException with reason <code>NO_RESOURCE</code> if the storage of a
+     * persistent key exceeds the persistent memory budget of the runtime
      */
     public static Key buildKey(byte keyType, short keyLength, boolean keyEncryption)
             throws CryptoException {
@@ -138,7 +143,49 @@ public class KeyBuilderProxy {
                 CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
                 break;
         }
+        SimulatorRuntime runtime = SimulatorSystem.peekInstance();
+        if (runtime != null) {
+            runtime.allocatePersistentMemory(persistentStorageSize(keyType, keyLength));
+        }
         return key;
     }
+
+    /**
+     * @return bytes of persistent memory needed by the components of a key,
+     * 0 for transient keys
+     */
+    private static int persistentStorageSize(byte keyType, short keyLength) {
+        int n = ((keyLength & 0xFFFF) + 7) / 8;
+        switch (keyType) {
+            case KeyBuilder.TYPE_DES:
+            case KeyBuilder.TYPE_AES:
+            case KeyBuilder.TYPE_HMAC:
+            case KeyBuilder.TYPE_KOREAN_SEED:
+                return n;
+            // modulus, exponent
+            case KeyBuilder.TYPE_RSA_PUBLIC:
+            case KeyBuilder.TYPE_RSA_PRIVATE:
+                return 2 * n;
+            // P, Q, DP1, DQ1, PQ
+            case KeyBuilder.TYPE_RSA_CRT_PRIVATE:
+                return 5 * ((n + 1) / 2);
+            // P, Q, G, and Y or X
+            case KeyBuilder.TYPE_DSA_PUBLIC:
+            case KeyBuilder.TYPE_DSA_PRIVATE:
+            case KeyBuilder.TYPE_DH_PUBLIC:
+            case KeyBuilder.TYPE_DH_PRIVATE:
+                return 4 * n;
+            // field, A, B, G, R, W
+            case KeyBuilder.TYPE_EC_F2M_PUBLIC:
+            case KeyBuilder.TYPE_EC_FP_PUBLIC:
+                return 8 * n + 2;
+            // field, A, B, G, R, S
+            case KeyBuilder.TYPE_EC_F2M_PRIVATE:
+            case KeyBuilder.TYPE_EC_FP_PRIVATE:
+                return 7 * n + 1;
+            default:
+                return 0;
+        }
+    }
     
 }
@@ -1,18 +1,37 @@
 package com.licel.jcardsim.crypto;
 
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.base.SimulatorSystem;
 import javacard.security.CryptoException;
 import javacard.security.Key;
 import javacard.security.KeyBuilder;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
- * Design an internal secure storage for SIM-like key lifecycle management.
+ * Key store of a simulated card.
+ *
+ * <p>Every <code>SimulatorRuntime</code> has its own store, see
+ * <code>SimulatorRuntime.getKeyManager()</code>. Keys are stored under
+ * 32-bit ids; <code>keyId</code> derives a structured id from the key type
+ * and length. Lookups do not lock. Every entry carries a version which is
+ * incremented when the key is replaced, so a cached cipher engine can
+ * detect a key rotation by comparing versions.</p>
+ *
+ * <p>The static methods operate on the store of the current runtime, or on
+ * a shared store if no runtime is active.</p>
  */
-public class KeyManager {
+public final class KeyManager {
 
-    private static final Map<Byte, Key> keyStore = new HashMap<>();
+    private final ConcurrentMap<Integer, Entry> keyStore = new ConcurrentHashMap<Integer, Entry>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder creationNanos = new LongAdder();
 
     /**
      * Creates or retrieves a cryptographic key for the given parameters.
@@ -23,14 +42,7 @@ public class KeyManager {
      * @throws CryptoException If the key parameters are invalid.
      */
     public static Key getKey(byte keyType, short keyLength, boolean keyEncryption) throws CryptoException {
-        byte keyId = generateKeyId(keyType, keyLength);
-        if (keyStore.containsKey(keyId)) {
-            return keyStore.get(keyId);
-        }
-
-        Key key = buildKey(keyType, keyLength, keyEncryption);
-        keyStore.put(keyId, key);
-        return key;
+        return current().getOrCreate(keyId(keyType, keyLength), keyType, keyLength, keyEncryption);
     }
 
     /**
@@ -39,8 +51,7 @@ public class KeyManager {
      * @param keyLength The length of the key.
      */
     public static void deleteKey(byte keyType, short keyLength) {
-        byte keyId = generateKeyId(keyType, keyLength);
-        keyStore.remove(keyId);
+        current().remove(keyId(keyType, keyLength));
     }
 
     /**
@@ -51,8 +62,142 @@ public class KeyManager {
      * @throws CryptoException If the new key cannot be created.
      */
     public static void updateKey(byte keyType, short keyLength, boolean keyEncryption) throws CryptoException {
-        deleteKey(keyType, keyLength);
-        getKey(keyType, keyLength, keyEncryption);
+        current().replace(keyId(keyType, keyLength), keyType, keyLength, keyEncryption);
+    }
+
+    /**
+     * Generates a unique identifier for a key type and length.
+     * @param keyType The type of key.
+     * @param keyLength The length of the key in bits.
+     * @return key id, the type in bits 16..23 and the length in bits 0..15
+     */
+    public static int keyId(byte keyType, short keyLength) {
+        return ((keyType & 0xFF) << 16) | (keyLength & 0xFFFF);
+    }
+
+    /**
+     * @return store of the current runtime, or the shared store if no runtime is active
+     */
+    static KeyManager current() {
+        SimulatorRuntime runtime = SimulatorSystem.peekInstance();
+        return runtime != null ? runtime.getKeyManager() : DefaultKeyManager.INSTANCE;
+    }
+
+    /**
+     * Return a stored key.
+     * @param keyId key id
+     * @return entry or <code>null</code> if no key is stored under <code>keyId</code>
+     */
+    public Entry get(int keyId) {
+        return keyStore.get(keyId);
+    }
+
+    /**
+     * Return the stored key, create it if no key is stored under <code>keyId</code>.
+     * @param keyId key id
+     * @param keyType The type of key to generate.
+     * @param keyLength The length of the key in bits.
+     * @param keyEncryption Whether the key should support encryption.
+     * @return The generated or retrieved key.
+     * @throws CryptoException If the key parameters are invalid, with reason
+     * <code>ILLEGAL_VALUE</code> if the stored key has another type or length.
+     */
+    public Key getOrCreate(int keyId, final byte keyType, final short keyLength, final boolean keyEncryption)
+            throws CryptoException {
+        Entry entry = keyStore.get(keyId);
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            entry = keyStore.computeIfAbsent(keyId, new Function<Integer, Entry>() {
+                public Entry apply(Integer id) {
+                    return new Entry(createKey(keyType, keyLength, keyEncryption), keyType, keyLength, 1);
+                }
+            });
+        }
+        if (entry.keyType != keyType || entry.keyLength != keyLength) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        return entry.key;
+    }
+
+    /**
+     * Store a new key, incrementing the version.
+     * @param keyId key id
+     * @param keyType The type of key.
+     * @param keyLength The length of the key in bits.
+     * @param keyEncryption Whether encryption should be supported.
+     * @return entry of the new key
+     * @throws CryptoException If the new key cannot be created.
+     */
+    public Entry replace(int keyId, byte keyType, short keyLength, boolean keyEncryption) throws CryptoException {
+        final Key key = createKey(keyType, keyLength, keyEncryption);
+        final byte type = keyType;
+        final short length = keyLength;
+        return keyStore.compute(keyId, new BiFunction<Integer, Entry, Entry>() {
+            public Entry apply(Integer id, Entry previous) {
+                return new Entry(key, type, length, previous == null ? 1 : previous.version + 1);
+            }
+        });
+    }
+
+    /**
+     * Deletes a key from the store.
+     * @param keyId key id
+     * @return true if a key was stored under <code>keyId</code>
+     */
+    public boolean remove(int keyId) {
+        return keyStore.remove(keyId) != null;
+    }
+
+    /**
+     * @return number of stored keys
+     */
+    public int size() {
+        return keyStore.size();
+    }
+
+    /**
+     * Deletes all keys. The statistics are kept.
+     */
+    public void clear() {
+        keyStore.clear();
+    }
+
+    /**
+     * @return number of <code>getOrCreate</code> calls which found the key
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of <code>getOrCreate</code> calls which did not find the key
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of keys created
+     */
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    /**
+     * @return total time spent creating keys in nanoseconds
+     */
+    public long getCreationTimeNanos() {
+        return creationNanos.sum();
+    }
+
+    private Key createKey(byte keyType, short keyLength, boolean keyEncryption) throws CryptoException {
+        long start = System.nanoTime();
+        Key key = buildKey(keyType, keyLength, keyEncryption);
+        creationNanos.add(System.nanoTime() - start);
+        created.increment();
+        return key;
     }
 
     /**
@@ -91,9 +236,38 @@ public class KeyManager {
     }
 
     /**
-     * Generates a unique identifier for a key type and length.
+     * Stored key and its version, immutable
      */
-    private static byte generateKeyId(byte keyType, short keyLength) {
-        return (byte) (keyType ^ (keyLength & 0xFF));
+    public static final class Entry {
+        private final Key key;
+        private final byte keyType;
+        private final short keyLength;
+        private final int version;
+
+        Entry(Key key, byte keyType, short keyLength, int version) {
+            this.key = key;
+            this.keyType = keyType;
+            this.keyLength = keyLength;
+            this.version = version;
+        }
+
+        /**
+         * @return the key
+         */
+        public Key getKey() {
+            return key;
+        }
+
+        /**
+         * @return version, 1 for a new key and incremented on every <code>replace</code>
+         */
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    /** used without an active runtime */
+    private static final class DefaultKeyManager {
+        static final KeyManager INSTANCE = new KeyManager();
     }
 }
@@ -37,6 +37,7 @@ import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
  * @see RSAKeyPairGenerator
  * @see DSAKeyPairGenerator
  * @see ECKeyPairGenerator
+ * @see KeyPairPool
  */
 public final class KeyPairImpl {
 
@@ -88,7 +89,14 @@ public final class KeyPairImpl {
             throws CryptoException {
         initEngine();        
         createKeys();
-        AsymmetricCipherKeyPair kp = engine.generateKeyPair();
+        AsymmetricCipherKeyPair kp = null;
+        KeyPairPool pool = KeyPairPool.getShared();
+        if (pool != null) {
+            kp = pool.poll(algorithm, keyLength, keyGenerationParameters);
+        }
+        if (kp == null) {
+            kp = engine.generateKeyPair();
+        }
         ((KeyWithParameters)publicKey).setParameters(kp.getPublic());
         ((KeyWithParameters)privateKey).setParameters(kp.getPrivate());
     }
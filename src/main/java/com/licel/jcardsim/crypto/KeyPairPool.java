@@ -0,0 +1,296 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javacard.security.KeyPair;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPairGenerator;
+import org.bouncycastle.crypto.KeyGenerationParameters;
+import org.bouncycastle.crypto.generators.DSAKeyPairGenerator;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.DSAKeyGenerationParameters;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+
+/**
+ * Background pre-generation of RSA and DSA key pairs.
+ *
+ * <p>For every algorithm and key length requested from
+ * <code>KeyPair.genKeyPair</code> the pool keeps up to <code>depth</code>
+ * key pairs, generated by low priority worker threads. Only key pairs with
+ * the default public parameters (exponent 65537 for RSA, the precomputed
+ * p, q and g for DSA) are pooled. <code>genKeyPair</code> generates the key
+ * pair itself if the public key has other parameters or the pool has none
+ * ready.</p>
+ *
+ * <p>The pool is disabled by default. It is enabled by setting the system
+ * property <code>com.licel.jcardsim.keypair.pool.depth</code> to a positive
+ * depth before the first key pair is generated, or with
+ * <code>setShared</code>. Pooled key pairs use <code>SecureRandom</code>,
+ * not the random generator of the card.</p>
+ */
+public final class KeyPairPool implements Closeable {
+    /** System property which configures the depth of the shared pool, 0 disables it */
+    public static final String DEPTH_PROPERTY = "com.licel.jcardsim.keypair.pool.depth";
+    /** System property which configures the number of worker threads of the shared pool */
+    public static final String THREADS_PROPERTY = "com.licel.jcardsim.keypair.pool.threads";
+
+    private static final BigInteger DEFAULT_RSA_EXPONENT = BigInteger.valueOf(65537);
+    private static final int DEFAULT_RSA_CERTAINTY = 80;
+
+    private static final Object sharedLock = new Object();
+    private static volatile boolean sharedConfigured;
+    private static volatile KeyPairPool shared;
+
+    private final int depth;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<Integer, Slot> slots = new ConcurrentHashMap<Integer, Slot>();
+
+    /**
+     * Create a pool
+     * @param depth number of key pairs kept per algorithm and key length
+     * @param threadCount number of worker threads
+     * @throws java.lang.IllegalArgumentException if <code>depth</code> or <code>threadCount</code> is not positive
+     */
+    public KeyPairPool(int depth, int threadCount) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        this.depth = depth;
+        this.executor = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+    }
+
+    /**
+     * Return the pool used by <code>KeyPair.genKeyPair</code>. On first use it
+     * is created from <code>DEPTH_PROPERTY</code> and <code>THREADS_PROPERTY</code>.
+     * @return shared pool or <code>null</code> if pre-generation is disabled
+     */
+    public static KeyPairPool getShared() {
+        if (!sharedConfigured) {
+            synchronized (sharedLock) {
+                if (!sharedConfigured) {
+                    int depth = Integer.getInteger(DEPTH_PROPERTY, 0);
+                    if (depth > 0) {
+                        int threads = Integer.getInteger(THREADS_PROPERTY,
+                                Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+                        shared = new KeyPairPool(depth, threads);
+                    }
+                    sharedConfigured = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Replace the pool used by <code>KeyPair.genKeyPair</code>. The previous pool is not closed.
+     * @param pool new pool or <code>null</code> to disable pre-generation
+     */
+    public static void setShared(KeyPairPool pool) {
+        synchronized (sharedLock) {
+            shared = pool;
+            sharedConfigured = true;
+        }
+    }
+
+    /**
+     * @return number of key pairs kept per algorithm and key length
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Start generating key pairs with default parameters ahead of the first request
+     * @param algorithm <code>KeyPair.ALG_RSA</code>, <code>KeyPair.ALG_RSA_CRT</code> or <code>KeyPair.ALG_DSA</code>
+     * @param keyLength key length in bits
+     * @throws java.lang.IllegalArgumentException if the algorithm or key length is not pooled
+     */
+    public void prefill(byte algorithm, short keyLength) {
+        if (!isPooled(algorithm, keyLength)) {
+            throw new IllegalArgumentException("Not pooled: algorithm " + algorithm + ", length " + keyLength);
+        }
+        slot(algorithm, keyLength).fill();
+    }
+
+    /**
+     * @param algorithm <code>KeyPair.ALG_..</code> algorithm
+     * @param keyLength key length in bits
+     * @return number of ready key pairs
+     */
+    public int available(byte algorithm, short keyLength) {
+        Slot slot = slots.get(slotKey(algorithm, keyLength));
+        return slot == null ? 0 : slot.keyPairs.size();
+    }
+
+    /**
+     * Stop the worker threads. Ready key pairs are still handed out.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Take a ready key pair and schedule a replacement
+     * @param algorithm <code>KeyPair.ALG_..</code> algorithm
+     * @param keyLength key length in bits
+     * @param parameters parameters the caller would generate the key pair with
+     * @return key pair or <code>null</code> if the parameters are not the defaults or none is ready
+     */
+    AsymmetricCipherKeyPair poll(byte algorithm, short keyLength, KeyGenerationParameters parameters) {
+        if (!isPooled(algorithm, keyLength) || !isDefault(algorithm, keyLength, parameters)) {
+            return null;
+        }
+        return slot(algorithm, keyLength).poll();
+    }
+
+    private Slot slot(byte algorithm, short keyLength) {
+        Integer key = slotKey(algorithm, keyLength);
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            Slot newSlot = new Slot(algorithm, keyLength);
+            slot = slots.putIfAbsent(key, newSlot);
+            if (slot == null) {
+                slot = newSlot;
+            }
+        }
+        return slot;
+    }
+
+    private static Integer slotKey(byte algorithm, short keyLength) {
+        // RSA and RSA CRT key pairs are generated the same way
+        byte kind = algorithm == KeyPair.ALG_RSA_CRT ? KeyPair.ALG_RSA : algorithm;
+        return (kind << 16) | (keyLength & 0xFFFF);
+    }
+
+    private static boolean isPooled(byte algorithm, short keyLength) {
+        switch (algorithm) {
+            case KeyPair.ALG_RSA:
+            case KeyPair.ALG_RSA_CRT:
+                return keyLength > 0;
+            case KeyPair.ALG_DSA:
+                return keyLength == 512 || keyLength == 768 || keyLength == 1024;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isDefault(byte algorithm, short keyLength, KeyGenerationParameters parameters) {
+        if (parameters instanceof RSAKeyGenerationParameters) {
+            RSAKeyGenerationParameters rsa = (RSAKeyGenerationParameters) parameters;
+            return algorithm != KeyPair.ALG_DSA && rsa.getStrength() == keyLength
+                    && rsa.getCertainty() == DEFAULT_RSA_CERTAINTY
+                    && DEFAULT_RSA_EXPONENT.equals(rsa.getPublicExponent());
+        }
+        if (parameters instanceof DSAKeyGenerationParameters) {
+            DSAKeyGenerationParameters dsa = (DSAKeyGenerationParameters) parameters;
+            return algorithm == KeyPair.ALG_DSA && dsa.getParameters().equals(
+                    ((DSAKeyGenerationParameters) DSAKeyImpl.getDefaultKeyGenerationParameters(keyLength, null)).getParameters());
+        }
+        return false;
+    }
+
+    private AsymmetricCipherKeyPair generate(byte algorithm, short keyLength) {
+        AsymmetricCipherKeyPairGenerator generator;
+        if (algorithm == KeyPair.ALG_DSA) {
+            generator = new DSAKeyPairGenerator();
+            generator.init(DSAKeyImpl.getDefaultKeyGenerationParameters(keyLength, random));
+        } else {
+            generator = new RSAKeyPairGenerator();
+            generator.init(RSAKeyImpl.getDefaultKeyGenerationParameters(keyLength, random));
+        }
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Ready key pairs of one algorithm and key length
+     */
+    private final class Slot implements Runnable {
+        final byte algorithm;
+        final short keyLength;
+        final ConcurrentLinkedQueue<AsymmetricCipherKeyPair> keyPairs = new ConcurrentLinkedQueue<AsymmetricCipherKeyPair>();
+        /** ready plus scheduled key pairs */
+        private final AtomicInteger reserved = new AtomicInteger();
+
+        Slot(byte algorithm, short keyLength) {
+            this.algorithm = algorithm;
+            this.keyLength = keyLength;
+        }
+
+        AsymmetricCipherKeyPair poll() {
+            AsymmetricCipherKeyPair keyPair = keyPairs.poll();
+            if (keyPair != null) {
+                reserved.decrementAndGet();
+            }
+            fill();
+            return keyPair;
+        }
+
+        void fill() {
+            while (true) {
+                int count = reserved.get();
+                if (count >= depth) {
+                    return;
+                }
+                if (reserved.compareAndSet(count, count + 1)) {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        // closed
+                        reserved.decrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                keyPairs.add(generate(algorithm, keyLength));
+            } catch (RuntimeException e) {
+                // retried on the next poll
+                reserved.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String prefix = "jcardsim-keypair-" + poolNumber.incrementAndGet() + "-worker-";
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    }
+}
@@ -25,12 +25,18 @@ import javacard.security.MessageDigest;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.digests.*;
 import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Memoable;
 import org.bouncycastle.util.Pack;
 
 /**
  * Implementation
  * <code>MessageDigest</code> based
  * on BouncyCastle CryptoAPI.
+ *
+ * <p>As a jCardSim specific extension the state of a digest can be saved
+ * and restored, or copied into a new instance, so a common message prefix
+ * is hashed only once. Instances returned by
+ * <code>MessageDigest.getInstance</code> can be cast to this class.</p>
  * @see MessageDigest
  * @see MD5Digest
  * @see RIPEMD160Digest
@@ -45,6 +51,10 @@ public class MessageDigestImpl extends InitializedMessageDigest {
     private byte componentSize;
     private byte componentCount;
     private byte componentStartIdx;
+    /** arguments and resulting state of the last <code>setInitialDigest</code> call */
+    private byte[] lastInitialDigest;
+    private byte[] lastDigestedMsgLen;
+    private Digest initialState;
 
     public MessageDigestImpl(byte algorithm) {
         this.algorithm = algorithm;
@@ -154,6 +164,51 @@ public class MessageDigestImpl extends InitializedMessageDigest {
         engine.reset();
     }
 
+    /**
+     * Save the state of the digest, including input not yet processed
+     * @return saved state
+     */
+    public State saveState() {
+        return new State(algorithm, copyDigest(engine));
+    }
+
+    /**
+     * Continue from a saved state. The state may be restored any number of times.
+     * @param state state saved by an instance with the same algorithm
+     * @throws CryptoException with reason <code>ILLEGAL_VALUE</code> if the algorithm differs
+     */
+    public void restoreState(State state) {
+        if (state.algorithm != algorithm) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        restoreDigest(state.digest);
+    }
+
+    /**
+     * Create a new instance which continues from the current state
+     * @return new instance
+     */
+    public MessageDigestImpl fork() {
+        MessageDigestImpl copy = new MessageDigestImpl(algorithm);
+        copy.restoreDigest(engine);
+        return copy;
+    }
+
+    private static Digest copyDigest(Digest digest) {
+        if (digest instanceof Memoable) {
+            return (Digest) ((Memoable) digest).copy();
+        }
+        return new SHA3Digest((SHA3Digest) digest);
+    }
+
+    private void restoreDigest(Digest digest) {
+        if (engine instanceof Memoable) {
+            ((Memoable) engine).reset((Memoable) digest);
+        } else {
+            engine = copyDigest(digest);
+        }
+    }
+
     public void setInitialDigest(byte[] initialDigestBuf, short initialDigestOffset,
             short initialDigestLength, byte[] digestedMsgLenBuf, short digestedMsgLenOffset,
             short digestedMsgLenLength) throws CryptoException {
@@ -180,6 +235,17 @@ public class MessageDigestImpl extends InitializedMessageDigest {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
 
+        // the same prefix is often set again, restore the state instead of using reflection
+        if (initialState != null && lastInitialDigest.length == initialDigestLength
+                && lastDigestedMsgLen.length == digestedMsgLenLength
+                && Util.arrayCompare(initialDigestBuf, initialDigestOffset, lastInitialDigest, (short) 0, initialDigestLength) == 0
+                && Util.arrayCompare(digestedMsgLenBuf, digestedMsgLenOffset, lastDigestedMsgLen, (short) 0, digestedMsgLenLength) == 0) {
+            restoreDigest(initialState);
+            return;
+        }
+        initialState = null;
+        engine.reset();
+
         // Set initial state for SHA3-224,SHA3-256,SHA3-384 and SHA3-512, BouncyCastle specific
         if( (algorithm == ALG_SHA3_224) || (algorithm == ALG_SHA3_256) || (algorithm == ALG_SHA3_384) || (algorithm == ALG_SHA3_512) ){
             try {
@@ -187,7 +253,7 @@ public class MessageDigestImpl extends InitializedMessageDigest {
                 statesField.setAccessible(true);
                 long[] states = long[].class.cast(statesField.get(engine));
                 for (byte i = 0; i < states.length; i++) {
-                    states[i] = Pack.bigEndianToLong(initialDigestBuf,i*(Long.SIZE/Byte.SIZE));
+                    states[i] = Pack.bigEndianToLong(initialDigestBuf, initialDigestOffset + i*(Long.SIZE/Byte.SIZE));
                 }
             } catch (Exception e) {
                 CryptoException.throwIt(CryptoException.ILLEGAL_USE);
@@ -228,6 +294,12 @@ public class MessageDigestImpl extends InitializedMessageDigest {
                 CryptoException.throwIt(CryptoException.ILLEGAL_USE);
             }
         }
+
+        lastInitialDigest = new byte[initialDigestLength];
+        Util.arrayCopyNonAtomic(initialDigestBuf, initialDigestOffset, lastInitialDigest, (short) 0, initialDigestLength);
+        lastDigestedMsgLen = new byte[digestedMsgLenLength];
+        Util.arrayCopyNonAtomic(digestedMsgLenBuf, digestedMsgLenOffset, lastDigestedMsgLen, (short) 0, digestedMsgLenLength);
+        initialState = copyDigest(engine);
     }
 
     private boolean checkSupportDigestedMsgLenLength(short digestedMsgLenLength){
@@ -271,7 +343,7 @@ public class MessageDigestImpl extends InitializedMessageDigest {
                 statesField.setAccessible(true);
                 long[] states = long[].class.cast(statesField.get(engine));
                 for (byte i = 0; i < states.length; i++) {
-                    Pack.longToBigEndian(states[i],intermediateDigest,i*(Long.SIZE/Byte.SIZE));
+                    Pack.longToBigEndian(states[i], intermediateDigest, off + i*(Long.SIZE/Byte.SIZE));
                 }
             } catch (Exception e) {
                 CryptoException.throwIt(CryptoException.ILLEGAL_USE);
@@ -340,4 +412,24 @@ public class MessageDigestImpl extends InitializedMessageDigest {
         return 0;
     }
 
+    /**
+     * Saved state of a <code>MessageDigestImpl</code>
+     * @see #saveState()
+     */
+    public static final class State {
+        private final byte algorithm;
+        private final Digest digest;
+
+        private State(byte algorithm, Digest digest) {
+            this.algorithm = algorithm;
+            this.digest = digest;
+        }
+
+        /**
+         * @return the <code>MessageDigest.ALG_..</code> algorithm
+         */
+        public byte getAlgorithm() {
+            return algorithm;
+        }
+    }
 }
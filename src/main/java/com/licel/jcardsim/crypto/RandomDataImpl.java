@@ -15,6 +15,9 @@
  */
 package com.licel.jcardsim.crypto;
 
+import com.licel.jcardsim.base.EntropySource;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.base.SimulatorSystem;
 import javacard.framework.Util;
 import javacard.security.CryptoException;
 import javacard.security.RandomData;
@@ -22,21 +25,31 @@ import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.bouncycastle.crypto.prng.DigestRandomGenerator;
 import org.bouncycastle.crypto.prng.RandomGenerator;
 
-import java.security.SecureRandom;
-
 /**
  * Implementation <code>RandomData</code> based
  * on BouncyCastle CryptoAPI.
+ * <p>Every instance has its own generator, seeded from the
+ * <code>EntropySource</code> of the active runtime.</p>
  * @see RandomData
+ * @see EntropySource
  */
 public class RandomDataImpl extends RandomData {
+    private static final int SEED_LENGTH = 32;
+
     byte algorithm;
     RandomGenerator engine;
 
     public RandomDataImpl(byte algorithm) {
         this.algorithm = algorithm;
         this.engine = new DigestRandomGenerator(new SHA1Digest());
-        this.engine.addSeedMaterial(new SecureRandom().generateSeed(8));
+        byte[] seed = new byte[SEED_LENGTH];
+        entropySource().nextSeed(seed);
+        this.engine.addSeedMaterial(seed);
+    }
+
+    private static EntropySource entropySource() {
+        SimulatorRuntime runtime = SimulatorSystem.peekInstance();
+        return runtime != null ? runtime.getEntropySource() : DefaultEntropySource.INSTANCE;
     }
 
     public void generateData(byte[] buffer, short offset, short length) throws CryptoException {
@@ -57,4 +70,9 @@ public class RandomDataImpl extends RandomData {
         engine.nextBytes(buffer, offset, length);
         return (short) (offset + length);
     }
+
+    /** used outside of a runtime */
+    private static final class DefaultEntropySource {
+        static final EntropySource INSTANCE = EntropySource.seeded();
+    }
 }
@@ -28,6 +28,7 @@ import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
 import org.bouncycastle.crypto.paddings.PKCS7Padding;
 import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.bouncycastle.crypto.paddings.ZeroBytePadding;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
 /**
@@ -40,6 +41,12 @@ public class SymmetricCipherImpl extends Cipher {
     byte algorithm;
     BufferedBlockCipher engine;
     boolean isInitialized;
+    /** keyed engines for MODE_DECRYPT and MODE_ENCRYPT */
+    private final BufferedBlockCipher[] keyedEngines = new BufferedBlockCipher[2];
+    /** key of <code>keyedEngines</code> */
+    private SymmetricKeyImpl keyedKey;
+    private int keyedKeyVersion;
+    private byte[] keyedKeyData;
 
 
     public SymmetricCipherImpl(byte algorithm) {
@@ -47,9 +54,7 @@ public class SymmetricCipherImpl extends Cipher {
     }
 
     public void init(Key theKey, byte theMode) throws CryptoException {
-        selectCipherEngine(theKey);
-        engine.init(theMode == MODE_ENCRYPT, ((SymmetricKeyImpl) theKey).getParameters());
-        isInitialized = true;
+        initEngine(theKey, theMode, null, (short) 0, (short) 0);
     }
 
     public void init(Key theKey, byte theMode, byte[] bArray, short bOff, short bLen) throws CryptoException {
@@ -70,13 +75,89 @@ public class SymmetricCipherImpl extends Cipher {
                 }
                 break;
         }
-        selectCipherEngine(theKey);
-        byte[] iv = JCSystem.makeTransientByteArray(bLen, JCSystem.CLEAR_ON_RESET);
-        Util.arrayCopyNonAtomic(bArray, bOff, iv, (short) 0, bLen);
-        engine.init(theMode == MODE_ENCRYPT, new ParametersWithIV(((SymmetricKeyImpl) theKey).getParameters(), iv));
+        initEngine(theKey, theMode, bArray, bOff, bLen);
+    }
+
+    /**
+     * Initialize <code>engine</code>.
+     *
+     * <p>The keyed engine of each direction is kept until another key is
+     * used or the key data changes, so a new IV only resets the chaining
+     * state and does not repeat the key schedule.</p>
+     *
+     * @param theKey key
+     * @param theMode MODE_ENCRYPT or MODE_DECRYPT
+     * @param iv buffer holding the IV or null
+     * @param ivOff offset of the IV
+     * @param ivLen length of the IV
+     */
+    private void initEngine(Key theKey, byte theMode, byte[] iv, short ivOff, short ivLen) {
+        checkKey(theKey);
+        SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
+        boolean forEncryption = theMode == MODE_ENCRYPT;
+        int index = forEncryption ? 1 : 0;
+        if (key != keyedKey || !key.isSameKey(keyedKeyVersion, keyedKeyData)) {
+            keyedEngines[0] = null;
+            keyedEngines[1] = null;
+            keyedKey = null;
+        }
+
+        BufferedBlockCipher keyed = keyedEngines[index];
+        if (keyed != null && canRekey(iv != null)) {
+            if (iv != null) {
+                keyed.init(forEncryption, new ParametersWithIV(null, iv, ivOff, ivLen));
+            } else if (isChainingMode()) {
+                keyed.init(forEncryption, new ParametersWithIV(null, new byte[keyed.getBlockSize()]));
+            } else {
+                keyed.reset();
+            }
+            engine = keyed;
+        } else {
+            engine = createCipherEngine(key);
+            KeyParameter keyParameter = (KeyParameter) key.getParameters();
+            engine.init(forEncryption, iv == null ? keyParameter : new ParametersWithIV(keyParameter, iv, ivOff, ivLen));
+            if (keyedKey == null) {
+                keyedKey = key;
+                keyedKeyVersion = key.getVersion();
+                keyedKeyData = keyParameter.getKey();
+            }
+            keyedEngines[index] = engine;
+        }
         isInitialized = true;
     }
 
+    /**
+     * Check if a keyed engine can be initialized without the key
+     * @param withIV true if an IV is provided
+     * @return false if the init must fail like a new engine would
+     */
+    private boolean canRekey(boolean withIV) {
+        switch (algorithm) {
+            case ALG_AES_CTR:
+                // SICBlockCipher requires an IV
+                return withIV;
+            default:
+                // block ciphers without chaining reject an IV
+                return withIV == isChainingMode();
+        }
+    }
+
+    private boolean isChainingMode() {
+        switch (algorithm) {
+            case ALG_DES_CBC_NOPAD:
+            case ALG_AES_BLOCK_128_CBC_NOPAD:
+            case ALG_KOREAN_SEED_CBC_NOPAD:
+            case ALG_DES_CBC_ISO9797_M1:
+            case ALG_DES_CBC_ISO9797_M2:
+            case ALG_DES_CBC_PKCS5:
+            case ALG_AES_CBC_ISO9797_M2:
+            case ALG_AES_CTR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public byte getAlgorithm() {
         return algorithm;
     }
@@ -102,7 +183,7 @@ public class SymmetricCipherImpl extends Cipher {
         return (short) engine.processBytes(inBuff, inOffset, inLength, outBuff, outOffset);
     }
 
-    private void selectCipherEngine(Key theKey) {
+    private void checkKey(Key theKey) {
         if (theKey == null) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
@@ -115,8 +196,10 @@ public class SymmetricCipherImpl extends Cipher {
         if( !checkKeyCompatibility(theKey)){
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
+    }
 
-        SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
+    private BufferedBlockCipher createCipherEngine(SymmetricKeyImpl key) {
+        BufferedBlockCipher engine = null;
         switch (algorithm) {
             case ALG_DES_CBC_NOPAD:
             case ALG_AES_BLOCK_128_CBC_NOPAD:
@@ -156,6 +239,7 @@ public class SymmetricCipherImpl extends Cipher {
                 CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
                 break;
         }
+        return engine;
     }
 
     private boolean checkKeyCompatibility(Key theKey){
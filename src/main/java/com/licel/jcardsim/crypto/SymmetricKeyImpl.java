@@ -37,6 +37,8 @@ import org.bouncycastle.crypto.params.KeyParameter;
 public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey, KoreanSEEDKey {
 
     protected ByteContainer key;
+    /** incremented whenever the key data is set or cleared */
+    private int version;
 
     /**
      * Create new instance of <code>SymmetricKeyImpl</code>
@@ -74,6 +76,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
      */
     public void clearKey() {
         key.clear();
+        version++;
     }
 
     /**
@@ -81,6 +84,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
      */
     public void setKey(byte[] keyData, short kOff) throws CryptoException, NullPointerException, ArrayIndexOutOfBoundsException {
         key.setBytes(keyData, kOff, (short) (size / 8));
+        version++;
     }
 
     /**
@@ -88,6 +92,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
      */
     public void setKey(byte[] keyData, short kOff, short kLen) throws CryptoException, NullPointerException, ArrayIndexOutOfBoundsException {
         key.setBytes(keyData, kOff, kLen);
+        version++;
     }
     /**
      * Returns the <code>Key</code> data in plain text.
@@ -98,6 +103,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
 
      public void setParameters(CipherParameters params){
        key.setBytes(((KeyParameter)params).getKey());
+       version++;
     }
     
     /**
@@ -150,6 +156,30 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
         return cipher;
     }
 
+    /**
+     * Return the version of the key data, which changes on every
+     * <code>setKey</code>, <code>setParameters</code> and <code>clearKey</code>.
+     *
+     * <p>The data of transient keys is also zeroed by clear events and an
+     * aborted transaction restores the previous data of persistent keys,
+     * neither changes the version. Use <code>isSameKey</code> to detect that.</p>
+     *
+     * @return key version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Check that the key data has not changed since a snapshot was taken
+     * @param keyVersion <code>getVersion()</code> at the time of the snapshot
+     * @param keyData key data at the time of the snapshot
+     * @return true if the key data is unchanged
+     */
+    boolean isSameKey(int keyVersion, byte[] keyData) {
+        return keyVersion == version && key.contentEquals(keyData);
+    }
+
     public boolean isInitialized() {
         return key.isInitialized();
     }
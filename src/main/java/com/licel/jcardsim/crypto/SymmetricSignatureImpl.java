@@ -21,6 +21,7 @@ import javacard.security.Key;
 import javacard.security.Signature;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.Mac;
 import org.bouncycastle.crypto.digests.MD5Digest;
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
@@ -36,7 +37,9 @@ import org.bouncycastle.crypto.macs.ISO9797Alg3Mac;
 import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
 import org.bouncycastle.crypto.paddings.PKCS7Padding;
 import org.bouncycastle.crypto.paddings.ZeroBytePadding;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Memoable;
 
 /**
  * Implementation
@@ -49,6 +52,20 @@ public class SymmetricSignatureImpl extends Signature {
     Mac engine;
     byte algorithm;
     boolean isInitialized;
+
+    /** key of <code>engine</code>, the engine is reused while the key is unchanged */
+    private SymmetricKeyImpl keyedKey;
+    private int keyedKeyVersion;
+    private byte[] keyedKeyData;
+    private int keyedBlockSize;
+    /** true if <code>engine</code> was initialized with an IV */
+    private boolean keyedWithIV;
+    /** digest of the <code>HMac</code> engine and its state after the inner pad */
+    private Digest hmacDigest;
+    private Memoable hmacInnerState;
+
+    private static final ParametersWithIV ZERO_IV_64 = new ParametersWithIV(null, new byte[8]);
+    private static final ParametersWithIV ZERO_IV_128 = new ParametersWithIV(null, new byte[16]);
     
     public SymmetricSignatureImpl(byte algorithm) {
         this.algorithm = algorithm;
@@ -68,15 +85,26 @@ public class SymmetricSignatureImpl extends Signature {
         if (!(theKey instanceof SymmetricKeyImpl)) {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
+        SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
+        if (engine != null && key == keyedKey && key.isSameKey(keyedKeyVersion, keyedKeyData)
+                && rekey(bArray, bOff, bLen)) {
+            isInitialized = true;
+            return;
+        }
+        keyedKey = null;
+        hmacDigest = null;
+        hmacInnerState = null;
+
         CipherParameters cipherParams = null;
-        BlockCipher cipher = ((SymmetricKeyImpl) theKey).getCipher();
+        KeyParameter keyParameter = (KeyParameter) key.getParameters();
+        BlockCipher cipher = key.getCipher();
         if (bArray == null) {
-            cipherParams = ((SymmetricKeyImpl) theKey).getParameters();
+            cipherParams = keyParameter;
         } else {
             if (bLen != cipher.getBlockSize()) {
                 CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
             }
-            cipherParams = new ParametersWithIV(((SymmetricKeyImpl) theKey).getParameters(), bArray, bOff, bLen);
+            cipherParams = new ParametersWithIV(keyParameter, bArray, bOff, bLen);
         }
         switch (algorithm) {
             case ALG_DES_MAC4_NOPAD:
@@ -113,30 +141,84 @@ public class SymmetricSignatureImpl extends Signature {
                 engine = new CMac(cipher, 128);
                 break;
             case ALG_HMAC_SHA1:
-                engine = new HMac(new SHA1Digest());
+                hmacDigest = new SHA1Digest();
+                engine = new HMac(hmacDigest);
                 break;
             case ALG_HMAC_SHA_256:
-                engine = new HMac(new SHA256Digest());
+                hmacDigest = new SHA256Digest();
+                engine = new HMac(hmacDigest);
                 break;
             case ALG_HMAC_SHA_384:
-                engine = new HMac(new SHA384Digest());
+                hmacDigest = new SHA384Digest();
+                engine = new HMac(hmacDigest);
                 break;
             case ALG_HMAC_SHA_512:
-                engine = new HMac(new SHA512Digest());
+                hmacDigest = new SHA512Digest();
+                engine = new HMac(hmacDigest);
                 break;
             case ALG_HMAC_MD5:
-                engine = new HMac(new MD5Digest());
+                hmacDigest = new MD5Digest();
+                engine = new HMac(hmacDigest);
                 break;
             case ALG_HMAC_RIPEMD160:
-                engine = new HMac(new RIPEMD160Digest());
+                hmacDigest = new RIPEMD160Digest();
+                engine = new HMac(hmacDigest);
                 break;
             default:
                 CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
                 break;
         }
         engine.init(cipherParams);
+        if (hmacDigest != null) {
+            hmacInnerState = ((Memoable) hmacDigest).copy();
+        }
+        keyedKey = key;
+        keyedKeyVersion = key.getVersion();
+        keyedKeyData = keyParameter.getKey();
+        keyedBlockSize = cipher == null ? 0 : cipher.getBlockSize();
+        keyedWithIV = bArray != null;
         isInitialized = true;
     }
+
+    /**
+     * Re-initialize the keyed engine without repeating the key schedule
+     * @param bArray IV or <code>null</code>
+     * @param bOff offset of the IV
+     * @param bLen length of the IV
+     * @return false if the engine must be initialized with the key
+     */
+    private boolean rekey(byte[] bArray, short bOff, short bLen) {
+        switch (algorithm) {
+            case ALG_DES_MAC4_NOPAD:
+            case ALG_DES_MAC8_NOPAD:
+            case ALG_DES_MAC4_ISO9797_M1:
+            case ALG_DES_MAC8_ISO9797_M1:
+            case ALG_DES_MAC4_ISO9797_M2:
+            case ALG_DES_MAC8_ISO9797_M2:
+            case ALG_DES_MAC4_PKCS5:
+            case ALG_DES_MAC8_PKCS5:
+            case ALG_AES_MAC_128_NOPAD:
+                if (bArray == null) {
+                    engine.init(keyedBlockSize == 8 ? ZERO_IV_64 : ZERO_IV_128);
+                } else if (bLen == keyedBlockSize) {
+                    engine.init(new ParametersWithIV(null, bArray, bOff, bLen));
+                } else {
+                    return false;
+                }
+                return true;
+            default:
+                // these engines take a new IV only together with the key
+                if (bArray != null || keyedWithIV) {
+                    return false;
+                }
+                if (hmacInnerState != null) {
+                    ((Memoable) hmacDigest).reset(hmacInnerState);
+                } else {
+                    engine.reset();
+                }
+                return true;
+        }
+    }
     
     public short getLength() throws CryptoException {
         if (!isInitialized) {
@@ -165,9 +247,8 @@ public class SymmetricSignatureImpl extends Signature {
             CryptoException.throwIt(CryptoException.ILLEGAL_USE);
         }
         engine.update(inBuff, inOffset, inLength);
-        short processedBytes = (short) engine.doFinal(sigBuff, sigOffset);
-        engine.reset();
-        return processedBytes;
+        // doFinal resets the engine
+        return (short) engine.doFinal(sigBuff, sigOffset);
     }
     
     public boolean verify(byte[] inBuff, short inOffset, short inLength, byte[] sigBuff, short sigOffset, short sigLength) throws CryptoException {
@@ -181,7 +262,6 @@ public class SymmetricSignatureImpl extends Signature {
         engine.update(inBuff, inOffset, inLength);
         byte[] sig = new byte[getLength()];
         engine.doFinal(sig, (short) 0);
-        engine.reset();
         return Util.arrayCompare(sig, (short) 0, sigBuff, sigOffset, (short) sig.length) == 0;
     }
 
@@ -18,9 +18,7 @@ package com.licel.jcardsim.framework;
 import com.licel.jcardsim.base.ApduCase;
 import com.licel.jcardsim.base.SimulatorSystem;
 import com.licel.jcardsim.utils.ByteUtil;
-import java.lang.reflect.Field;
 import java.util.Arrays;
-import javacard.framework.APDU;
 import javacard.framework.APDUException;
 import javacard.framework.ISO7816;
 import javacard.framework.Util;
@@ -80,6 +78,8 @@ public class APDUProxy {
     private static final byte FLAGS_LENGTH = 6;
     // APDU input buffer
     private final byte[] buffer;
+    // end of the region of buffer which may hold data of the previous command
+    private int dirtyLength;
     // extended APDU flag
     private final boolean extended;
 
@@ -88,7 +88,7 @@ public class APDUProxy {
         buffer = new byte[extended ? BUFFER_EXTENDED_SIZE : BUFFER_SIZE];
         ramVars = new short[RAM_VARS_LENGTH];
         flags = new boolean[FLAGS_LENGTH];
-        internalReset(javacard.framework.APDU.PROTOCOL_T0, ApduCase.Case1, null);
+        internalReset(javacard.framework.APDU.PROTOCOL_T0, ApduCase.Case1, null, 0);
     }
 
     /**
@@ -152,8 +152,7 @@ public class APDUProxy {
      * @see <CODE>PROTOCOL_T0</CODE>
      */
     public static byte getProtocol() {
-        APDU apdu = SimulatorSystem.instance().getCurrentAPDU();
-        return (byte)((short[])getFieldInternal(apdu,"ramVars"))[ACTIVE_PROTOCOL];
+        return (byte) currentProxy().ramVars[ACTIVE_PROTOCOL];
     }
 
     /**
@@ -390,6 +389,9 @@ public class APDUProxy {
         if (len > Lr) {
             APDUException.throwIt(APDUException.ILLEGAL_USE);
         }
+        if (bOff + len > dirtyLength) {
+            dirtyLength = bOff + len;
+        }
         SimulatorSystem.instance().sendAPDU(buffer, bOff, len);
 
         Lr -= len;
@@ -456,7 +458,7 @@ public class APDUProxy {
             if (len < sendLength) {
                 sendLength = len;
             }
-            Util.arrayCopy(outData, bOff, buffer, (short) 0, (short)sendLength);
+            Util.arrayCopyNonAtomic(outData, bOff, buffer, (short) 0, (short)sendLength);
             sendBytes((short) 0, (short)sendLength);
             len -= sendLength;
             bOff += sendLength;
@@ -531,7 +533,7 @@ public class APDUProxy {
             throws SecurityException {
         javacard.framework.APDU currentAPDU = SimulatorSystem.instance().getCurrentAPDU();
         
-        if (!((boolean[])getFieldInternal(currentAPDU, "flags"))[ACCESS_ALLOWED_FLAG]) {
+        if (!((APDUProxy) (Object) currentAPDU).flags[ACCESS_ALLOWED_FLAG]) {
             throw new SecurityException("getCurrentAPDU must not be called outside of Applet#process()");
         }
         return currentAPDU;
@@ -572,8 +574,7 @@ public class APDUProxy {
      * @return logical channel number, if present, within the CLA byte, 0 otherwise
      */
     public static byte getCLAChannel() {
-        javacard.framework.APDU apdu = SimulatorSystem.instance().getCurrentAPDU();
-        return (byte)((short[])getFieldInternal(apdu,"ramVars"))[LOGICAL_CHN];
+        return (byte) currentProxy().ramVars[LOGICAL_CHN];
     }
 
     /**
@@ -593,8 +594,7 @@ public class APDUProxy {
      */
     public static void waitExtension()
             throws APDUException {
-        javacard.framework.APDU apdu = SimulatorSystem.instance().getCurrentAPDU();
-        boolean[] apduFlags = (boolean[])getFieldInternal(apdu, "flags");
+        boolean[] apduFlags = currentProxy().flags;
         if (!apduFlags[ACCESS_ALLOWED_FLAG] || apduFlags[NO_CHAINING_FLAG]) {
             APDUException.throwIt(APDUException.ILLEGAL_USE);
         }
@@ -701,17 +701,24 @@ public class APDUProxy {
     /**
      * clear internal state of the APDU
      * called by SimulatorRuntime via reflection
+     *
+     * Only the region which held incoming or outgoing data of the previous
+     * command (and at least the first 260 bytes) is zeroed. Bytes an applet
+     * stores beyond that region without sending them are not cleared.
      */
-    private void internalReset(byte protocol, ApduCase apduCase, byte[] inputBuffer) {
+    private void internalReset(byte protocol, ApduCase apduCase, byte[] inputBuffer, int inputLength) {
         if (inputBuffer == null) {
             flags[ACCESS_ALLOWED_FLAG] = false;
             ramVars[ACTIVE_PROTOCOL] = protocol;
             return;
         }
 
-        Arrays.fill(buffer, (byte) 0);
+        // clear what the previous command received or sent and always the
+        // regular sized part, which applets commonly use as scratch space
+        Arrays.fill(buffer, 0, Math.max(dirtyLength, Math.min(buffer.length, BUFFER_SIZE)), (byte) 0);
         Arrays.fill(ramVars, (short) 0);
-        System.arraycopy(inputBuffer, 0, buffer, 0, inputBuffer.length);
+        System.arraycopy(inputBuffer, 0, buffer, 0, inputLength);
+        dirtyLength = inputLength;
         for(byte i=0;i<flags.length;i++) {flags[i]=false;}
 
         flags[ACCESS_ALLOWED_FLAG] = true;
@@ -758,14 +765,12 @@ public class APDUProxy {
         ramVars[LE] = le;
     }
     
-    private static Object getFieldInternal(APDU apdu, String fieldName){
-        try {
-            Field f = APDU.class.getDeclaredField(fieldName);
-            f.setAccessible(true);
-            return f.get(apdu);
-        } catch (Exception e){
-            throw new RuntimeException("Internal reflection error", e);
-        }
+    /**
+     * @return the current APDU; after the API classes are patched
+     * <code>APDUProxy</code> and <code>APDU</code> are the same class
+     */
+    private static APDUProxy currentProxy() {
+        return (APDUProxy) (Object) SimulatorSystem.instance().getCurrentAPDU();
     }
     
 }
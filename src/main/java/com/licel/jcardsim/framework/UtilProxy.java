@@ -15,6 +15,8 @@
  */
 package com.licel.jcardsim.framework;
 
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.base.SimulatorSystem;
 import javacard.framework.TransactionException;
 
 /**
@@ -29,7 +31,8 @@ public class UtilProxy {
      * <p>
      * Note:
      * <ul>
-     * <li><em>!!! CHECK <b>Current implementation use <code>System.arraycopy</code> method and no supported transactions !</b> !!!</em></li>
+     * <li><em>If a transaction is in progress and the destination array is persistent the
+     *     previous contents of the destination range are stored in the transaction journal.</em></li>
      * <li><em>If </em><code>srcOff</code><em> or </em><code>destOff</code><em> or </em><code>length</code><em> parameter
      *    is negative an </em><code>ArrayIndexOutOfBoundsException</code><em> exception is thrown.</em></li>
      * <li><em>If </em><code>srcOff+length</code><em> is greater than </em><code>src.length</code><em>, the length
@@ -63,6 +66,10 @@ public class UtilProxy {
      */
     public static final short arrayCopy(byte src[], short srcOff, byte dest[], short destOff, short length)
             throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException {
+        if (src == null) {
+            throw new NullPointerException();
+        }
+        recordUndo(dest, destOff, length);
         System.arraycopy(src, srcOff, dest, destOff, length);
         return (short) (destOff + length);
     }
@@ -109,6 +116,7 @@ public class UtilProxy {
      */
     public static final short arrayCopyNonAtomic(byte src[], short srcOff, byte dest[], short destOff, short length)
             throws ArrayIndexOutOfBoundsException, NullPointerException {
+        notePersistentWrite(dest);
         System.arraycopy(src, srcOff, dest, destOff, length);
         return (short) (destOff + length);
     }
@@ -146,6 +154,7 @@ public class UtilProxy {
         if (bLen < 0) {
             throw new ArrayIndexOutOfBoundsException();
         }
+        notePersistentWrite(bArray);
         while (bLen > 0) {
             bArray[bOff++] = bValue;
             bLen--;
@@ -242,9 +251,34 @@ public class UtilProxy {
      */
     public static final short setShort(byte bArray[], short bOff, short sValue)
             throws TransactionException, ArrayIndexOutOfBoundsException, NullPointerException {
+        recordUndo(bArray, bOff, (short) 2);
         bArray[bOff] = (byte) (sValue >> 8);
         bArray[bOff + 1] = (byte) sValue;
         return (short) (bOff + 2);
     }
-    
+
+    /**
+     * Store the pre-image of a persistent array range if a transaction is in progress
+     * @param array array about to be modified
+     * @param off offset of the modified range
+     * @param len length of the modified range
+     */
+    private static void recordUndo(byte[] array, short off, short len) {
+        SimulatorRuntime runtime = SimulatorSystem.peekInstance();
+        if (runtime != null) {
+            runtime.recordUndo(array, off, len);
+            runtime.notePersistentWrite(array);
+        }
+    }
+
+    /**
+     * Note a write to a possibly persistent array
+     * @param array array about to be modified
+     */
+    private static void notePersistentWrite(byte[] array) {
+        SimulatorRuntime runtime = SimulatorSystem.peekInstance();
+        if (runtime != null) {
+            runtime.notePersistentWrite(array);
+        }
+    }
 }
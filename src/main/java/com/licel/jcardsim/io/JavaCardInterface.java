@@ -15,7 +15,11 @@
  */
 package com.licel.jcardsim.io;
 
+import com.licel.jcardsim.utils.ByteUtil;
+import java.util.ArrayList;
+import java.util.List;
 import javacard.framework.AID;
+import javacard.framework.ISO7816;
 import javacard.framework.SystemException;
 
 /**
@@ -120,6 +124,41 @@ public interface JavaCardInterface extends CardInterface {
      */
     public byte[] selectAppletWithResult(AID aid);
 
+    /**
+     * Transmit a sequence of APDUs as one unit.
+     * @param commands command apdus
+     * @return response apdus, in the order of <code>commands</code>
+     * @see #transmitBatch(java.util.List, boolean)
+     */
+    public default List<byte[]> transmitBatch(List<byte[]> commands) {
+        return transmitBatch(commands, false);
+    }
+
+    /**
+     * Transmit a sequence of APDUs as one unit. The default implementation
+     * calls <code>transmitCommand</code> for every command; implementations
+     * override it so that no other command is processed by the card between
+     * the commands of the batch. If a command throws an exception, the
+     * exception is propagated and the responses of the preceding commands
+     * are not returned.
+     * @param commands command apdus
+     * @param stopOnError if true, the remaining commands are skipped after the
+     * first response with a status word other than 0x9000
+     * @return response apdus, in the order of <code>commands</code>;
+     * fewer than <code>commands</code> if the batch was stopped
+     */
+    public default List<byte[]> transmitBatch(List<byte[]> commands, boolean stopOnError) {
+        List<byte[]> responses = new ArrayList<byte[]>(commands.size());
+        for (byte[] command : commands) {
+            byte[] response = transmitCommand(command);
+            responses.add(response);
+            if (stopOnError && ByteUtil.getSW(response) != ISO7816.SW_NO_ERROR) {
+                break;
+            }
+        }
+        return responses;
+    }
+
     /**
      * Switch protocol
      *
@@ -19,6 +19,7 @@ import com.licel.jcardsim.base.CardManager;
 import com.licel.jcardsim.base.Simulator;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.Enumeration;
 import java.util.Properties;
@@ -126,6 +127,7 @@ public class BixVReaderCard {
         BixVReaderProtocol driverProtocol;
         Simulator sim;
         boolean isRunning;
+        final ByteBuffer response = ByteBuffer.allocate(FrameChannel.MAX_RESPONSE_LENGTH);
 
         public IOThread(Simulator sim, BixVReaderProtocol driverProtocol) {
             this.sim = sim;
@@ -145,8 +147,11 @@ public class BixVReaderCard {
                             driverProtocol.writeData(sim.getATR());
                             break;
                         case 2:
-                            byte[] apdu = driverProtocol.readData();
-                            driverProtocol.writeData(CardManager.dispatchApdu(sim, apdu));
+                            ByteBuffer apdu = driverProtocol.readDataBuffer();
+                            response.clear();
+                            CardManager.dispatchApdu(sim, apdu, response);
+                            response.flip();
+                            driverProtocol.writeData(response);
                             break;
                     }
                 } catch (Exception e) {
@@ -19,6 +19,7 @@
 package com.licel.jcardsim.remote;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface BixVReaderProtocol {
     public final static int CARD_INSERTED = 1;
@@ -35,6 +36,27 @@ public interface BixVReaderProtocol {
 
     public void writeData(byte[] data) throws IOException;
 
+    /**
+     * Read a command APDU. The default implementation wraps <code>readData</code>.
+     * @return buffer containing the APDU, valid until the next read
+     * @throws IOException if reading fails
+     */
+    public default ByteBuffer readDataBuffer() throws IOException {
+        return ByteBuffer.wrap(readData());
+    }
+
+    /**
+     * Write the remaining bytes of <code>data</code>. The default implementation
+     * copies them into an array for <code>writeData(byte[])</code>.
+     * @param data response APDU
+     * @throws IOException if writing fails
+     */
+    public default void writeData(ByteBuffer data) throws IOException {
+        byte[] dataBuf = new byte[data.remaining()];
+        data.get(dataBuf);
+        writeData(dataBuf);
+    }
+
     public void writeDataCommand(int cmd) throws IOException;
 
     public void writeEventCommand(int cmd) throws IOException;
@@ -18,76 +18,63 @@
 
 package com.licel.jcardsim.remote;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import java.util.Formatter;
 import java.util.concurrent.TimeUnit;
 
 public class BixVReaderTCPProtocol implements BixVReaderProtocol {
-    private Socket           socket;
-    private Socket           eventSocket;
-    private DataInputStream  dataInput;
-    private DataOutputStream dataOutput;
-    private DataOutputStream eventOutput;
+    private FrameChannel dataChannel;
+    private FrameChannel eventChannel;
 
     public void connect(String host, int port, int event_port) throws IOException {
-        socket = new Socket(host, port);
+        dataChannel = new FrameChannel(host, port, 4, ByteOrder.LITTLE_ENDIAN);
 
         try {
             TimeUnit.SECONDS.sleep(3);
         } catch (InterruptedException ignore) {}
 
-        eventSocket = new Socket(host, event_port);
-        dataInput   = new DataInputStream(socket.getInputStream());
-        dataOutput  = new DataOutputStream(socket.getOutputStream());
-        eventOutput = new DataOutputStream(eventSocket.getOutputStream());
+        eventChannel = new FrameChannel(host, event_port, 4, ByteOrder.LITTLE_ENDIAN);
     }
 
     public void disconnect() {
-        closeSocket(socket);
-        closeSocket(eventSocket);
+        dataChannel.close();
+        eventChannel.close();
     }
 
     public int readCommand() throws IOException {
-        byte[] cmdBuf = new byte[4];
-
-        readFully(cmdBuf, dataInput);
-
-        int cmd = cmdFromBytes(cmdBuf);
-
-        return cmd;
+        return dataChannel.readHeader();
     }
 
     public byte[] readData() throws IOException {
-        int    dataLen = readCommand();
-        byte[] dataBuf = new byte[dataLen];
+        ByteBuffer data    = readDataBuffer();
+        byte[]     dataBuf = new byte[data.remaining()];
 
-        readFully(dataBuf, dataInput);
+        data.get(dataBuf);
 
         return dataBuf;
     }
+
+    public ByteBuffer readDataBuffer() throws IOException {
+        return dataChannel.read(readCommand());
+    }
     
     public void writeData(byte[] data) throws IOException {
-        byte[] dataBuf = new byte[4 + data.length];
-        byte[] dataLen = cmdToBytes(data.length);
+        writeData(ByteBuffer.wrap(data));
+    }
 
-        System.arraycopy(dataLen, 0, dataBuf, 0, 4);
-        System.arraycopy(data, 0, dataBuf, 4, data.length);
-        dataOutput.write(dataBuf);
+    public void writeData(ByteBuffer data) throws IOException {
+        dataChannel.write(data);
     }
 
     public void writeDataCommand(int cmd) throws IOException {
-        writeCommand(dataOutput, cmd);
+        dataChannel.writeHeader(cmd);
     }
 
     public void writeEventCommand(int cmd) throws IOException {
-        writeCommand(eventOutput, cmd);
+        eventChannel.writeHeader(cmd);
     }
     
     private static String bytesToHex(byte[] bytes) {
@@ -99,40 +86,4 @@ public class BixVReaderTCPProtocol implements BixVReaderProtocol {
 
         return formatter.toString();
     }
-
-    private void closeSocket(Socket sock) {
-        try {
-            sock.close();
-        } catch (IOException ignored) {}
-    }
-
-    private int cmdFromBytes(byte[] cmd) {
-        return cmd[0] & 0xFF | (cmd[1] & 0xFF) << 8 | (cmd[2] & 0xFF) << 16 | (cmd[3] & 0xFF) << 24;
-    }
-
-    private byte[] cmdToBytes(int cmd) {
-        return new byte[] { (byte) (cmd), (byte) (cmd >>> 8), (byte) (cmd >>> 16), (byte) (cmd >>> 24) };
-    }
-    
-    private void readFully(byte[] buf, InputStream stream) throws IOException {
-        int len    = buf.length;
-        int offset = 0;
-
-        while (len > 0) {
-            int retval = stream.read(buf, offset, len);
-
-            if (retval < 0) {
-                throw new IOException("Got negative number from socket");
-            }
-
-            len    -= retval;
-            offset += retval;
-        }
-    }
-
-    private void writeCommand(OutputStream stream, int cmd) throws IOException {
-        byte[] buf = cmdToBytes(cmd);
-
-        stream.write(buf, 0, buf.length);
-    }
 }
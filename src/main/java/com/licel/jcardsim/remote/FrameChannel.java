@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Length prefixed frames over a blocking <code>SocketChannel</code>.
+ *
+ * <p>The header is an unsigned 16-bit or a 32-bit integer. Frames are read
+ * into one reusable buffer and written with a gathering write of the
+ * header and the payload, so reading and writing a frame does not allocate.
+ * Instances are not thread safe.</p>
+ */
+final class FrameChannel {
+    /** length of the largest extended command APDU: header, Lc, 65535 data bytes and Le */
+    static final int MAX_APDU_LENGTH = 4 + 3 + 65535 + 2;
+    /** size of the response buffer of <code>SimulatorRuntime</code> */
+    static final int MAX_RESPONSE_LENGTH = Short.MAX_VALUE + 2;
+
+    private final SocketChannel channel;
+    private final ByteBuffer readHeader;
+    private final ByteBuffer writeHeader;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_APDU_LENGTH);
+    private final ByteBuffer[] frame = new ByteBuffer[2];
+
+    /**
+     * Connect with <code>TCP_NODELAY</code>
+     * @param host host
+     * @param port port
+     * @param headerLength 2 or 4
+     * @param order byte order of the header
+     * @throws IOException if the connection fails
+     */
+    FrameChannel(String host, int port, int headerLength, ByteOrder order) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        readHeader = ByteBuffer.allocate(headerLength).order(order);
+        writeHeader = ByteBuffer.allocate(headerLength).order(order);
+        frame[0] = writeHeader;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    /**
+     * @return the next header value
+     */
+    int readHeader() throws IOException {
+        readHeader.clear();
+        readFully(readHeader);
+        readHeader.flip();
+        return readHeader.capacity() == 2 ? readHeader.getShort() & 0xFFFF : readHeader.getInt();
+    }
+
+    /**
+     * Read a payload
+     * @param length length of the payload
+     * @return buffer containing the payload, valid until the next call
+     */
+    ByteBuffer read(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        ByteBuffer buffer = length <= readBuffer.capacity() ? readBuffer : ByteBuffer.allocate(length);
+        buffer.clear();
+        buffer.limit(length);
+        readFully(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Write a header only
+     * @param value header value
+     */
+    void writeHeader(int value) throws IOException {
+        putHeader(value);
+        writeFully(writeHeader);
+    }
+
+    /**
+     * Write the remaining bytes of <code>payload</code> prefixed with their length
+     * @param payload payload
+     */
+    void write(ByteBuffer payload) throws IOException {
+        putHeader(payload.remaining());
+        frame[1] = payload;
+        try {
+            while (payload.hasRemaining() || writeHeader.hasRemaining()) {
+                channel.write(frame);
+            }
+        } finally {
+            frame[1] = null;
+        }
+    }
+
+    private void putHeader(int value) {
+        writeHeader.clear();
+        if (writeHeader.capacity() == 2) {
+            writeHeader.putShort((short) value);
+        } else {
+            writeHeader.putInt(value);
+        }
+        writeHeader.flip();
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Got negative number from socket");
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
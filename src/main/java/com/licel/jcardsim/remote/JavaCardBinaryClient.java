@@ -0,0 +1,297 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.io.JavaCardInterface;
+import com.licel.jcardsim.remote.JavaCardBinaryProtocol.Frame;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javacard.framework.AID;
+import javacard.framework.SystemException;
+
+import static com.licel.jcardsim.remote.JavaCardBinaryProtocol.*;
+
+/**
+ * Client of <code>JavaCardBinaryServer</code> for one card of the server.
+ *
+ * <p>Errors are reported like <code>JavaCardRemoteClient</code> does:
+ * <code>SystemException</code> and <code>IllegalArgumentException</code>
+ * of the server are rethrown, other errors and I/O failures cause a
+ * <code>SystemException</code> with reason <code>NO_RESOURCE</code>.
+ * Instances are thread safe, calls are serialized. A batch of APDUs sent
+ * with <code>transmitBatch</code> takes a single round trip.</p>
+ *
+ * @see JavaCardBinaryServer
+ */
+public class JavaCardBinaryClient implements JavaCardInterface, Closeable {
+
+    private final SocketChannel channel;
+    private final int card;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Frame response = new Frame(BUFFER_SIZE);
+    private final ByteArrayOutputStream args = new ByteArrayOutputStream();
+    private final DataOutputStream argsOut = new DataOutputStream(args);
+
+    /**
+     * Connect over TCP
+     * @param serverHost host of the server
+     * @param serverPort port of the server
+     * @param card index of the card on the server
+     * @throws IOException if the connection fails
+     */
+    public JavaCardBinaryClient(String serverHost, int serverPort, int card) throws IOException {
+        this(SocketChannel.open(new InetSocketAddress(serverHost, serverPort)), card);
+    }
+
+    /**
+     * Use a connected channel
+     * @param channel connected channel, closed by <code>close</code>
+     * @param card index of the card on the server
+     * @throws IOException if the channel cannot be configured
+     */
+    public JavaCardBinaryClient(SocketChannel channel, int card) throws IOException {
+        if (card < 0 || card > 0xFFFF) {
+            throw new IllegalArgumentException("card: " + card);
+        }
+        this.channel = channel;
+        this.card = card;
+        setNoDelay(channel);
+        in = input(channel);
+        out = output(channel);
+    }
+
+    /**
+     * Close the connection
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public synchronized AID loadApplet(AID aid, String appletClassName) throws SystemException {
+        return loadApplet(aid, appletClassName, null);
+    }
+
+    public synchronized AID loadApplet(AID aid, String appletClassName, byte[] appletJarContents) throws SystemException {
+        try {
+            args.reset();
+            writeAID(argsOut, aid);
+            argsOut.writeUTF(appletClassName);
+            if (appletJarContents == null) {
+                argsOut.writeByte(0);
+            } else {
+                argsOut.writeByte(1);
+                argsOut.write(appletJarContents);
+            }
+            return call(OP_LOAD_APPLET) ? resultAID() : null;
+        } catch (IOException e) {
+            return handleIOException(e);
+        }
+    }
+
+    public synchronized AID createApplet(AID aid, byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        try {
+            args.reset();
+            writeAID(argsOut, aid);
+            argsOut.write(bArray, bOffset, bLength);
+            return call(OP_CREATE_APPLET) ? resultAID() : null;
+        } catch (IOException e) {
+            return handleIOException(e);
+        }
+    }
+
+    public AID installApplet(AID aid, String appletClassName, byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        return createApplet(loadApplet(aid, appletClassName), bArray, bOffset, bLength);
+    }
+
+    public AID installApplet(AID aid, String appletClassName, byte[] appletJarContents, byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        return createApplet(loadApplet(aid, appletClassName, appletJarContents), bArray, bOffset, bLength);
+    }
+
+    public synchronized boolean selectApplet(AID aid) {
+        return callWithAID(OP_SELECT, aid) && response.data[1] != 0;
+    }
+
+    public synchronized byte[] selectAppletWithResult(AID aid) {
+        return callWithAID(OP_SELECT_WITH_RESULT, aid) ? result() : null;
+    }
+
+    public synchronized byte[] getATR() {
+        return callWithoutArguments(OP_GET_ATR) ? result() : null;
+    }
+
+    public synchronized byte[] transmitCommand(byte[] data) {
+        try {
+            send(OP_TRANSMIT, data, 0, data.length);
+            out.flush();
+            return receive() ? result() : null;
+        } catch (IOException e) {
+            return handleIOException(e);
+        }
+    }
+
+    public List<byte[]> transmitBatch(List<byte[]> commands) {
+        return transmitBatch(commands, false);
+    }
+
+    /**
+     * Transmit a sequence of APDUs in one round trip
+     * @see JavaCardInterface#transmitBatch(java.util.List, boolean)
+     */
+    public synchronized List<byte[]> transmitBatch(List<byte[]> commands, boolean stopOnError) {
+        try {
+            args.reset();
+            argsOut.writeByte(stopOnError ? 1 : 0);
+            for (byte[] command : commands) {
+                argsOut.writeInt(command.length);
+                argsOut.write(command);
+            }
+            if (!call(OP_TRANSMIT_BATCH)) {
+                return null;
+            }
+            DataInputStream result = new DataInputStream(new ByteArrayInputStream(response.data, 1, response.length - 1));
+            List<byte[]> responses = new ArrayList<byte[]>(commands.size());
+            while (result.available() > 0) {
+                byte[] r = new byte[result.readInt()];
+                result.readFully(r);
+                responses.add(r);
+            }
+            return responses;
+        } catch (IOException e) {
+            return handleIOException(e);
+        }
+    }
+
+    public synchronized void reset() {
+        callWithoutArguments(OP_RESET);
+    }
+
+    public synchronized void changeProtocol(String protocol) {
+        try {
+            args.reset();
+            argsOut.writeUTF(protocol);
+            call(OP_CHANGE_PROTOCOL);
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+    }
+
+    public synchronized String getProtocol() {
+        try {
+            if (!callWithoutArguments(OP_GET_PROTOCOL)) {
+                return null;
+            }
+            return new DataInputStream(new ByteArrayInputStream(response.data, 1, response.length - 1)).readUTF();
+        } catch (IOException e) {
+            return handleIOException(e);
+        }
+    }
+
+    private boolean callWithoutArguments(byte op) {
+        args.reset();
+        try {
+            return call(op);
+        } catch (IOException e) {
+            handleIOException(e);
+            return false;
+        }
+    }
+
+    private boolean callWithAID(byte op, AID aid) {
+        byte[] aidBytes = new byte[16];
+        try {
+            send(op, aidBytes, 0, aid.getBytes(aidBytes, (short) 0));
+            out.flush();
+            return receive();
+        } catch (IOException e) {
+            handleIOException(e);
+            return false;
+        }
+    }
+
+    /**
+     * Send a request with the arguments in <code>args</code> and read the response
+     */
+    private boolean call(byte op) throws IOException {
+        send(op, null, 0, 0);
+        out.flush();
+        return receive();
+    }
+
+    private void send(byte op, byte[] data, int offset, int length) throws IOException {
+        if (data == null) {
+            out.writeInt(3 + args.size());
+            out.writeByte(op);
+            out.writeShort(card);
+            args.writeTo(out);
+        } else {
+            out.writeInt(3 + length);
+            out.writeByte(op);
+            out.writeShort(card);
+            out.write(data, offset, length);
+        }
+    }
+
+    /**
+     * Read a response
+     * @return true if the request succeeded
+     * @throws SystemException or <code>IllegalArgumentException</code> if the request failed
+     */
+    private boolean receive() throws IOException {
+        response.read(in);
+        if (response.length == 0) {
+            throw new IOException("Invalid response");
+        }
+        DataInputStream detail = new DataInputStream(new ByteArrayInputStream(response.data, 1, response.length - 1));
+        switch (response.data[0]) {
+            case STATUS_OK:
+                return true;
+            case STATUS_SYSTEM_EXCEPTION:
+                SystemException.throwIt(detail.readShort());
+                return false;
+            case STATUS_ILLEGAL_ARGUMENT:
+                throw new IllegalArgumentException(detail.readUTF());
+            default:
+                SystemException.throwIt(SystemException.NO_RESOURCE);
+                return false;
+        }
+    }
+
+    private byte[] result() {
+        return Arrays.copyOfRange(response.data, 1, response.length);
+    }
+
+    private AID resultAID() {
+        return toAID(response.data, 1, response.length - 1);
+    }
+
+    private <T> T handleIOException(IOException e) {
+        SystemException.throwIt(SystemException.NO_RESOURCE);
+        return null;
+    }
+}
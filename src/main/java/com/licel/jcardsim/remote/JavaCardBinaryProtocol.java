@@ -0,0 +1,200 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import javacard.framework.AID;
+
+/**
+ * Length prefixed binary protocol of <code>JavaCardBinaryServer</code>.
+ *
+ * <p>All integers are big endian. A request is</p>
+ * <pre>
+ * int   length of the following bytes
+ * byte  operation, OP_..
+ * short card id
+ * ...   arguments
+ * </pre>
+ * <p>and is answered by</p>
+ * <pre>
+ * int   length of the following bytes
+ * byte  status, STATUS_..
+ * ...   result, or the reason of a SystemException, or an error message
+ * </pre>
+ * <p>Requests are answered in order, so a client may send several requests
+ * before reading the responses.</p>
+ */
+final class JavaCardBinaryProtocol {
+    /** command APDU, returns the response APDU */
+    static final byte OP_TRANSMIT = 1;
+    static final byte OP_RESET = 2;
+    static final byte OP_GET_ATR = 3;
+    /** AID, returns 1 if the applet was selected */
+    static final byte OP_SELECT = 4;
+    /** AID, returns the response APDU */
+    static final byte OP_SELECT_WITH_RESULT = 5;
+    /** AID, class name, 1 and jar contents or 0, returns the AID */
+    static final byte OP_LOAD_APPLET = 6;
+    /** AID, install parameters, returns the AID */
+    static final byte OP_CREATE_APPLET = 7;
+    /** protocol */
+    static final byte OP_CHANGE_PROTOCOL = 8;
+    /** returns the protocol */
+    static final byte OP_GET_PROTOCOL = 9;
+    /**
+     * 1 to stop on error or 0, then length and command APDU for every command,
+     * returns length and response APDU for every executed command
+     */
+    static final byte OP_TRANSMIT_BATCH = 10;
+
+    static final byte STATUS_OK = 0;
+    /** followed by the reason */
+    static final byte STATUS_SYSTEM_EXCEPTION = 1;
+    /** followed by the message */
+    static final byte STATUS_ILLEGAL_ARGUMENT = 2;
+    /** followed by the message */
+    static final byte STATUS_ERROR = 3;
+
+    /** buffer size of the streams, fits a short APDU frame */
+    static final int BUFFER_SIZE = 8192;
+    /** largest extended command APDU: header, 3 byte Lc, data and 2 byte Le */
+    static final int MAX_APDU_LENGTH = 4 + 3 + 65535 + 2;
+    /** largest request except <code>OP_LOAD_APPLET</code> and <code>OP_TRANSMIT_BATCH</code> */
+    static final int MAX_REQUEST_LENGTH = 3 + MAX_APDU_LENGTH;
+    /** error messages are truncated to this number of characters */
+    static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private JavaCardBinaryProtocol() {
+    }
+
+    static DataInputStream input(SocketChannel channel) {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+    }
+
+    static DataOutputStream output(SocketChannel channel) {
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+    /**
+     * Enable <code>TCP_NODELAY</code> if the channel supports it
+     */
+    static void setNoDelay(SocketChannel channel) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    static void writeAID(DataOutputStream out, AID aid) throws IOException {
+        if (aid == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] aidBytes = new byte[16];
+        byte aidLength = aid.getBytes(aidBytes, (short) 0);
+        out.writeByte(aidLength);
+        out.write(aidBytes, 0, aidLength);
+    }
+
+    /**
+     * @return length of the modified UTF-8 encoding of <code>s</code> without the length prefix
+     */
+    static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    static AID toAID(byte[] buffer, int offset, int length) {
+        return length == 0 ? null : new AID(buffer, (short) offset, (byte) length);
+    }
+
+    /**
+     * Reusable buffer for incoming frames
+     */
+    static final class Frame {
+        byte[] data;
+        int length;
+
+        Frame(int capacity) {
+            data = new byte[capacity];
+        }
+
+        /**
+         * Read the next frame, grow <code>data</code> if it does not fit
+         * @param in input
+         * @throws EOFException if the stream ends
+         */
+        void read(DataInputStream in) throws IOException {
+            int len = in.readInt();
+            if (len < 0) {
+                throw new IOException("Invalid frame length " + len);
+            }
+            readData(in, len, 0);
+        }
+
+        /**
+         * Read the next request. Requests are limited to <code>MAX_REQUEST_LENGTH</code>
+         * bytes, <code>OP_LOAD_APPLET</code> and <code>OP_TRANSMIT_BATCH</code> requests
+         * to <code>maxLargeLength</code> bytes.
+         * @param in input
+         * @param maxLargeLength limit of <code>OP_LOAD_APPLET</code> and <code>OP_TRANSMIT_BATCH</code>
+         * @throws EOFException if the stream ends
+         * @throws ProtocolException if the request is too long, the stream cannot be continued
+         */
+        void readRequest(DataInputStream in, int maxLargeLength) throws IOException {
+            int len = in.readInt();
+            if (len < 0) {
+                throw new ProtocolException("Invalid frame length " + len);
+            }
+            if (len <= MAX_REQUEST_LENGTH) {
+                readData(in, len, 0);
+                return;
+            }
+            byte op = in.readByte();
+            if ((op != OP_LOAD_APPLET && op != OP_TRANSMIT_BATCH) || len > maxLargeLength) {
+                throw new ProtocolException("Request of " + len + " bytes exceeds the limit");
+            }
+            readData(in, len, 1);
+            data[0] = op;
+        }
+
+        private void readData(DataInputStream in, int len, int offset) throws IOException {
+            if (len > data.length) {
+                data = new byte[len];
+            }
+            in.readFully(data, offset, len - offset);
+            length = len;
+        }
+    }
+}
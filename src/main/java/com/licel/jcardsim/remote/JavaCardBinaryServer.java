@@ -0,0 +1,377 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.remote.JavaCardBinaryProtocol.Frame;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javacard.framework.AID;
+import javacard.framework.SystemException;
+
+import static com.licel.jcardsim.remote.JavaCardBinaryProtocol.*;
+
+/**
+ * Server of a lightweight binary protocol, an alternative to the RMI based
+ * <code>JavaCardRemoteServer</code>.
+ *
+ * <p>The server hosts several cards addressed by their index. Each
+ * connection is served by its own thread; a client may pipeline requests,
+ * responses are sent in request order and flushed when no further request
+ * is buffered. Use <code>JavaCardBinaryClient</code> to connect.</p>
+ *
+ * <p>The server accepts connections on any bound
+ * <code>ServerSocketChannel</code>, including Unix domain socket channels
+ * on Java 16 and later.</p>
+ *
+ * @see JavaCardBinaryClient
+ */
+public class JavaCardBinaryServer implements Closeable {
+    /** System property which configures the number of cards of <code>main</code> */
+    public static final String CARDS_PROPERTY = "com.licel.jcardsim.terminal.cards";
+    /**
+     * System property which configures the maximum length in bytes of load applet
+     * and transmit batch requests, 16 MB by default. Other requests are limited
+     * to an extended APDU.
+     */
+    public static final String MAX_REQUEST_LENGTH_PROPERTY = "com.licel.jcardsim.terminal.maxRequestLength";
+
+    private static final int DEFAULT_MAX_REQUEST_LENGTH = 16 * 1024 * 1024;
+
+    private final List<Simulator> cards;
+    private final ServerSocketChannel serverChannel;
+    private final Set<SocketChannel> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+    private final AtomicInteger connectionNumber = new AtomicInteger();
+    private final Thread acceptThread;
+    private final int maxLargeRequestLength;
+
+    /**
+     * Create a TCP server
+     * @param host host to bind to
+     * @param port port to bind to, 0 for any free port
+     * @param cards cards, addressed by their index
+     * @throws IOException if the server cannot be bound
+     */
+    public JavaCardBinaryServer(String host, int port, List<? extends Simulator> cards) throws IOException {
+        this(bind(new InetSocketAddress(host, port)), cards);
+    }
+
+    /**
+     * Create a server accepting connections on a bound channel
+     * @param serverChannel bound channel, closed by <code>close</code>
+     * @param cards cards, addressed by their index
+     */
+    public JavaCardBinaryServer(ServerSocketChannel serverChannel, List<? extends Simulator> cards) {
+        this.serverChannel = serverChannel;
+        this.cards = new ArrayList<Simulator>(cards);
+        this.maxLargeRequestLength = Integer.getInteger(MAX_REQUEST_LENGTH_PROPERTY, DEFAULT_MAX_REQUEST_LENGTH);
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "jcardsim-binary-server");
+        acceptThread.start();
+    }
+
+    /**
+     * Open a server channel, closed again if it cannot be bound
+     */
+    private static ServerSocketChannel bind(SocketAddress address) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            return channel.bind(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static public void main(String args[]) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java com.licel.jcardsim.remote.JavaCardBinaryServer <jcardsim.cfg>");
+            System.exit(-1);
+        }
+        VSmartCard.loadConfiguration(args[0]);
+        String host = VSmartCard.requireProperty("com.licel.jcardsim.terminal.host");
+        int port = Integer.parseInt(VSmartCard.requireProperty("com.licel.jcardsim.terminal.port"));
+        int cardCount = Integer.getInteger(CARDS_PROPERTY, 1);
+        List<Simulator> cards = new ArrayList<Simulator>(cardCount);
+        for (int i = 0; i < cardCount; i++) {
+            cards.add(new Simulator(new SimulatorRuntime()));
+        }
+        new JavaCardBinaryServer(host, port, cards);
+    }
+
+    /**
+     * @return address the server is bound to
+     * @throws IOException if the server is closed
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stop accepting connections and close all connections
+     */
+    public void close() {
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        for (SocketChannel connection : connections) {
+            closeChannel(connection);
+        }
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                continue;
+            }
+            connections.add(channel);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        serve(channel);
+                    } finally {
+                        connections.remove(channel);
+                        closeChannel(channel);
+                    }
+                }
+            }, "jcardsim-binary-server-" + connectionNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static void closeChannel(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try {
+            setNoDelay(channel);
+            DataInputStream in = input(channel);
+            DataOutputStream out = output(channel);
+            Frame request = new Frame(BUFFER_SIZE);
+            byte[] response = new byte[FrameChannel.MAX_RESPONSE_LENGTH];
+            while (true) {
+                try {
+                    request.readRequest(in, maxLargeRequestLength);
+                } catch (EOFException e) {
+                    return;
+                } catch (ProtocolException e) {
+                    writeError(out, STATUS_ERROR, e.getMessage());
+                    out.flush();
+                    return;
+                }
+                process(request, response, out);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    private void process(Frame request, byte[] response, DataOutputStream out) throws IOException {
+        byte[] data = request.data;
+        if (request.length < 3) {
+            writeError(out, STATUS_ERROR, "Invalid request");
+            return;
+        }
+        byte op = data[0];
+        int cardId = ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        int offset = 3;
+        int length = request.length - 3;
+        if (cardId >= cards.size()) {
+            writeError(out, STATUS_ERROR, "Unknown card " + cardId);
+            return;
+        }
+        Simulator sim = cards.get(cardId);
+        try {
+            switch (op) {
+                case OP_TRANSMIT:
+                    int responseLength = sim.transmitCommand(data, offset, length, response, 0);
+                    writeResult(out, response, responseLength);
+                    break;
+                case OP_TRANSMIT_BATCH: {
+                    DataInputStream args = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+                    boolean stopOnError = args.readByte() != 0;
+                    List<byte[]> commands = new ArrayList<byte[]>();
+                    while (args.available() > 0) {
+                        int commandLength = args.readInt();
+                        if (commandLength < 0 || commandLength > args.available()) {
+                            writeError(out, STATUS_ERROR, "Invalid command length " + commandLength);
+                            return;
+                        }
+                        byte[] command = new byte[commandLength];
+                        args.readFully(command);
+                        commands.add(command);
+                    }
+                    List<byte[]> responses = sim.transmitBatch(commands, stopOnError);
+                    int resultLength = 0;
+                    for (byte[] r : responses) {
+                        resultLength += 4 + r.length;
+                    }
+                    out.writeInt(1 + resultLength);
+                    out.writeByte(STATUS_OK);
+                    for (byte[] r : responses) {
+                        out.writeInt(r.length);
+                        out.write(r);
+                    }
+                    break;
+                }
+                case OP_RESET:
+                    sim.reset();
+                    writeResult(out, response, 0);
+                    break;
+                case OP_GET_ATR:
+                    writeResult(out, sim.getATR());
+                    break;
+                case OP_SELECT:
+                    response[0] = (byte) (sim.selectApplet(toAID(data, offset, length)) ? 1 : 0);
+                    writeResult(out, response, 1);
+                    break;
+                case OP_SELECT_WITH_RESULT:
+                    writeResult(out, sim.selectAppletWithResult(toAID(data, offset, length)));
+                    break;
+                case OP_LOAD_APPLET: {
+                    DataInputStream args = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+                    AID aid = readAID(args);
+                    String appletClassName = args.readUTF();
+                    if (args.readByte() != 0) {
+                        byte[] jar = new byte[args.available()];
+                        args.readFully(jar);
+                        aid = sim.loadApplet(aid, appletClassName, jar);
+                    } else {
+                        aid = sim.loadApplet(aid, appletClassName);
+                    }
+                    writeAIDResult(out, aid);
+                    break;
+                }
+                case OP_CREATE_APPLET: {
+                    int aidLength = length == 0 ? 0 : data[offset] & 0xFF;
+                    int paramsLength = length - 1 - aidLength;
+                    if (paramsLength < 0 || paramsLength > Byte.MAX_VALUE) {
+                        writeError(out, STATUS_ERROR, "Invalid arguments");
+                        return;
+                    }
+                    AID aid = toAID(data, offset + 1, aidLength);
+                    int paramsOffset = offset + 1 + aidLength;
+                    aid = sim.createApplet(aid, data, (short) paramsOffset, (byte) paramsLength);
+                    writeAIDResult(out, aid);
+                    break;
+                }
+                case OP_CHANGE_PROTOCOL:
+                    sim.changeProtocol(new DataInputStream(new ByteArrayInputStream(data, offset, length)).readUTF());
+                    writeResult(out, response, 0);
+                    break;
+                case OP_GET_PROTOCOL: {
+                    String protocol = sim.getProtocol();
+                    out.writeInt(1 + 2 + utfLength(protocol));
+                    out.writeByte(STATUS_OK);
+                    out.writeUTF(protocol);
+                    break;
+                }
+                default:
+                    writeError(out, STATUS_ERROR, "Unknown operation " + op);
+                    break;
+            }
+        } catch (EOFException e) {
+            writeError(out, STATUS_ERROR, "Truncated arguments");
+        } catch (UTFDataFormatException e) {
+            writeError(out, STATUS_ERROR, "Invalid string argument");
+        } catch (SystemException e) {
+            out.writeInt(3);
+            out.writeByte(STATUS_SYSTEM_EXCEPTION);
+            out.writeShort(e.getReason());
+        } catch (IllegalArgumentException e) {
+            writeError(out, STATUS_ILLEGAL_ARGUMENT, String.valueOf(e.getMessage()));
+        } catch (RuntimeException e) {
+            writeError(out, STATUS_ERROR, e.toString());
+        }
+    }
+
+    private static AID readAID(DataInputStream in) throws IOException {
+        byte[] aidBytes = new byte[in.readUnsignedByte()];
+        in.readFully(aidBytes);
+        return toAID(aidBytes, 0, aidBytes.length);
+    }
+
+    private static void writeResult(DataOutputStream out, byte[] result) throws IOException {
+        writeResult(out, result, result.length);
+    }
+
+    private static void writeResult(DataOutputStream out, byte[] result, int length) throws IOException {
+        out.writeInt(1 + length);
+        out.writeByte(STATUS_OK);
+        out.write(result, 0, length);
+    }
+
+    private static void writeAIDResult(DataOutputStream out, AID aid) throws IOException {
+        byte[] aidBytes = new byte[16];
+        writeResult(out, aidBytes, aid == null ? 0 : aid.getBytes(aidBytes, (short) 0));
+    }
+
+    private static void writeError(DataOutputStream out, byte status, String message) throws IOException {
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        out.writeInt(1 + 2 + utfLength(message));
+        out.writeByte(status);
+        out.writeUTF(message);
+    }
+}
@@ -20,6 +20,8 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
 import javacard.framework.AID;
 import javacard.framework.SystemException;
 
@@ -99,6 +101,20 @@ public class JavaCardRemoteClient implements JavaCardInterface {
         return null;
     }
 
+    public List<byte[]> transmitBatch(List<byte[]> commands) {
+        return transmitBatch(commands, false);
+    }
+
+    public List<byte[]> transmitBatch(List<byte[]> commands, boolean stopOnError) {
+        try {
+            // one remote call for the whole batch
+            return remote.transmitBatch(new ArrayList<byte[]>(commands), stopOnError);
+        } catch (RemoteException e) {
+            handleRemoteException(e);
+        }
+        return null;
+    }
+
     public void reset() {
         try {
             remote.reset();
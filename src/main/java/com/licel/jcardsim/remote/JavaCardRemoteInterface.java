@@ -17,6 +17,7 @@ package com.licel.jcardsim.remote;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * RMI Wrapper for the <code>JavaCardInterface</code>.
@@ -35,6 +36,8 @@ public interface JavaCardRemoteInterface extends Remote {
     
     public byte[] transmitCommand(byte[] data) throws RemoteException;
 
+    public List<byte[]> transmitBatch(List<byte[]> commands, boolean stopOnError) throws RemoteException;
+
     public boolean selectApplet(SerializableAID aid) throws RemoteException;
 
     public byte[] selectAppletWithResult(SerializableAID aid) throws RemoteException;
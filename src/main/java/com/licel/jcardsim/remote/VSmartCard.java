@@ -30,6 +30,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.Enumeration;
 import java.util.Properties;
@@ -61,14 +62,27 @@ public class VSmartCard {
             System.out.println("Usage: java com.licel.jcardsim.remote.VSmartCard <jcardsim.cfg>");
             System.exit(-1);
         }
+        loadConfiguration(args[0]);
+        String host = requireProperty("com.licel.jcardsim.vsmartcard.host");
+        String port = requireProperty("com.licel.jcardsim.vsmartcard.port");
+
+        new VSmartCard(host, Integer.parseInt(port));
+    }
+
+    /**
+     * Load a configuration file into the system properties
+     * @param path path of the configuration file
+     * @throws IOException if the file cannot be closed
+     */
+    static void loadConfiguration(String path) throws IOException {
         Properties cfg = new Properties();
         // init Simulator
         FileInputStream fis = null;
         try {
-            fis = new FileInputStream(args[0]);
+            fis = new FileInputStream(path);
             cfg.load(fis);
         } catch (Throwable t) {
-            System.err.println("Unable to load configuration " + args[0] + " due to: " + t.getMessage());
+            System.err.println("Unable to load configuration " + path + " due to: " + t.getMessage());
             System.exit(-1);
         } finally {
             if (fis != null) {
@@ -85,23 +99,20 @@ public class VSmartCard {
             String propertyName = (String) keys.nextElement();
             System.setProperty(propertyName, cfg.getProperty(propertyName));
         }
-        
-        String propKey = "com.licel.jcardsim.vsmartcard.host";
-        String host = System.getProperty(propKey);
-        if (host == null) {
-            throw new InvalidParameterException("Missing value for property: " + propKey);
-        }
+    }
 
-        propKey = "com.licel.jcardsim.vsmartcard.port";
-        String port = System.getProperty(propKey);
-        if (port == null) {
+    static String requireProperty(String propKey) {
+        String value = System.getProperty(propKey);
+        if (value == null) {
             throw new InvalidParameterException("Missing value for property: " + propKey);
         }
-
-        new VSmartCard(host, Integer.parseInt(port));
+        return value;
     }
 
-    private void startThread(VSmartCardTCPProtocol driverProtocol) throws IOException {
+    /**
+     * @return a <code>GpSimulatorRuntime</code> if it is on the class path, a <code>SimulatorRuntime</code> otherwise
+     */
+    static SimulatorRuntime createRuntime() {
         System.out.println("Trying to load an instance of com.licel.globalplatform.GpSimulatorRuntime");
         SimulatorRuntime simRuntime;
         try {
@@ -112,7 +123,11 @@ public class VSmartCard {
             System.out.println("Failed to load the instance! Will use the default SimulatorRuntime");
             simRuntime = new SimulatorRuntime();
         }
-        sim = new Simulator(simRuntime);
+        return simRuntime;
+    }
+
+    private void startThread(VSmartCardTCPProtocol driverProtocol) throws IOException {
+        sim = new Simulator(createRuntime());
         
         final IOThread ioThread = new IOThread(sim, driverProtocol);
         ShutDownHook hook = new ShutDownHook(ioThread);
@@ -192,6 +207,7 @@ public class VSmartCard {
         VSmartCardTCPProtocol driverProtocol;
         Simulator sim;
         boolean isRunning;
+        final ByteBuffer response = ByteBuffer.allocate(FrameChannel.MAX_RESPONSE_LENGTH);
 
         public IOThread(Simulator sim, VSmartCardTCPProtocol driverProtocol) {
             this.sim = sim;
@@ -213,9 +229,11 @@ public class VSmartCard {
                             driverProtocol.writeData(sim.getATR());
                             break;
                         case VSmartCardTCPProtocol.APDU:
-                            final byte[] apdu = driverProtocol.readData();
-                            final byte[] reply = CardManager.dispatchApdu(sim, apdu);
-                            driverProtocol.writeData(reply);
+                            final ByteBuffer apdu = driverProtocol.readDataBuffer();
+                            response.clear();
+                            CardManager.dispatchApdu(sim, apdu, response);
+                            response.flip();
+                            driverProtocol.writeData(response);
                             break;
                     }
                 } catch (Exception e) {
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.CardManager;
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorPool;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javacard.framework.ISO7816;
+
+/**
+ * Connects the cards of a <code>SimulatorPool</code> to vpcd readers.
+ *
+ * <p>All connections are served by one selector thread over non-blocking
+ * channels. Commands are executed on the worker threads of the pool, so
+ * commands for one card are executed in the order they were received
+ * while different cards run in parallel. Every connection reuses a direct
+ * input and output buffer; APDUs are executed on a slice of the input
+ * buffer and responses are written into the output buffer without
+ * intermediate arrays. An APDU which fails with an exception is answered
+ * with status word 6F00.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * java com.licel.jcardsim.remote.VSmartCardMultiplexer &lt;jcardsim.cfg&gt;
+ * </pre>
+ * <p>The configuration is the same as for <code>VSmartCard</code>, with
+ * <code>com.licel.jcardsim.vsmartcard.cards</code> cards connected to
+ * consecutive ports starting at <code>com.licel.jcardsim.vsmartcard.port</code>,
+ * the ports of the vpcd readers.</p>
+ *
+ * @see VSmartCard
+ */
+public class VSmartCardMultiplexer implements Closeable {
+    /** System property which configures the number of cards of <code>main</code> */
+    public static final String CARDS_PROPERTY = "com.licel.jcardsim.vsmartcard.cards";
+    /** System property which configures the number of worker threads of <code>main</code> */
+    public static final String THREADS_PROPERTY = "com.licel.jcardsim.vsmartcard.threads";
+
+    /** initial capacity of the input buffers, fits a short APDU */
+    private static final int INITIAL_INPUT_CAPACITY = 2 + 261;
+
+    private final SimulatorPool pool;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final ConcurrentLinkedQueue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<Connection>();
+    private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean running = true;
+
+    /**
+     * Create a multiplexer and start its selector thread
+     * @param pool cards to connect, not closed by <code>close</code>
+     * @throws IOException if the selector cannot be opened
+     */
+    public VSmartCardMultiplexer(SimulatorPool pool) throws IOException {
+        this.pool = pool;
+        this.selector = Selector.open();
+        this.selectorThread = new Thread(new Runnable() {
+            public void run() {
+                selectLoop();
+            }
+        }, "jcardsim-vsmartcard-selector");
+        selectorThread.start();
+    }
+
+    static public void main(String args[]) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java com.licel.jcardsim.remote.VSmartCardMultiplexer <jcardsim.cfg>");
+            System.exit(-1);
+        }
+        VSmartCard.loadConfiguration(args[0]);
+        String host = VSmartCard.requireProperty("com.licel.jcardsim.vsmartcard.host");
+        int port = Integer.parseInt(VSmartCard.requireProperty("com.licel.jcardsim.vsmartcard.port"));
+        int cards = Integer.getInteger(CARDS_PROPERTY, 1);
+        int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+        SimulatorPool pool = new SimulatorPool(cards, threads, new Supplier<SimulatorRuntime>() {
+            public SimulatorRuntime get() {
+                return VSmartCard.createRuntime();
+            }
+        });
+        VSmartCardMultiplexer multiplexer = new VSmartCardMultiplexer(pool);
+        for (int i = 0; i < cards; i++) {
+            multiplexer.connect(i, host, port + i);
+        }
+    }
+
+    /**
+     * Connect a card to a vpcd reader. The connection is established asynchronously.
+     * @param card index of the card in the pool
+     * @param host host of vpcd
+     * @param port port of the reader
+     * @throws IOException if the connection cannot be initiated
+     * @throws java.lang.IndexOutOfBoundsException if <code>card</code> is not valid
+     */
+    public void connect(int card, String host, int port) throws IOException {
+        if (card < 0 || card >= pool.size()) {
+            throw new IndexOutOfBoundsException("card: " + card);
+        }
+        if (!running) {
+            throw new IOException("VSmartCardMultiplexer is closed");
+        }
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        pendingRegistrations.add(new Connection(card, channel));
+        selector.wakeup();
+    }
+
+    /**
+     * Close all connections and stop the selector thread
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingRegistrations.poll()) != null) {
+                    register(connection);
+                }
+                while ((connection = pendingWrites.poll()) != null) {
+                    if (connection.key != null && connection.key.isValid()) {
+                        try {
+                            flush(connection);
+                            if (connection.paused && !connection.executing) {
+                                resume(connection);
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace(System.err);
+                            closeConnection(connection);
+                        }
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            c.channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(c);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(c);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace(System.err);
+                        closeConnection(c);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        } catch (ClosedSelectorException e) {
+            // closed
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeConnection((Connection) key.attachment());
+            }
+            Connection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                closeConnection(connection);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void register(Connection connection) {
+        try {
+            connection.key = connection.channel.register(selector, SelectionKey.OP_CONNECT, connection);
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            closeConnection(connection);
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        System.out.println("Shutdown connection of card " + connection.card);
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Read from the channel and dispatch every complete frame
+     */
+    private void read(Connection c) throws IOException {
+        if (c.channel.read(c.input) < 0) {
+            closeConnection(c);
+            return;
+        }
+        c.input.flip();
+        process(c);
+    }
+
+    /**
+     * Dispatch the complete frames of the flipped input buffer. An APDU is
+     * executed on a slice of the input buffer, so reading stops until it
+     * has been executed and <code>resume</code> continues with the next frame.
+     */
+    private void process(Connection c) {
+        ByteBuffer input = c.input;
+        int needed = 0;
+        while (input.remaining() >= 2) {
+            int len = input.getShort(input.position()) & 0xFFFF;
+            if (input.remaining() < 2 + len) {
+                needed = 2 + len;
+                break;
+            }
+            input.position(input.position() + 2);
+            if (len == 1) {
+                dispatchCommand(c, input.get());
+            } else if (len > 1) {
+                ByteBuffer apdu = input.slice();
+                apdu.limit(len);
+                input.position(input.position() + len);
+                c.paused = true;
+                c.executing = true;
+                dispatchApdu(c, apdu);
+                updateInterest(c);
+                return;
+            }
+        }
+        input.compact();
+        if (needed > input.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(needed);
+            input.flip();
+            larger.put(input);
+            c.input = larger;
+        }
+    }
+
+    /**
+     * Continue with the frames following an executed APDU
+     */
+    private void resume(Connection c) {
+        c.paused = false;
+        process(c);
+        updateInterest(c);
+    }
+
+    private void dispatchCommand(final Connection c, final int cmd) {
+        pool.submit(c.card, new Function<Simulator, Void>() {
+            public Void apply(Simulator sim) {
+                try {
+                    switch (cmd) {
+                        case VSmartCardTCPProtocol.POWER_ON:
+                        case VSmartCardTCPProtocol.RESET:
+                            sim.reset();
+                            break;
+                        case VSmartCardTCPProtocol.GET_ATR:
+                            byte[] atr = sim.getATR();
+                            synchronized (c) {
+                                c.ensureOutput(2 + atr.length);
+                                c.output.putShort((short) atr.length);
+                                c.output.put(atr);
+                            }
+                            requestFlush(c);
+                            break;
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace(System.err);
+                }
+                return null;
+            }
+        });
+    }
+
+    private void dispatchApdu(final Connection c, final ByteBuffer apdu) {
+        pool.submit(c.card, new Function<Simulator, Void>() {
+            public Void apply(Simulator sim) {
+                synchronized (c) {
+                    c.ensureOutput(2 + FrameChannel.MAX_RESPONSE_LENGTH);
+                    int start = c.output.position();
+                    c.output.position(start + 2);
+                    try {
+                        int len = CardManager.dispatchApdu(sim, apdu, c.output);
+                        c.output.putShort(start, (short) len);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(System.err);
+                        c.output.position(start);
+                        c.output.putShort((short) 2);
+                        c.output.putShort(ISO7816.SW_UNKNOWN);
+                    }
+                }
+                c.executing = false;
+                requestFlush(c);
+                return null;
+            }
+        });
+    }
+
+    private void requestFlush(Connection c) {
+        pendingWrites.add(c);
+        selector.wakeup();
+    }
+
+    /**
+     * Write pending output, wait for <code>OP_WRITE</code> if the socket buffer is full
+     */
+    private void flush(Connection c) throws IOException {
+        synchronized (c) {
+            c.output.flip();
+            c.channel.write(c.output);
+            c.writePending = c.output.hasRemaining();
+            c.output.compact();
+        }
+        updateInterest(c);
+    }
+
+    /**
+     * Read unless an APDU is executed, wait for <code>OP_WRITE</code> if output is pending
+     */
+    private void updateInterest(Connection c) {
+        c.key.interestOps((c.paused ? 0 : SelectionKey.OP_READ) | (c.writePending ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Connection of one card. <code>input</code> is used by the selector thread,
+     * <code>output</code> is guarded by the connection. <code>paused</code> is
+     * set while an APDU of the input buffer is executed and cleared by the
+     * selector thread after the worker has reset <code>executing</code>.
+     */
+    private static final class Connection {
+        final int card;
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer input = ByteBuffer.allocateDirect(INITIAL_INPUT_CAPACITY);
+        ByteBuffer output = ByteBuffer.allocateDirect(0);
+        boolean paused;
+        boolean writePending;
+        volatile boolean executing;
+
+        Connection(int card, SocketChannel channel) {
+            this.card = card;
+            this.channel = channel;
+        }
+
+        void ensureOutput(int length) {
+            if (output.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(output.position() + length);
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+        }
+    }
+}
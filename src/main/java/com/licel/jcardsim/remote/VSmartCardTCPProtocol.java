@@ -21,10 +21,8 @@
 package com.licel.jcardsim.remote;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import java.util.concurrent.TimeUnit;
 
@@ -34,9 +32,7 @@ import java.util.concurrent.TimeUnit;
  * @author alex@cooperi.net
  */
 public class VSmartCardTCPProtocol {
-    private Socket socket;
-    private InputStream  dataInput;
-    private OutputStream dataOutput;
+    private FrameChannel channel;
     private int frameLen = -1;
 
     public static final int POWER_OFF = 0;
@@ -46,31 +42,25 @@ public class VSmartCardTCPProtocol {
     public static final int APDU = -1;
 
     public void connect(String host, int port) throws IOException {
-        socket = new Socket(host, port);
+        channel = new FrameChannel(host, port, 2, ByteOrder.BIG_ENDIAN);
 
         try {
             TimeUnit.SECONDS.sleep(3);
         } catch (InterruptedException ignore) {}
-
-        dataInput   = socket.getInputStream();
-        dataOutput  = socket.getOutputStream();
     }
 
     public void disconnect() {
-        closeSocket(socket);
+        channel.close();
     }
     
     public boolean isClosed() {
-        return socket.isClosed();
+        return channel.isClosed();
     }
     
     public int readCommand() throws IOException {
-        final byte[] cmdBuf = new byte[3];
-        read(cmdBuf, 0, 2, dataInput);
-        final int len = ((cmdBuf[0] << 8) & 0xFF00) | (cmdBuf[1] & 0xFF);
+        final int len = channel.readHeader();
         if (len == 1) {
-            read(cmdBuf, 2, 1, dataInput);
-            final int cmd = cmdBuf[2];
+            final int cmd = channel.read(1).get();
             return (cmd);
         }
         frameLen = len;
@@ -78,43 +68,36 @@ public class VSmartCardTCPProtocol {
     }
 
     public byte[] readData() throws IOException {
+        final ByteBuffer data = readDataBuffer();
+        final byte[] buf = new byte[data.remaining()];
+        data.get(buf);
+        return buf;
+    }
+
+    /**
+     * Read the APDU announced by <code>readCommand</code> without allocating
+     * @return buffer containing the APDU, valid until the next read
+     * @throws IOException if no APDU is waiting or reading fails
+     */
+    public ByteBuffer readDataBuffer() throws IOException {
         if (frameLen == -1) {
             throw new IOException("No APDU command waiting");
         }
-        final byte[] buf = new byte[frameLen];
-        read(buf, dataInput);
+        final ByteBuffer buf = channel.read(frameLen);
         frameLen = -1;
         return buf;
     }
 
     public void writeData(byte[] data) throws IOException {
-        final byte[] buf = new byte[2 + data.length];
-        buf[0] = (byte)(((data.length & 0xFF00) >> 8) & 0xFF);
-        buf[1] = (byte)(data.length & 0xFF);
-        System.arraycopy(data, 0, buf, 2, data.length);
-        dataOutput.write(buf);
+        writeData(ByteBuffer.wrap(data));
     }
 
-    private void closeSocket(Socket sock) {
-        try {
-            sock.close();
-        } catch (IOException ignored) {}
-    }
-
-    private void read(byte[] buf, InputStream stream) throws IOException {
-        read(buf, 0, buf.length, stream);
-    }
-
-    private void read(byte[] buf, int offset, int len, InputStream stream) throws IOException {
-        while (len > 0) {
-            final int retval = stream.read(buf, offset, len);
-
-            if (retval < 0) {
-                throw new IOException("Got negative number from socket");
-            }
-
-            len    -= retval;
-            offset += retval;
-        }
+    /**
+     * Write the remaining bytes of <code>data</code>
+     * @param data response
+     * @throws IOException if writing fails
+     */
+    public void writeData(ByteBuffer data) throws IOException {
+        channel.write(data);
     }
 }
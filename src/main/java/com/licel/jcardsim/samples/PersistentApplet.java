@@ -31,6 +31,7 @@ public class PersistentApplet extends BaseApplet {
     private final byte GET_COUNTER = 0x02;
     private final byte INC_COUNTER = 0x03;
     private final byte GET_DESELECT_COUNTER = 0x04;
+    private final byte SET_DATA = 0x05;
     
     private final short ARR_SIZE = 8;
     private final short AES_KEY_SIZE = 128;
@@ -97,6 +98,13 @@ public class PersistentApplet extends BaseApplet {
                 buffer[0] = deSelectCounter;
                 apdu.setOutgoingAndSend((short) 0, (short) 1);
                 break;
+            case SET_DATA:
+                short len = apdu.setIncomingAndReceive();
+                if (len > ARR_SIZE) {
+                    ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                }
+                Util.arrayCopyNonAtomic(buffer, ISO7816.OFFSET_CDATA, byteArr, (short) 0, len);
+                break;
             default:
                 ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
         }
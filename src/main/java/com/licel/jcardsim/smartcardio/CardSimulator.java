@@ -144,9 +144,10 @@ public class CardSimulator extends JavaxSmartCardInterface {
 
         @Override
         public int transmit(ByteBuffer byteBuffer, ByteBuffer byteBuffer2) throws CardException {
-            byte[] result = card.transmitCommand(new CommandAPDU(byteBuffer).getBytes());
-            byteBuffer2.put(result);
-            return result.length;
+            if (byteBuffer == byteBuffer2) {
+                throw new IllegalArgumentException("command and response must not be the same object");
+            }
+            return card.transmitCommand(byteBuffer, byteBuffer2);
         }
 
         @Override
@@ -251,11 +252,7 @@ public class CardSimulator extends JavaxSmartCardInterface {
 
         byte[] transmitCommand(byte[] capdu) throws CardException {
             synchronized (runtime) {
-                ensureConnected();
-                Thread thread = threadReference.get();
-                if (thread != null && thread != Thread.currentThread()) {
-                    throw new CardException("Card is held exclusively by Thread " + thread.getName());
-                }
+                ensureConnectedAndOwned();
 
                 byte currentProtocol = getProtocolByte(CardSimulator.this.getProtocol());
                 try {
@@ -266,5 +263,27 @@ public class CardSimulator extends JavaxSmartCardInterface {
                 }
             }
         }
+
+        int transmitCommand(ByteBuffer capdu, ByteBuffer rapdu) throws CardException {
+            synchronized (runtime) {
+                ensureConnectedAndOwned();
+
+                byte currentProtocol = getProtocolByte(CardSimulator.this.getProtocol());
+                try {
+                    runtime.changeProtocol(protocolByte);
+                    return CardManager.dispatchApdu(CardSimulator.this, capdu, rapdu);
+                } finally {
+                    runtime.changeProtocol(currentProtocol);
+                }
+            }
+        }
+
+        private void ensureConnectedAndOwned() throws CardException {
+            ensureConnected();
+            Thread thread = threadReference.get();
+            if (thread != null && thread != Thread.currentThread()) {
+                throw new CardException("Card is held exclusively by Thread " + thread.getName());
+            }
+        }
     }
 }
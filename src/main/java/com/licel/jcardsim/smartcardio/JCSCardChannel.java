@@ -44,10 +44,10 @@ public class JCSCardChannel extends CardChannel {
     }
 
     public int transmit(ByteBuffer bb, ByteBuffer bb1) throws CardException {
-        ResponseAPDU response = transmit(new CommandAPDU(bb));
-        byte[] binaryResponse = response.getBytes();
-        bb1.put(binaryResponse);
-        return binaryResponse.length;
+        if (bb == bb1) {
+            throw new IllegalArgumentException("command and response must not be the same object");
+        }
+        return card.transmitCommand(bb, bb1);
     }
 
     /**
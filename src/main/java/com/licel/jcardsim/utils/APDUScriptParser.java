@@ -0,0 +1,225 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Arrays;
+import javax.smartcardio.CommandAPDU;
+
+/**
+ * Streaming parser of APDU scripts in C-APDU format.
+ *
+ * <p>A script is a sequence of commands terminated by <code>;</code>:</p>
+ * <pre>
+ * // comment
+ * powerup;
+ * &lt;CLA&gt; &lt;INS&gt; &lt;P1&gt; &lt;P2&gt; &lt;LC&gt; [&lt;byte 0&gt; &lt;byte 1&gt; ... &lt;byte LC-1&gt;] &lt;LE&gt;;
+ * powerdown;
+ * </pre>
+ * <p>Numbers are decimal or hexadecimal with a <code>0x</code> prefix.
+ * <code>powerup</code>, <code>powerdown</code>, <code>contacted</code> and
+ * <code>contactless</code> are skipped. Commands are parsed one at a time
+ * while the script is read, so scripts of any size use constant memory.</p>
+ *
+ * @see APDUScriptTool
+ */
+public final class APDUScriptParser {
+    private static final String FORMAT_MESSAGE =
+            "C-APDU format must be: <CLA> <INS> <P1> <P2> <LC> [<byte 0> <byte 1> ... <byte LC-1>] <LE>";
+    private static final String[] SKIPPED_COMMANDS = {"powerup", "powerdown", "contacted", "contactless"};
+
+    private final Reader in;
+    private final StringBuilder token = new StringBuilder();
+    private int[] numbers = new int[64];
+    private int numberCount;
+    private String word;
+    private int line = 1;
+    private int commandLine;
+    private int pending = -2;
+
+    /**
+     * @param in script
+     */
+    public APDUScriptParser(Reader in) {
+        this.in = in instanceof BufferedReader ? in : new BufferedReader(in);
+    }
+
+    /**
+     * @return line of the command returned last
+     */
+    public int getLine() {
+        return commandLine;
+    }
+
+    /**
+     * Parse the next command
+     * @return the next command apdu or null at the end of the script
+     * @throws IOException if the script cannot be read
+     * @throws ParseException if the command is malformed
+     */
+    public CommandAPDU next() throws IOException, ParseException {
+        while (true) {
+            if (!readCommand()) {
+                return null;
+            }
+            if (word != null) {
+                if (numberCount == 0 && isSkipped(word)) {
+                    continue;
+                }
+                throw new ParseException("Unknown command '" + word + "' at line " + commandLine, commandLine);
+            }
+            return toCommand();
+        }
+    }
+
+    private static boolean isSkipped(String command) {
+        for (String skipped : SKIPPED_COMMANDS) {
+            if (skipped.equalsIgnoreCase(command)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CommandAPDU toCommand() throws ParseException {
+        if (numberCount < 6) {
+            throw new ParseException(FORMAT_MESSAGE + "; line " + commandLine, commandLine);
+        }
+        int lc = numbers[4];
+        if (lc + 6 > numberCount) {
+            throw new ParseException("Unexpected end of C-APDU at line " + commandLine, commandLine);
+        }
+        byte[] data = new byte[lc];
+        for (int i = 0; i < lc; i++) {
+            data[i] = (byte) numbers[5 + i];
+        }
+        try {
+            return new CommandAPDU(numbers[0], numbers[1], numbers[2], numbers[3], data, numbers[numberCount - 1]);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage() + " at line " + commandLine, commandLine);
+        }
+    }
+
+    /**
+     * Read the tokens of the next command
+     * @return false at the end of the script
+     */
+    private boolean readCommand() throws IOException, ParseException {
+        numberCount = 0;
+        word = null;
+        commandLine = 0;
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                if (commandLine != 0) {
+                    throw new ParseException("Missing ';' after the command at line " + commandLine, commandLine);
+                }
+                return false;
+            }
+            if (c == ';') {
+                if (commandLine != 0) {
+                    return true;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == '/') {
+                int next = read();
+                if (next == '/') {
+                    skipLine();
+                    continue;
+                }
+                unread(next);
+            }
+            if (commandLine == 0) {
+                commandLine = line;
+            }
+            readToken(c);
+        }
+    }
+
+    private void readToken(int first) throws IOException, ParseException {
+        token.setLength(0);
+        int c = first;
+        while (c >= 0 && c != ';' && !Character.isWhitespace(c)) {
+            token.append((char) c);
+            c = read();
+        }
+        unread(c);
+        if (Character.isDigit(token.charAt(0))) {
+            addNumber(parseNumber());
+        } else if (word == null) {
+            word = token.toString();
+        } else {
+            word = word + ' ' + token;
+        }
+    }
+
+    private int parseNumber() throws ParseException {
+        int radix = 10;
+        int start = 0;
+        if (token.length() > 2 && token.charAt(0) == '0' && (token.charAt(1) == 'x' || token.charAt(1) == 'X')) {
+            radix = 16;
+            start = 2;
+        }
+        int value = 0;
+        for (int i = start; i < token.length(); i++) {
+            int digit = Character.digit(token.charAt(i), radix);
+            if (digit < 0 || value > 0xFFFFF) {
+                throw new ParseException("Invalid number '" + token + "' at line " + line, line);
+            }
+            value = value * radix + digit;
+        }
+        return value;
+    }
+
+    private void addNumber(int value) {
+        if (numberCount == numbers.length) {
+            numbers = Arrays.copyOf(numbers, numbers.length * 2);
+        }
+        numbers[numberCount++] = value;
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && c != '\n');
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (pending != -2) {
+            c = pending;
+            pending = -2;
+            return c;
+        }
+        c = in.read();
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private void unread(int c) {
+        pending = c;
+    }
+}
@@ -15,76 +15,175 @@
  */
 package com.licel.jcardsim.utils;
 
+import com.licel.jcardsim.base.CardManager;
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorPool;
 import com.licel.jcardsim.smartcardio.JCardSimProvider;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import javax.smartcardio.*;
 
 /**
  * Execute APDU script in C-APDU format.
+ *
+ * <p>Scripts are executed while they are parsed, see <code>APDUScriptParser</code>.
+ * A script may be compiled into a binary format which is executed without
+ * parsing; every tool method accepts both formats. Every run reports the
+ * latencies of the executed commands.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * java com.licel.jcardsim.utils.APDUScriptTool &lt;jcardsim.cfg&gt; &lt;apdu script&gt; [out file]
+ * java com.licel.jcardsim.utils.APDUScriptTool -compile &lt;apdu script&gt; &lt;compiled script&gt;
+ * java com.licel.jcardsim.utils.APDUScriptTool -parallel &lt;simulators&gt; &lt;jcardsim.cfg&gt; &lt;apdu script&gt;
+ * </pre>
  * @author LICEL LLC
  */
 public class APDUScriptTool {
     // printing to output
     static boolean outputOn = true;
 
+    /** first bytes of a compiled script, "JCSS" */
+    static final int COMPILED_SCRIPT_MAGIC = 0x4A435353;
+    /** version of the compiled script format */
+    static final byte COMPILED_SCRIPT_VERSION = 1;
+
+    // header, extended Lc, 65535 data bytes and extended Le
+    private static final int MAX_COMMAND_LENGTH = 4 + 3 + 65535 + 2;
+    // size of the response buffer of SimulatorRuntime
+    private static final int MAX_RESPONSE_LENGTH = Short.MAX_VALUE + 2;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static void main(String args[]) throws FileNotFoundException, IOException, NoSuchAlgorithmException, CardException {
+        if (args.length == 3 && args[0].equals("-compile")) {
+            compile(args[1], args[2]);
+            return;
+        }
+        if (args.length == 4 && args[0].equals("-parallel")) {
+            runParallel(Integer.parseInt(args[1]), loadConfiguration(args[2]), args[3]);
+            return;
+        }
         if (args.length < 2) {
             System.out.println("Usage: java com.licel.jcardsim.utils.APDUScriptTool <jcardsim.cfg> <apdu script> [out file]");
+            System.out.println("       java com.licel.jcardsim.utils.APDUScriptTool -compile <apdu script> <compiled script>");
+            System.out.println("       java com.licel.jcardsim.utils.APDUScriptTool -parallel <simulators> <jcardsim.cfg> <apdu script>");
             System.exit(-1);
         }
-        Properties cfg = new Properties();
-        // init Simulator
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(args[0]);
-            cfg.load(fis);
+        Properties cfg = loadConfiguration(args[0]);
 
+        PrintStream out = args.length == 3 ? new PrintStream(args[2]) : System.out;
+        FileInputStream fis = new FileInputStream(args[1]);
+        try {
+            LatencyStatistics statistics = executeScript(cfg, fis, out);
+            System.err.println(statistics);
         } catch (Throwable t) {
-            System.err.println("Unable to load configuration " + args[0] + " due to: " + t.getMessage());
+            System.err.println("Unable to execute " + args[1] + " due to: " + t.getMessage());
             System.exit(-1);
         } finally {
             if (fis != null) {
                 fis.close();
             }
+            if (args.length == 3 && out != null) {
+                out.close();
+            }
         }
 
 
-        PrintStream out = args.length == 3 ? new PrintStream(args[2]) : System.out;
-        fis = new FileInputStream(args[1]);
+    }
+
+    private static Properties loadConfiguration(String fileName) throws IOException {
+        Properties cfg = new Properties();
+        // init Simulator
+        FileInputStream fis = null;
         try {
-            executeCommands(cfg, fis, out);
+            fis = new FileInputStream(fileName);
+            cfg.load(fis);
+
         } catch (Throwable t) {
-            System.err.println("Unable to execute " + args[1] + " due to: " + t.getMessage());
+            System.err.println("Unable to load configuration " + fileName + " due to: " + t.getMessage());
             System.exit(-1);
         } finally {
             if (fis != null) {
                 fis.close();
             }
-            if (args.length == 3 && out != null) {
-                out.close();
-            }
         }
+        return cfg;
+    }
 
-
+    private static void compile(String scriptFileName, String compiledFileName) throws IOException {
+        InputStream in = new FileInputStream(scriptFileName);
+        OutputStream out = new FileOutputStream(compiledFileName);
+        try {
+            int count = compileScript(in, out);
+            System.out.println("Compiled " + count + " commands");
+        } catch (ParseException e) {
+            System.err.println("Unable to compile " + scriptFileName + " due to: " + e.getMessage());
+            System.exit(-1);
+        } finally {
+            in.close();
+            out.close();
+        }
     }
 
-    public static void executeCommands(Properties cfg, InputStream commandsStream,
-            PrintStream out) throws IOException, ParseException, NoSuchAlgorithmException, CardException {
+    private static void runParallel(int simulators, Properties cfg, String scriptFileName) throws IOException {
+        InputStream in = new FileInputStream(scriptFileName);
+        try {
+            int threads = Math.min(simulators, Runtime.getRuntime().availableProcessors());
+            long start = System.nanoTime();
+            LatencyStatistics statistics = executeParallel(cfg, in, simulators, threads);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(simulators + " simulators, " + threads + " threads, "
+                    + (long) (statistics.getCount() * 1e9 / elapsed) + " commands/s");
+            System.out.println(statistics);
+        } catch (Throwable t) {
+            System.err.println("Unable to execute " + scriptFileName + " due to: " + t.getMessage());
+            System.exit(-1);
+        } finally {
+            in.close();
+        }
+    }
 
+    private static void applyConfiguration(Properties cfg) {
         Enumeration keys = cfg.propertyNames();
         while(keys.hasMoreElements()) {
             String propertyName = (String) keys.nextElement();
             System.setProperty(propertyName, cfg.getProperty(propertyName));
         }
+    }
+
+    /**
+     * Execute a script on the card of the jCardSim terminal
+     * @see #executeScript(java.util.Properties, java.io.InputStream, java.io.PrintStream)
+     */
+    public static void executeCommands(Properties cfg, InputStream commandsStream,
+            PrintStream out) throws IOException, ParseException, NoSuchAlgorithmException, CardException {
+        executeScript(cfg, commandsStream, out);
+    }
+
+    /**
+     * Execute a script on the card of the jCardSim terminal.
+     * Commands are executed while the script is parsed.
+     * @param cfg configuration, applied to the system properties
+     * @param commandsStream text or compiled script
+     * @param out receives a dump of every command and response, <code>System.out</code> if null
+     * @return latencies of the executed commands
+     */
+    public static LatencyStatistics executeScript(Properties cfg, InputStream commandsStream,
+            PrintStream out) throws IOException, ParseException, NoSuchAlgorithmException, CardException {
+
+        applyConfiguration(cfg);
 
-        ArrayList<CommandAPDU> commands = APDUScriptTool.parseAPDUStream(new InputStreamReader(commandsStream));
         if (Security.getProvider("jCardSim") == null) {
             JCardSimProvider provider = new JCardSimProvider();
             Security.addProvider(provider);
@@ -103,119 +202,231 @@ public class APDUScriptTool {
         }
         Card jcsCard = jcsTerminal.connect("T=0");
         CardChannel jcsChannel = jcsCard.getBasicChannel();
-        if (commands.size() > 0) {
-            for (int i = 0; i < commands.size(); i++) {
-                CommandAPDU command = commands.get(i);
-                ResponseAPDU response = jcsChannel.transmit(command);
-                String dump = APDUScriptTool.commandToStr(command) + APDUScriptTool.responseToStr(response);
-                if(out == null) {
-                    System.out.println(dump);
-                } else {
-                    out.println(dump);
-                }
-            }
+        if (out == null) {
+            out = System.out;
         }
 
+        CommandSource commands = openScript(commandsStream);
+        LatencyStatistics statistics = new LatencyStatistics();
+        ByteBuffer response = ByteBuffer.allocate(MAX_RESPONSE_LENGTH);
+        StringBuilder dump = new StringBuilder();
+        byte[] command;
+        while ((command = commands.next()) != null) {
+            response.clear();
+            long start = System.nanoTime();
+            int responseLength = jcsChannel.transmit(ByteBuffer.wrap(command), response);
+            statistics.record(System.nanoTime() - start);
+
+            dump.setLength(0);
+            appendCommand(dump, new CommandAPDU(command));
+            appendResponse(dump, response.array(), responseLength);
+            out.println(dump);
+        }
+        return statistics;
+    }
+
+    /**
+     * Execute a script on independent simulators in parallel, for throughput tests.
+     * Every simulator has its own runtime and executes the whole script.
+     * @param cfg configuration, applied to the system properties; the applets
+     * of the configuration are installed on every simulator
+     * @param script text or compiled script
+     * @param simulators number of simulators
+     * @param threads number of threads
+     * @return latencies of the commands executed on all simulators
+     */
+    public static LatencyStatistics executeParallel(Properties cfg, InputStream script, int simulators, int threads)
+            throws IOException, ParseException, InterruptedException, ExecutionException {
+        return executeParallel(cfg, script, simulators, threads, null);
     }
 
-    private static ArrayList<CommandAPDU> parseAPDUStream(InputStreamReader in) throws IOException, ParseException {
-        ArrayList<CommandAPDU> apduCommands = new ArrayList<CommandAPDU>();
-        BufferedReader br = new BufferedReader(in);
-        String line = br.readLine();
-        StringBuilder command = new StringBuilder();
-        while (line != null) {
-            line = line.trim();
-            if (line.startsWith("//") || line.isEmpty()) {
-                line = br.readLine();
-                continue;
-            } else if (line.indexOf(";") < 0) {
-                command.append(line);
-            } else {
-                command.append(line.substring(0, line.indexOf(";")));
-                String cmd = command.toString();
-                String[] words = cmd.split("\\s+");
-                // skip some commands
-                if(cmd.equalsIgnoreCase("powerup")
-                    || cmd.equalsIgnoreCase("powerdown")
-                    || cmd.equalsIgnoreCase("contacted")
-                    || cmd.equalsIgnoreCase("contactless")) {
-                    command = new StringBuilder();
-                    command.append(line.substring(line.indexOf(";") + 1));
-                    line = br.readLine();
-                    continue;
-                } else if(words.length>=6) {
-                apduCommands.add(parseAPDUCommand(cmd));
-                command = new StringBuilder();
-                command.append(line.substring(line.indexOf(";") + 1));
-                }
+    /**
+     * @param lastResponses if not null, receives the last response of every simulator
+     * @see #executeParallel(java.util.Properties, java.io.InputStream, int, int)
+     */
+    static LatencyStatistics executeParallel(Properties cfg, InputStream script, int simulators, int threads,
+            final byte[][] lastResponses) throws IOException, ParseException, InterruptedException, ExecutionException {
+        final List<byte[]> commands = readScript(script);
+        applyConfiguration(cfg);
+        SimulatorPool pool = new SimulatorPool(simulators, threads);
+        try {
+            List<Future<LatencyStatistics>> results = new ArrayList<Future<LatencyStatistics>>(simulators);
+            for (int i = 0; i < simulators; i++) {
+                final int index = i;
+                results.add(pool.submit(i, new Function<Simulator, LatencyStatistics>() {
+                    public LatencyStatistics apply(Simulator simulator) {
+                        return execute(simulator, commands, lastResponses, index);
+                    }
+                }));
+            }
+            LatencyStatistics statistics = new LatencyStatistics();
+            for (Future<LatencyStatistics> result : results) {
+                statistics.merge(result.get());
             }
-            line = br.readLine();
+            return statistics;
+        } finally {
+            pool.close();
         }
-        return apduCommands;
     }
 
-    private static int parseNumber(String str) {
-        // hex number
-        if (str.startsWith("0x")) {
-            return Integer.parseInt(str.substring(2), 16);
-        } else {
-            return Integer.parseInt(str);
+    private static LatencyStatistics execute(Simulator simulator, List<byte[]> commands,
+            byte[][] lastResponses, int index) {
+        LatencyStatistics statistics = new LatencyStatistics();
+        ByteBuffer response = ByteBuffer.allocate(MAX_RESPONSE_LENGTH);
+        int length = 0;
+        for (byte[] command : commands) {
+            response.clear();
+            long start = System.nanoTime();
+            length = CardManager.dispatchApdu(simulator, ByteBuffer.wrap(command), response);
+            statistics.record(System.nanoTime() - start);
+        }
+        if (lastResponses != null) {
+            lastResponses[index] = Arrays.copyOf(response.array(), length);
         }
+        return statistics;
+    }
 
+    /**
+     * Compile a script into the binary format
+     * @param script text or compiled script
+     * @param compiled receives the compiled script
+     * @return number of commands
+     */
+    public static int compileScript(InputStream script, OutputStream compiled) throws IOException, ParseException {
+        CommandSource commands = openScript(script);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compiled));
+        out.writeInt(COMPILED_SCRIPT_MAGIC);
+        out.writeByte(COMPILED_SCRIPT_VERSION);
+        int count = 0;
+        byte[] command;
+        while ((command = commands.next()) != null) {
+            out.writeInt(command.length);
+            out.write(command);
+            count++;
+        }
+        out.flush();
+        return count;
     }
 
-    private static String toHex(int i) {
-        return i > 0xF ? Integer.toHexString(i) : "0" + Integer.toHexString(i);
+    /**
+     * Read all commands of a script
+     * @param script text or compiled script
+     * @return command apdus
+     */
+    public static List<byte[]> readScript(InputStream script) throws IOException, ParseException {
+        CommandSource commands = openScript(script);
+        List<byte[]> result = new ArrayList<byte[]>();
+        byte[] command;
+        while ((command = commands.next()) != null) {
+            result.add(command);
+        }
+        return result;
+    }
+
+    /**
+     * Detect the format of a script
+     */
+    private static CommandSource openScript(InputStream script) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(script);
+        in.mark(5);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                magic = 0;
+                break;
+            }
+            magic = (magic << 8) | b;
+        }
+        if (magic == COMPILED_SCRIPT_MAGIC) {
+            int version = in.read();
+            if (version != COMPILED_SCRIPT_VERSION) {
+                throw new IOException("Unsupported compiled script version " + version);
+            }
+            return new CompiledCommandSource(new DataInputStream(in));
+        }
+        in.reset();
+        final APDUScriptParser parser = new APDUScriptParser(new InputStreamReader(in));
+        return new CommandSource() {
+            public byte[] next() throws IOException, ParseException {
+                CommandAPDU command = parser.next();
+                return command == null ? null : command.getBytes();
+            }
+        };
+    }
+
+    /**
+     * Commands of a text or compiled script
+     */
+    private interface CommandSource {
+        /**
+         * @return the next command apdu or null at the end of the script
+         */
+        byte[] next() throws IOException, ParseException;
     }
-    
-    private static CommandAPDU parseAPDUCommand(String command) throws ParseException {
-        String[] bytes = command.split("\\s+");
-        if (bytes.length < 6) {
-            throw new ParseException("C-APDU format must be: <CLA> <INS> <P1> <P2> <LC> [<byte 0> <byte 1> ... <byte LC-1>] <LE>; "+command, 6);
+
+    private static final class CompiledCommandSource implements CommandSource {
+        private final DataInputStream in;
+
+        CompiledCommandSource(DataInputStream in) {
+            this.in = in;
         }
-        int cla = parseNumber(bytes[0]);
-        int ins = parseNumber(bytes[1]);
-        int p0 = parseNumber(bytes[2]);
-        int p1 = parseNumber(bytes[3]);
-        int lc = parseNumber(bytes[4]);
-        int le = parseNumber(bytes[bytes.length - 1]);
-        // check lc
-        if (lc + 6 > bytes.length) {
-            throw new ParseException("Unexpected end of C-APDU: " + command, lc + 5);
+
+        public byte[] next() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            int length = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+            if (length < 4 || length > MAX_COMMAND_LENGTH) {
+                throw new IOException("Invalid command length " + length);
+            }
+            byte[] command = new byte[length];
+            in.readFully(command);
+            return command;
         }
-        byte[] data = new byte[lc];
-        for (int i = 0; i < lc; i++) {
-            data[i] = (byte) parseNumber(bytes[i + 5]);
+    }
+
+    private static void appendHex(StringBuilder sb, int i) {
+        if (i > 0xFF) {
+            sb.append(Integer.toHexString(i));
+        } else {
+            sb.append(HEX_DIGITS[i >> 4]).append(HEX_DIGITS[i & 0xF]);
         }
-        return new CommandAPDU(cla, ins, p0, p1, data, le);
     }
 
-    private static String commandToStr(CommandAPDU command) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("CLA: ").append(toHex(command.getCLA())).append(", ");
-        sb.append("INS: ").append(toHex(command.getINS())).append(", ");
-        sb.append("P1: ").append(toHex(command.getP1())).append(", ");
-        sb.append("P2: ").append(toHex(command.getP2())).append(", ");
-        sb.append("Lc: ").append(toHex(command.getNc())).append(", ");
+    private static void appendCommand(StringBuilder sb, CommandAPDU command) {
+        sb.append("CLA: ");
+        appendHex(sb, command.getCLA());
+        sb.append(", INS: ");
+        appendHex(sb, command.getINS());
+        sb.append(", P1: ");
+        appendHex(sb, command.getP1());
+        sb.append(", P2: ");
+        appendHex(sb, command.getP2());
+        sb.append(", Lc: ");
+        appendHex(sb, command.getNc());
+        sb.append(", ");
         byte[] data = command.getData();
         for (int i = 0; i < command.getNc(); i++) {
-            sb.append(toHex(data[i] & 0xFF)).append(", ");
+            appendHex(sb, data[i] & 0xFF);
+            sb.append(", ");
         }
-        return sb.toString();
     }
 
-    private static String responseToStr(ResponseAPDU response) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Le: ").append(toHex(response.getNr())).append(", ");
-        byte[] data = response.getData();
-        for (int i = 0; i < data.length; i++) {
-            sb.append(toHex(data[i] & 0xFF)).append(", ");
+    private static void appendResponse(StringBuilder sb, byte[] response, int length) {
+        sb.append("Le: ");
+        appendHex(sb, length - 2);
+        sb.append(", ");
+        for (int i = 0; i < length - 2; i++) {
+            appendHex(sb, response[i] & 0xFF);
+            sb.append(", ");
         }
-        sb.append("SW1: ").append(toHex(response.getSW1())).append(", ");
-        sb.append("SW2: ").append(toHex(response.getSW2()));
-        return sb.toString();
+        sb.append("SW1: ");
+        appendHex(sb, response[length - 2] & 0xFF);
+        sb.append(", SW2: ");
+        appendHex(sb, response[length - 1] & 0xFF);
     }
 }
 
-
 //  & 'C:\Program Files\Java\jre1.8.0_51\bin\java.exe' '-cp' 'C:\Users\CR7\AppData\Local\Temp\cp_8ceh8x9l4lbj0knm6aditdgfp.jar' 'com.licel.jcardsim.utils.APDUScriptTool' 'jcardsim.cfg' 'apdu.script' 'helloworld.apdu'
\ No newline at end of file
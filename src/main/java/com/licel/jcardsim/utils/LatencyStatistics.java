@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.utils;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Latencies of executed commands, in nanoseconds.
+ * Instances are not thread safe; use one instance per thread and
+ * <code>merge</code> them.
+ */
+public final class LatencyStatistics {
+    private long[] samples = new long[256];
+    private int count;
+    private long total;
+    private boolean sorted = true;
+
+    /**
+     * Add a sample
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        if (count > 0 && nanos < samples[count - 1]) {
+            sorted = false;
+        }
+        samples[count++] = nanos;
+        total += nanos;
+    }
+
+    /**
+     * Add all samples of <code>other</code>
+     * @param other statistics to add
+     */
+    public void merge(LatencyStatistics other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.samples[i]);
+        }
+    }
+
+    /**
+     * @return number of samples
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return sum of all samples
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return smallest sample or 0 if there are no samples
+     */
+    public long getMin() {
+        return getPercentile(0);
+    }
+
+    /**
+     * @return largest sample or 0 if there are no samples
+     */
+    public long getMax() {
+        return getPercentile(100);
+    }
+
+    /**
+     * @return mean of all samples or 0 if there are no samples
+     */
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return smallest sample which is at least as large as <code>percentile</code>
+     * percent of all samples, or 0 if there are no samples
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return samples[Math.max(0, index)];
+    }
+
+    /**
+     * @return summary in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "commands: %d, mean: %.1f us, min: %.1f us, 50%%: %.1f us, 90%%: %.1f us, 99%%: %.1f us, max: %.1f us",
+                count, micros(getMean()), micros(getMin()), micros(getPercentile(50)), micros(getPercentile(90)),
+                micros(getPercentile(99)), micros(getMax()));
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.AID;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+public class AIDMapTest extends TestCase {
+
+    public AIDMapTest(String name) {
+        super(name);
+    }
+
+    public void testExactLookup() {
+        System.out.println("testExactLookup");
+        AIDMap<String> map = new AIDMap<String>();
+        AID aid1 = AIDUtil.create("A000000001");
+        AID aid2 = AIDUtil.create("A00000000102");
+        map.put(aid1, "one");
+        map.put(aid2, "two");
+
+        byte[] buffer = ByteUtil.byteArray("FFA00000000102FF");
+        assertSame(aid2, map.getKey(buffer, 1, 6));
+        assertSame(aid1, map.getKey(buffer, 1, 5));
+        assertEquals("two", map.get(buffer, 1, 6));
+        assertNull(map.getKey(buffer, 1, 4));
+        assertNull(map.getKey(buffer, 0, 6));
+
+        assertEquals("one", map.get(AIDUtil.create("A000000001")));
+        assertEquals("two", map.get(aid2));
+        assertTrue(map.containsKey(AIDUtil.create("A00000000102")));
+        assertFalse(map.containsKey(AIDUtil.create("A000000002")));
+        assertNull(map.get(AIDUtil.create("A0000000010203")));
+        assertNull(map.get("A000000001"));
+    }
+
+    public void testPrefixLookup() {
+        System.out.println("testPrefixLookup");
+        AIDMap<String> map = new AIDMap<String>();
+        AID aidB = AIDUtil.create("A0000000FF01");
+        AID aidA = AIDUtil.create("A00000000101");
+        AID aidC = AIDUtil.create("A00000000102");
+        map.put(aidB, "b");
+        map.put(aidA, "a");
+        map.put(aidC, "c");
+
+        byte[] buffer = ByteUtil.byteArray("A0000000");
+        assertSame(aidA, map.findFirstByPrefix(buffer, 0, 4));
+        assertSame(aidA, map.findFirstByPrefix(buffer, 0, 0));
+        assertSame(aidC, map.findFirstByPrefix(ByteUtil.byteArray("A00000000102"), 0, 6));
+        assertSame(aidB, map.findFirstByPrefix(ByteUtil.byteArray("A0000000FF"), 0, 5));
+        assertNull(map.findFirstByPrefix(ByteUtil.byteArray("A0000000FF0100"), 0, 7));
+
+        map.remove(AIDUtil.create("A00000000101"));
+        assertSame(aidC, map.findFirstByPrefix(buffer, 0, 4));
+        assertNull(map.getKey(ByteUtil.byteArray("A00000000101"), 0, 6));
+        assertEquals(2, map.size());
+    }
+
+    public void testIterationOrderMatchesComparator() {
+        System.out.println("testIterationOrderMatchesComparator");
+        AIDMap<Integer> map = new AIDMap<Integer>();
+        ArrayList<AID> aids = new ArrayList<AID>();
+        for (int i = 0; i < 500; i++) {
+            byte[] bytes = new byte[]{(byte) 0xA0, 0, 0, 0, (byte) (i >> 8), (byte) i};
+            AID aid = AIDUtil.create(bytes);
+            aids.add(aid);
+            map.put(aid, i);
+        }
+        assertEquals(500, map.size());
+        Iterator<AID> it = map.keySet().iterator();
+        AID previous = it.next();
+        while (it.hasNext()) {
+            AID next = it.next();
+            assertTrue(AIDUtil.comparator().compare(previous, next) < 0);
+            previous = next;
+        }
+        for (int i = 0; i < aids.size(); i++) {
+            byte[] bytes = new byte[16];
+            byte len = aids.get(i).getBytes(bytes, (short) 0);
+            assertEquals(Integer.valueOf(i), map.get(bytes, 0, len));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.findFirstByPrefix(new byte[0], 0, 0));
+    }
+
+    public void testViewsAreReadOnly() {
+        System.out.println("testViewsAreReadOnly");
+        AIDMap<String> map = new AIDMap<String>();
+        map.put(AIDUtil.create("A000000001"), "one");
+        try {
+            map.keySet().clear();
+            fail("No exception");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(1, map.size());
+    }
+}
@@ -199,4 +199,57 @@ public class ExtendedLengthTest extends TestCase {
         assertEquals(0x9000, responseApdu.getSW());
         assertEquals(Arrays.toString(input), Arrays.toString(responseApdu.getData()));
     }
+
+    public void testExtendedApduBufferIsCleared() {
+        byte[] input = new byte[Short.MAX_VALUE - 2];
+        Arrays.fill(input, (byte) 0x41);
+
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        Simulator instance = new Simulator(runtime);
+        AID aid = new AID(TEST_APPLET_AID_BYTES, (short) 0, (byte) TEST_APPLET_AID_BYTES.length);
+        instance.installApplet(aid, Sha1Applet.class);
+        instance.selectApplet(aid);
+
+        ByteBuffer inputApdu = ByteBuffer.wrap(new byte[input.length + 7]);
+        inputApdu.put(CLA);
+        inputApdu.put(INS_ECHO);
+        inputApdu.put(P1);
+        inputApdu.put(P2);
+        inputApdu.put((byte) 0).putShort((short) input.length); // Lc
+        inputApdu.put(input);
+        assertEquals(0x9000, new ResponseAPDU(instance.transmitCommand(inputApdu.array())).getSW());
+
+        byte[] apdu = new byte[]{CLA, INS_LEN, P1, P2, 0, 0, 1, DUMMY, 0, 4};
+        assertEquals(0x9000, new ResponseAPDU(instance.transmitCommand(apdu)).getSW());
+
+        byte[] buffer = runtime.extendedAPDU.getBuffer();
+        for (int i = apdu.length; i < buffer.length; i++) {
+            assertEquals("offset " + i, 0, buffer[i]);
+        }
+    }
+
+    public void testExtendedApduBufferClearsDirtyRegion() {
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        Simulator instance = new Simulator(runtime);
+        AID aid = new AID(TEST_APPLET_AID_BYTES, (short) 0, (byte) TEST_APPLET_AID_BYTES.length);
+        instance.installApplet(aid, Sha1Applet.class);
+        instance.selectApplet(aid);
+
+        byte[] apdu = new byte[]{CLA, INS_DIGEST, 0, 0, 0, 0, 1, DUMMY};
+        assertEquals(0x9000, new ResponseAPDU(instance.transmitCommand(apdu)).getSW());
+        // bytes stored beyond the received and sent data are not tracked
+        byte[] buffer = runtime.extendedAPDU.getBuffer();
+        Arrays.fill(buffer, 100, 200, (byte) 0x41);
+        Arrays.fill(buffer, 1000, 2000, (byte) 0x41);
+
+        apdu = new byte[]{CLA, INS_LEN, P1, P2, 0, 0, 1, DUMMY, 0, 4};
+        assertEquals(0x9000, new ResponseAPDU(instance.transmitCommand(apdu)).getSW());
+        // the first 260 bytes are cleared, the rest of the 32 KB buffer is not zeroed again
+        for (int i = apdu.length; i < 260; i++) {
+            assertEquals("offset " + i, 0, buffer[i]);
+        }
+        for (int i = 1000; i < 2000; i++) {
+            assertEquals("offset " + i, 0x41, buffer[i]);
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.JCSystem;
+import javacard.framework.SystemException;
+import javacard.security.AESKey;
+import javacard.security.KeyBuilder;
+import junit.framework.TestCase;
+
+public class MemoryQuotaTest extends TestCase {
+
+    public MemoryQuotaTest(String name) {
+        super(name);
+    }
+
+    public void testTransientBudget() {
+        System.out.println("testTransientBudget");
+        SimulatorRuntime runtime = new SimulatorRuntime(new TransientMemory(100));
+        runtime.activateSimulatorRuntimeInstance();
+
+        assertEquals(100, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+        JCSystem.makeTransientByteArray((short) 40, JCSystem.CLEAR_ON_RESET);
+        JCSystem.makeTransientShortArray((short) 10, JCSystem.CLEAR_ON_DESELECT);
+        assertEquals(40, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+        assertEquals(40, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT));
+
+        try {
+            JCSystem.makeTransientBooleanArray((short) 41, JCSystem.CLEAR_ON_DESELECT);
+            fail("No exception");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_TRANSIENT_SPACE, e.getReason());
+        }
+        JCSystem.makeTransientObjectArray((short) 20, JCSystem.CLEAR_ON_RESET);
+        assertEquals(0, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+
+        runtime.resetRuntime();
+        assertEquals(100, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+    }
+
+    public void testAvailableMemoryIsCapped() {
+        System.out.println("testAvailableMemoryIsCapped");
+        new SimulatorRuntime().activateSimulatorRuntimeInstance();
+        assertEquals(Short.MAX_VALUE, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT));
+        assertEquals(Short.MAX_VALUE, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+        JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        assertEquals(Short.MAX_VALUE, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+    }
+
+    public void testPersistentBudget() {
+        System.out.println("testPersistentBudget");
+        SimulatorRuntime runtime;
+        System.setProperty(SimulatorRuntime.PERSISTENT_MEMORY_PROPERTY, "20");
+        try {
+            runtime = new SimulatorRuntime();
+        } finally {
+            System.clearProperty(SimulatorRuntime.PERSISTENT_MEMORY_PROPERTY);
+        }
+        runtime.activateSimulatorRuntimeInstance();
+
+        // key storage is charged when the key is built
+        AESKey key = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        assertEquals(4, JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT));
+        key.setKey(new byte[16], (short) 0);
+        key.setKey(new byte[16], (short) 0);
+        assertEquals(16, runtime.getUsedPersistentMemory());
+
+        try {
+            KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+            fail("No exception");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_RESOURCE, e.getReason());
+        }
+        assertEquals(16, runtime.getUsedPersistentMemory());
+
+        // transient keys are charged against the RAM budget
+        AESKey transientKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        transientKey.setKey(new byte[16], (short) 0);
+        assertEquals(16, runtime.getTransientMemory().getUsedMemory());
+        assertEquals(16, runtime.getUsedPersistentMemory());
+    }
+}
@@ -37,6 +37,7 @@ public class PersistentRuntimeTest extends TestCase {
     private final byte GET_COUNTER = 0x02;
     private final byte INC_COUNTER = 0x03;
     private final byte GET_DESELECT_COUNTER = 0x04;
+    private final byte SET_DATA = 0x05;
     
     String aidStr;
     AID aid;
@@ -58,6 +59,9 @@ public class PersistentRuntimeTest extends TestCase {
     
     @Override
     protected void tearDown() throws Exception {
+        System.clearProperty(PersistentSimulatorRuntime.PERSISTENT_JOURNAL);
+        System.clearProperty(PersistentSimulatorRuntime.PERSISTENT_JOURNAL_COMPACT_SIZE);
+        System.clearProperty(PersistentSimulatorRuntime.PERSISTENT_TRACK_WRITES);
         deleteDirectory(baseDir.toFile());
         super.tearDown();
     }
@@ -105,6 +109,86 @@ public class PersistentRuntimeTest extends TestCase {
         assertEquals(true, counter3 == 2);
     }
     
+    public void testJournalUpdateApplet() {
+        System.out.println("testJournalUpdateApplet");
+
+        System.setProperty(PersistentSimulatorRuntime.PERSISTENT_JOURNAL, "true");
+        SimulatorRuntime runtime = new PersistentSimulatorRuntime();
+        Simulator instance = new Simulator(runtime);
+        instance.installApplet(aid, PersistentApplet.class);
+
+        File appletFile = Paths.get(baseDir.toString(), DEFAULT_ATR, aidStr).toFile();
+        File journalFile = new File(appletFile.getPath() + AppletImageJournal.JOURNAL_SUFFIX);
+        long appletFileLength = appletFile.length();
+        assertEquals(false, journalFile.isFile());
+
+        assertEquals(true, instance.selectApplet(aid));
+        for (int i = 0; i < 3; i++) {
+            byte[] response = instance.transmitCommand(new byte[]{0x01, INC_COUNTER, 0x00, 0x00});
+            assertSW_9000(response);
+        }
+        // only deltas are written, the applet file itself is untouched
+        assertEquals(true, journalFile.isFile());
+        assertEquals(appletFileLength, appletFile.length());
+
+        byte counter = incCounter();
+        assertEquals(3, counter);
+        assertEquals(4, incCounter());
+    }
+
+    public void testJournalCompaction() {
+        System.out.println("testJournalCompaction");
+
+        System.setProperty(PersistentSimulatorRuntime.PERSISTENT_JOURNAL, "true");
+        System.setProperty(PersistentSimulatorRuntime.PERSISTENT_JOURNAL_COMPACT_SIZE, "1");
+        SimulatorRuntime runtime = new PersistentSimulatorRuntime();
+        Simulator instance = new Simulator(runtime);
+        instance.installApplet(aid, PersistentApplet.class);
+
+        File appletFile = Paths.get(baseDir.toString(), DEFAULT_ATR, aidStr).toFile();
+        File journalFile = new File(appletFile.getPath() + AppletImageJournal.JOURNAL_SUFFIX);
+
+        assertEquals(true, instance.selectApplet(aid));
+        assertSW_9000(instance.transmitCommand(new byte[]{0x01, INC_COUNTER, 0x00, 0x00}));
+        assertEquals(true, journalFile.isFile());
+        assertSW_9000(instance.transmitCommand(new byte[]{0x01, INC_COUNTER, 0x00, 0x00}));
+        assertEquals(false, journalFile.isFile());
+
+        assertEquals(2, incCounter());
+    }
+
+    public void testJournalTrackWrites() {
+        System.out.println("testJournalTrackWrites");
+
+        System.setProperty(PersistentSimulatorRuntime.PERSISTENT_JOURNAL, "true");
+        System.setProperty(PersistentSimulatorRuntime.PERSISTENT_TRACK_WRITES, "true");
+        SimulatorRuntime runtime = new PersistentSimulatorRuntime();
+        Simulator instance = new Simulator(runtime);
+        instance.installApplet(aid, PersistentApplet.class);
+
+        File appletFile = Paths.get(baseDir.toString(), DEFAULT_ATR, aidStr).toFile();
+        File journalFile = new File(appletFile.getPath() + AppletImageJournal.JOURNAL_SUFFIX);
+
+        assertEquals(true, instance.selectApplet(aid));
+        long journalLength = journalFile.length();
+        // read only command, the applet is not serialized
+        assertSW_9000(instance.transmitCommand(new byte[]{0x01, GET_COUNTER, 0x00, 0x00}));
+        assertEquals(journalLength, journalFile.length());
+
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+        assertSW_9000(instance.transmitCommand(new byte[]{0x01, SET_DATA, 0x00, 0x00, 0x08,
+            data[0], data[1], data[2], data[3], data[4], data[5], data[6], data[7]}));
+        assertEquals(true, journalFile.length() > journalLength);
+
+        SimulatorRuntime otherRuntime = new PersistentSimulatorRuntime();
+        Simulator otherInstance = new Simulator(otherRuntime);
+        otherInstance.loadApplet(aid, PersistentApplet.class);
+        assertEquals(true, otherInstance.selectApplet(aid));
+        byte[] response = otherInstance.transmitCommand(new byte[]{0x01, GET_DATA_INS, 0x00, 0x00});
+        assertSW_9000(response);
+        assertEquals(true, Arrays.areEqual(data, Arrays.copyOf(response, data.length)));
+    }
+
     public void testDeSelectApplet() {
         System.out.println("testDeSelectApplet");
 
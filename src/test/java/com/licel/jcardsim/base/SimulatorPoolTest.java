@@ -0,0 +1,173 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.Sha1Applet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.JCSystem;
+import junit.framework.TestCase;
+
+import javax.smartcardio.ResponseAPDU;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class SimulatorPoolTest extends TestCase {
+    private static final byte CLA = (byte) 0x80;
+    private static final byte INS_DIGEST = 0;
+    private static final byte INS_LAST_DIGEST = 6;
+    private static final AID AID = AIDUtil.create("0102030405");
+
+    public SimulatorPoolTest(String name) {
+        super(name);
+    }
+
+    public void testCardsAreIsolatedAndOrdered() throws Exception {
+        System.out.println("testCardsAreIsolatedAndOrdered");
+        SimulatorPool pool = new SimulatorPool(16, 4);
+        try {
+            for (Simulator simulator : pool.getSimulators()) {
+                simulator.installApplet(AID, Sha1Applet.class);
+                simulator.selectApplet(AID);
+            }
+
+            List<List<Future<List<byte[]>>>> futures = new ArrayList<List<Future<List<byte[]>>>>();
+            for (int card = 0; card < pool.size(); card++) {
+                List<Future<List<byte[]>>> cardFutures = new ArrayList<Future<List<byte[]>>>();
+                for (int round = 0; round < 20; round++) {
+                    byte value = (byte) (card * 20 + round);
+                    cardFutures.add(pool.transmitCommands(card, Arrays.asList(
+                            new byte[]{CLA, INS_DIGEST, 0, 0, 1, value})));
+                    cardFutures.add(pool.transmitCommands(card, Arrays.asList(
+                            new byte[]{CLA, INS_LAST_DIGEST, 0, 0})));
+                }
+                futures.add(cardFutures);
+            }
+
+            MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+            for (int card = 0; card < pool.size(); card++) {
+                List<Future<List<byte[]>>> cardFutures = futures.get(card);
+                for (int round = 0; round < 20; round++) {
+                    byte[] expected = sha1.digest(new byte[]{(byte) (card * 20 + round)});
+                    ResponseAPDU digest = new ResponseAPDU(cardFutures.get(2 * round).get().get(0));
+                    ResponseAPDU last = new ResponseAPDU(cardFutures.get(2 * round + 1).get().get(0));
+                    assertEquals(0x9000, digest.getSW());
+                    assertTrue(Arrays.equals(expected, last.getData()));
+                }
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testRuntimeIsBound() throws Exception {
+        System.out.println("testRuntimeIsBound");
+        SimulatorPool pool = new SimulatorPool(2, 1);
+        try {
+            for (int card = 0; card < pool.size(); card++) {
+                final Simulator expected = pool.getSimulator(card);
+                Future<Boolean> bound = pool.submit(card, new Function<Simulator, Boolean>() {
+                    public Boolean apply(Simulator simulator) {
+                        JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+                        return simulator == expected && SimulatorSystem.instance() == simulator.runtime;
+                    }
+                });
+                assertTrue(bound.get());
+                assertEquals(1, pool.getSimulator(card).runtime.getTransientMemory().getArrayCount(JCSystem.CLEAR_ON_RESET));
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testTaskFailureAndClose() throws Exception {
+        System.out.println("testTaskFailureAndClose");
+        SimulatorPool pool = new SimulatorPool(1, 1);
+        Future<Object> failed = pool.submit(0, new Function<Simulator, Object>() {
+            public Object apply(Simulator simulator) {
+                throw new IllegalStateException("failed");
+            }
+        });
+        try {
+            failed.get();
+            fail("No exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the card keeps working after a failed task
+        byte[] response = pool.transmitCommands(0, Arrays.asList(AIDUtil.select(AID))).get().get(0);
+        assertEquals(2, response.length);
+
+        pool.close();
+        assertTrue(pool.isClosed());
+        try {
+            pool.transmitCommands(0, new ArrayList<byte[]>());
+            fail("No exception");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentClose() throws Exception {
+        System.out.println("testConcurrentClose");
+        for (int round = 0; round < 50; round++) {
+            final SimulatorPool pool = new SimulatorPool(1, 1);
+            final List<Future<Integer>> accepted = new CopyOnWriteArrayList<Future<Integer>>();
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                            while (true) {
+                                accepted.add(pool.submit(0, new Function<Simulator, Integer>() {
+                                    public Integer apply(Simulator simulator) {
+                                        return 1;
+                                    }
+                                }));
+                            }
+                        } catch (RejectedExecutionException e) {
+                            // closed
+                        } catch (InterruptedException e) {
+                            // not expected
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            start.countDown();
+            Thread.sleep(1);
+            pool.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // every accepted task completes
+            for (Future<Integer> future : accepted) {
+                assertEquals(1, future.get(10, TimeUnit.SECONDS).intValue());
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.InputStream;
 
 import com.licel.jcardsim.samples.TestResponseDataAndStatusWordApplet;
 import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
 import javacard.framework.AID;
 import javacard.framework.Applet;
 import javacard.framework.ISO7816;
@@ -30,6 +31,9 @@ import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
 import javax.smartcardio.ResponseAPDU;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -210,6 +214,67 @@ public class SimulatorTest extends TestCase {
         assertEquals(Arrays.areEqual(new byte[]{(byte)0x90, 0x00}, response), true);
     }
 
+    /**
+     * Test of transmitBatch method, of class Simulator.
+     */
+    public void testTransmitBatch() {
+        System.out.println("transmitBatch");
+        Simulator instance = new Simulator();
+        instance.installApplet(TEST_APPLET_AID, TEST_APPLET_CLASS);
+        List<byte[]> commands = new ArrayList<byte[]>();
+        commands.add(AIDUtil.select(TEST_APPLET_AID));
+        commands.add(new byte[]{0x01, 0x02, 0x00, 0x00});
+        commands.add(new byte[]{0x01, 0x7F, 0x00, 0x00});
+        commands.add(new byte[]{0x01, 0x02, 0x00, 0x00});
+
+        List<byte[]> responses = instance.transmitBatch(commands);
+        assertEquals(4, responses.size());
+        assertEquals(ISO7816.SW_INS_NOT_SUPPORTED, ByteUtil.getSW(responses.get(2)));
+        assertTrue(Arrays.areEqual(new byte[]{(byte)0x90, 0x00}, responses.get(3)));
+
+        instance.reset();
+        responses = instance.transmitBatch(commands, true);
+        assertEquals(3, responses.size());
+        assertEquals(ISO7816.SW_INS_NOT_SUPPORTED, ByteUtil.getSW(responses.get(2)));
+    }
+
+    /**
+     * Test of transmitCommand method with caller supplied buffers, of class Simulator.
+     */
+    public void testTransmitCommandWithBuffers() {
+        System.out.println("transmitCommandWithBuffers");
+        Simulator instance = new Simulator();
+        instance.installApplet(TEST_APPLET_AID, TEST_APPLET_CLASS);
+        assertEquals(instance.selectApplet(TEST_APPLET_AID), true);
+
+        // echo command at offset 3
+        byte[] command = new byte[64];
+        byte[] echoCommand = new byte[]{0x00, 0x01, 0x01, 0x00, 0x03, 0x11, 0x22, 0x33};
+        System.arraycopy(echoCommand, 0, command, 3, echoCommand.length);
+        byte[] response = new byte[64];
+        int length = instance.transmitCommand(command, 3, echoCommand.length, response, 2);
+        assertEquals(5, length);
+        assertEquals(Arrays.areEqual(new byte[]{0x11, 0x22, 0x33, (byte) 0x90, 0x00}, Arrays.copyOfRange(response, 2, 7)), true);
+
+        // NOP, response too small
+        try {
+            instance.transmitCommand(new byte[]{0x01, 0x02, 0x00, 0x00}, 0, 4, new byte[1], 0);
+            fail("No exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // ByteBuffer variant
+        ByteBuffer commandBuffer = ByteBuffer.allocateDirect(16);
+        commandBuffer.put(echoCommand).flip();
+        ByteBuffer responseBuffer = ByteBuffer.allocate(16);
+        length = instance.transmitCommand(commandBuffer, responseBuffer);
+        assertEquals(5, length);
+        assertEquals(0, commandBuffer.remaining());
+        assertEquals(5, responseBuffer.position());
+        assertEquals(Arrays.areEqual(new byte[]{0x11, 0x22, 0x33, (byte) 0x90, 0x00}, Arrays.copyOf(responseBuffer.array(), 5)), true);
+    }
+
     /**
      * Test of reset method, of class Simulator.
      */
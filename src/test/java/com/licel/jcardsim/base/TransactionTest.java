@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.JCSystem;
+import javacard.framework.TransactionException;
+import javacard.framework.Util;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class TransactionTest extends TestCase {
+
+    public TransactionTest(String name) {
+        super(name);
+    }
+
+    private SimulatorRuntime activate(SimulatorRuntime runtime) {
+        runtime.activateSimulatorRuntimeInstance();
+        return runtime;
+    }
+
+    public void testAbortRestoresPersistentArray() {
+        System.out.println("testAbortRestoresPersistentArray");
+        SimulatorRuntime runtime = activate(new SimulatorRuntime());
+        byte[] data = new byte[]{1, 2, 3, 4, 5, 6};
+        byte[] expected = data.clone();
+
+        JCSystem.beginTransaction();
+        Util.arrayCopy(new byte[]{9, 9, 9}, (short) 0, data, (short) 1, (short) 3);
+        Util.setShort(data, (short) 2, (short) 0x7777);
+        assertTrue(JCSystem.getUnusedCommitCapacity() < JCSystem.getMaxCommitCapacity());
+        JCSystem.abortTransaction();
+
+        assertTrue(Arrays.equals(expected, data));
+        assertEquals(JCSystem.getMaxCommitCapacity(), JCSystem.getUnusedCommitCapacity());
+        assertEquals(0, runtime.getTransactionDepth());
+    }
+
+    public void testCommitKeepsChanges() {
+        System.out.println("testCommitKeepsChanges");
+        activate(new SimulatorRuntime());
+        byte[] data = new byte[4];
+
+        JCSystem.beginTransaction();
+        Util.setShort(data, (short) 0, (short) 0x1234);
+        JCSystem.commitTransaction();
+
+        assertEquals((short) 0x1234, Util.getShort(data, (short) 0));
+        assertEquals(JCSystem.getMaxCommitCapacity(), JCSystem.getUnusedCommitCapacity());
+    }
+
+    public void testTransientArrayIsNotJournaled() {
+        System.out.println("testTransientArrayIsNotJournaled");
+        activate(new SimulatorRuntime());
+        byte[] data = JCSystem.makeTransientByteArray((short) 4, JCSystem.CLEAR_ON_RESET);
+
+        JCSystem.beginTransaction();
+        Util.setShort(data, (short) 0, (short) 0x1234);
+        assertEquals(JCSystem.getMaxCommitCapacity(), JCSystem.getUnusedCommitCapacity());
+        JCSystem.abortTransaction();
+
+        assertEquals((short) 0x1234, Util.getShort(data, (short) 0));
+    }
+
+    public void testResetRollsBackPendingTransaction() {
+        System.out.println("testResetRollsBackPendingTransaction");
+        SimulatorRuntime runtime = activate(new SimulatorRuntime());
+        byte[] data = new byte[2];
+
+        JCSystem.beginTransaction();
+        Util.setShort(data, (short) 0, (short) 0x1234);
+        runtime.reset();
+
+        assertEquals(0, Util.getShort(data, (short) 0));
+        assertEquals(0, runtime.getTransactionDepth());
+    }
+
+    public void testApduBufferIsNotJournaled() {
+        System.out.println("testApduBufferIsNotJournaled");
+        SimulatorRuntime runtime = activate(new SimulatorRuntime());
+        byte[] buffer = runtime.getCurrentAPDU().getBuffer();
+
+        JCSystem.beginTransaction();
+        Util.setShort(buffer, (short) 0, (short) 0x1234);
+        assertEquals(JCSystem.getMaxCommitCapacity(), JCSystem.getUnusedCommitCapacity());
+        JCSystem.abortTransaction();
+
+        assertEquals((short) 0x1234, Util.getShort(buffer, (short) 0));
+    }
+
+    public void testBufferFull() {
+        System.out.println("testBufferFull");
+        activate(new SimulatorRuntime());
+        byte[] data = new byte[Short.MAX_VALUE];
+        byte[] src = new byte[Short.MAX_VALUE];
+        Arrays.fill(src, (byte) 1);
+
+        JCSystem.beginTransaction();
+        try {
+            Util.arrayCopy(src, (short) 0, data, (short) 0, (short) data.length);
+            fail("No exception");
+        } catch (TransactionException e) {
+            assertEquals(TransactionException.BUFFER_FULL, e.getReason());
+        }
+        // no copy performed, transaction still in progress
+        assertEquals(0, data[0]);
+        assertEquals(1, JCSystem.getTransactionDepth());
+        JCSystem.abortTransaction();
+    }
+
+    public void testNoTransaction() {
+        System.out.println("testNoTransaction");
+        activate(new SimulatorRuntime());
+        byte[] data = new byte[2];
+        Util.setShort(data, (short) 0, (short) 0x1234);
+        assertEquals((short) 0x1234, Util.getShort(data, (short) 0));
+        assertEquals(Short.MAX_VALUE, JCSystem.getMaxCommitCapacity());
+        assertEquals(Short.MAX_VALUE, JCSystem.getUnusedCommitCapacity());
+    }
+}
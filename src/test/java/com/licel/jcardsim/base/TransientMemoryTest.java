@@ -20,12 +20,17 @@ import com.licel.jcardsim.utils.AIDUtil;
 import javacard.framework.AID;
 import javacard.framework.JCSystem;
 import javacard.framework.SystemException;
+import javacard.security.AESKey;
+import javacard.security.KeyBuilder;
+import javacardx.crypto.Cipher;
 import junit.framework.TestCase;
 
 import javax.smartcardio.ResponseAPDU;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class TransientMemoryTest extends TestCase {
     private static final byte CLA = (byte) 0x80;
@@ -139,6 +144,79 @@ public class TransientMemoryTest extends TestCase {
         }
     }
 
+    public void testUnreferencedArraysAreForgotten() throws InterruptedException {
+        TransientMemory transientMemory = new TransientMemory();
+        byte[] kept = transientMemory.makeByteArray(4, JCSystem.CLEAR_ON_DESELECT);
+        for (int i = 0; i < 1000; i++) {
+            transientMemory.makeByteArray(4, JCSystem.CLEAR_ON_DESELECT);
+        }
+        for (int i = 0; i < 50 && transientMemory.getArrayCount(JCSystem.CLEAR_ON_DESELECT) > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, transientMemory.getArrayCount(JCSystem.CLEAR_ON_DESELECT));
+        assertEquals(JCSystem.CLEAR_ON_DESELECT, transientMemory.isTransient(kept));
+
+        kept[0] = 1;
+        transientMemory.clearOnDeselect();
+        assertEquals(0, kept[0]);
+    }
+
+    public void testStoreArrayHook() {
+        final List<Object> stored = new ArrayList<Object>();
+        TransientMemory transientMemory = new TransientMemory() {
+            @Override
+            protected void storeArray(Object arrayRef, byte event) {
+                stored.add(arrayRef);
+                super.storeArray(arrayRef, event);
+            }
+        };
+        byte[] bytes = transientMemory.makeByteArray(2, JCSystem.CLEAR_ON_DESELECT);
+        short[] shorts = transientMemory.makeShortArray((short) 2, JCSystem.CLEAR_ON_RESET);
+        assertEquals(2, stored.size());
+        assertSame(bytes, stored.get(0));
+        assertSame(shorts, stored.get(1));
+        assertEquals(JCSystem.CLEAR_ON_DESELECT, transientMemory.isTransient(bytes));
+        assertEquals(JCSystem.CLEAR_ON_RESET, transientMemory.isTransient(shorts));
+
+        bytes[0] = 1;
+        shorts[0] = 1;
+        transientMemory.zero(stored);
+        assertEquals(0, bytes[0]);
+        assertEquals(0, shorts[0]);
+    }
+
+    public void testIsTransientUsesIdentity() {
+        TransientMemory transientMemory = new TransientMemory();
+        Object[] array = transientMemory.makeObjectArray((short) 0, JCSystem.CLEAR_ON_RESET);
+        assertEquals(JCSystem.CLEAR_ON_RESET, transientMemory.isTransient(array));
+        assertEquals(JCSystem.NOT_A_TRANSIENT_OBJECT, transientMemory.isTransient(new Object[0]));
+        assertEquals(JCSystem.NOT_A_TRANSIENT_OBJECT, transientMemory.isTransient(null));
+        assertEquals(JCSystem.NOT_A_TRANSIENT_OBJECT, transientMemory.isTransient(new Object()));
+        assertEquals(1, transientMemory.getArrayCount(JCSystem.CLEAR_ON_RESET));
+        assertEquals(0, transientMemory.getArrayCount(JCSystem.CLEAR_ON_DESELECT));
+    }
+
+    public void testCipherInitDoesNotRegisterArrays() {
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        runtime.activateSimulatorRuntimeInstance();
+        TransientMemory transientMemory = runtime.getTransientMemory();
+
+        AESKey key = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        key.setKey(new byte[16], (short) 0);
+        Cipher cipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        byte[] iv = new byte[16];
+
+        cipher.init(key, Cipher.MODE_ENCRYPT, iv, (short) 0, (short) iv.length);
+        int clearOnReset = transientMemory.getArrayCount(JCSystem.CLEAR_ON_RESET);
+        int clearOnDeselect = transientMemory.getArrayCount(JCSystem.CLEAR_ON_DESELECT);
+        for (int i = 0; i < 100; i++) {
+            cipher.init(key, Cipher.MODE_ENCRYPT, iv, (short) 0, (short) iv.length);
+        }
+        assertEquals(clearOnReset, transientMemory.getArrayCount(JCSystem.CLEAR_ON_RESET));
+        assertEquals(clearOnDeselect, transientMemory.getArrayCount(JCSystem.CLEAR_ON_DESELECT));
+    }
+
     public void testCleanOnDeselectWorks() throws NoSuchAlgorithmException {
         MessageDigest sha1 = MessageDigest.getInstance("SHA1");
         byte[] expectedOutput = sha1.digest(new byte[]{'A'});
@@ -737,4 +737,111 @@ public class AuthenticatedSymmetricCipherImplTest extends TestCase {
         assertEquals(true, Arrays.areEqual(decrypted, msgPart1.length(), decrypted.length, msgPart2.getBytes(), 0, msgPart2.length()));
         assertEquals(true, engine.verifyTag(tag, (short) 0, (short) tag.length, (short)(tagLenInBits/Byte.SIZE)));
     }
+
+    public void testAES_GCM_InPlaceAndReinit() {
+        Random random = new Random(17);
+        byte[] keyBytes = new byte[16];
+        random.nextBytes(keyBytes);
+        byte[] iv = new byte[12];
+        byte[] aad = new byte[20];
+        random.nextBytes(aad);
+
+        AESKey aesKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        aesKey.setKey(keyBytes, (short) 0);
+        AEADCipher engine = (AEADCipher) Cipher.getInstance(AEADCipher.ALG_AES_GCM, false);
+
+        short[] lengths = {0, 1, 15, 16, 17, 40, 256};
+        for (int i = 0; i < lengths.length; i++) {
+            short length = lengths[i];
+            short split = (short) random.nextInt(length + 1);
+            byte[] plaintext = new byte[length];
+            random.nextBytes(plaintext);
+            random.nextBytes(iv);
+            if (i == 3) {
+                // a new key must be picked up by the next init
+                random.nextBytes(keyBytes);
+                aesKey.setKey(keyBytes, (short) 0);
+            }
+
+            // reference: new cipher, separate buffers
+            AEADCipher reference = (AEADCipher) Cipher.getInstance(AEADCipher.ALG_AES_GCM, false);
+            reference.init(aesKey, Cipher.MODE_ENCRYPT, iv, (short) 0, (short) iv.length);
+            reference.updateAAD(aad, (short) 0, (short) aad.length);
+            byte[] expected = new byte[length + 16];
+            assertEquals(expected.length, reference.doFinal(plaintext, (short) 0, length, expected, (short) 0));
+
+            // in place, the same nonce twice and with the output ahead of the input
+            for (int outShift = 0; outShift <= 3; outShift += 3) {
+                byte[] buffer = new byte[length + 16 + 3];
+                System.arraycopy(plaintext, 0, buffer, 3, length);
+                engine.init(aesKey, Cipher.MODE_ENCRYPT, iv, (short) 0, (short) iv.length);
+                engine.updateAAD(aad, (short) 0, (short) aad.length);
+                short outOffset = (short) (3 - outShift);
+                short processed = engine.update(buffer, (short) 3, split, buffer, outOffset);
+                processed += engine.doFinal(buffer, (short) (3 + split), (short) (length - split),
+                        buffer, (short) (outOffset + processed));
+                assertEquals(expected.length, processed);
+                assertTrue("i " + i + " shift " + outShift + " split " + split, Arrays.areEqual(expected, 0, expected.length, buffer, outOffset, outOffset + processed));
+            }
+
+            byte[] buffer = new byte[expected.length];
+            System.arraycopy(expected, 0, buffer, 0, expected.length);
+            engine.init(aesKey, Cipher.MODE_DECRYPT, iv, (short) 0, (short) iv.length);
+            engine.updateAAD(aad, (short) 0, (short) aad.length);
+            short processed = engine.update(buffer, (short) 0, split, buffer, (short) 0);
+            processed += engine.doFinal(buffer, split, (short) (buffer.length - split), buffer, processed);
+            assertEquals(length, processed);
+            assertTrue(Arrays.areEqual(plaintext, 0, length, buffer, 0, length));
+        }
+    }
+
+    public void testAES_GCM_InPlaceMultiPartDecrypt() {
+        Random random = new Random(23);
+        byte[] keyBytes = new byte[16];
+        random.nextBytes(keyBytes);
+        byte[] iv = new byte[12];
+        random.nextBytes(iv);
+        AESKey aesKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        aesKey.setKey(keyBytes, (short) 0);
+
+        byte[] plaintext = new byte[100];
+        random.nextBytes(plaintext);
+        AEADCipher engine = (AEADCipher) Cipher.getInstance(AEADCipher.ALG_AES_GCM, false);
+        engine.init(aesKey, Cipher.MODE_ENCRYPT, iv, (short) 0, (short) iv.length);
+        byte[] ciphertext = new byte[plaintext.length + 16];
+        engine.doFinal(plaintext, (short) 0, (short) plaintext.length, ciphertext, (short) 0);
+
+        // 20 byte parts, the output is written in place behind the input
+        byte[] buffer = Arrays.clone(ciphertext);
+        engine.init(aesKey, Cipher.MODE_DECRYPT, iv, (short) 0, (short) iv.length);
+        short inOffset = 0;
+        short outOffset = 0;
+        while (buffer.length - inOffset > 20) {
+            outOffset += engine.update(buffer, inOffset, (short) 20, buffer, outOffset);
+            inOffset += 20;
+        }
+        outOffset += engine.doFinal(buffer, inOffset, (short) (buffer.length - inOffset), buffer, outOffset);
+        assertEquals(plaintext.length, outOffset);
+        assertTrue(Arrays.areEqual(plaintext, 0, plaintext.length, buffer, 0, plaintext.length));
+
+        // every part at the same offset of an APDU buffer, the output at the offset of the input
+        buffer = new byte[5 + 48];
+        byte[] decrypted = new byte[plaintext.length];
+        int decryptedLength = 0;
+        engine.init(aesKey, Cipher.MODE_DECRYPT, iv, (short) 0, (short) iv.length);
+        for (int offset = 0; offset < ciphertext.length; offset += 20) {
+            short partLength = (short) Math.min(20, ciphertext.length - offset);
+            System.arraycopy(ciphertext, offset, buffer, 5, partLength);
+            short processed;
+            if (offset + partLength < ciphertext.length) {
+                processed = engine.update(buffer, (short) 5, partLength, buffer, (short) 5);
+            } else {
+                processed = engine.doFinal(buffer, (short) 5, partLength, buffer, (short) 5);
+            }
+            System.arraycopy(buffer, 5, decrypted, decryptedLength, processed);
+            decryptedLength += processed;
+        }
+        assertEquals(plaintext.length, decryptedLength);
+        assertTrue(Arrays.areEqual(plaintext, decrypted));
+    }
 }
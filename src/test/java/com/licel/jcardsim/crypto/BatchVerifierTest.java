@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.CryptoException;
+import javacard.security.KeyBuilder;
+import javacard.security.KeyPair;
+import javacard.security.Signature;
+import junit.framework.TestCase;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for <code>BatchVerifier</code>
+ */
+public class BatchVerifierTest extends TestCase {
+
+    public BatchVerifierTest(String name) {
+        super(name);
+    }
+
+    public void testVerifyAll() {
+        System.out.println("testVerifyAll");
+        KeyPair ec = new KeyPair(KeyPair.ALG_EC_FP, KeyBuilder.LENGTH_EC_FP_256);
+        ec.genKeyPair();
+        KeyPair rsa = new KeyPair(KeyPair.ALG_RSA_CRT, KeyBuilder.LENGTH_RSA_1024);
+        rsa.genKeyPair();
+        Signature ecdsa = Signature.getInstance(Signature.ALG_ECDSA_SHA_256, false);
+        ecdsa.init(ec.getPrivate(), Signature.MODE_SIGN);
+        Signature pkcs1 = Signature.getInstance(Signature.ALG_RSA_SHA_256_PKCS1, false);
+        pkcs1.init(rsa.getPrivate(), Signature.MODE_SIGN);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BatchVerifier verifier = new BatchVerifier(pool);
+        byte[] sig = new byte[256];
+        boolean[] expected = new boolean[100];
+        for (int i = 0; i < expected.length; i++) {
+            byte[] msg = new byte[]{(byte) i, 1, 2, 3};
+            boolean useEc = i % 3 != 0;
+            Signature signer = useEc ? ecdsa : pkcs1;
+            short sigLen = signer.sign(msg, (short) 0, (short) msg.length, sig, (short) 0);
+            expected[i] = i % 7 != 0;
+            if (!expected[i]) {
+                msg[0] ^= 0x55;
+            }
+            int index = verifier.add(useEc ? Signature.ALG_ECDSA_SHA_256 : Signature.ALG_RSA_SHA_256_PKCS1,
+                    useEc ? ec.getPublic() : rsa.getPublic(), msg, 0, msg.length, sig, 0, sigLen);
+            assertEquals(i, index);
+        }
+        assertEquals(expected.length, verifier.size());
+
+        boolean[] results = verifier.verifyAll();
+        assertEquals(expected.length, results.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("result " + i, expected[i], results[i]);
+        }
+        assertEquals(0, verifier.size());
+        assertEquals(0, verifier.verifyAll().length);
+        pool.shutdown();
+    }
+
+    public void testFailedGroupIsReported() {
+        System.out.println("testFailedGroupIsReported");
+        KeyPair rsa = new KeyPair(KeyPair.ALG_RSA_CRT, KeyBuilder.LENGTH_RSA_1024);
+        rsa.genKeyPair();
+        KeyPair cleared = new KeyPair(KeyPair.ALG_RSA_CRT, KeyBuilder.LENGTH_RSA_1024);
+        cleared.genKeyPair();
+        Signature pkcs1 = Signature.getInstance(Signature.ALG_RSA_SHA_256_PKCS1, false);
+        pkcs1.init(rsa.getPrivate(), Signature.MODE_SIGN);
+        byte[] msg = new byte[]{1, 2, 3};
+        byte[] sig = new byte[256];
+        short sigLen = pkcs1.sign(msg, (short) 0, (short) msg.length, sig, (short) 0);
+
+        BatchVerifier verifier = new BatchVerifier();
+        verifier.add(Signature.ALG_RSA_SHA_256_PKCS1, rsa.getPublic(), msg, 0, msg.length, sig, 0, sigLen);
+        verifier.add(Signature.ALG_RSA_SHA_256_PKCS1, cleared.getPublic(), msg, 0, msg.length, sig, 0, sigLen);
+        verifier.add(Signature.ALG_RSA_SHA_256_PKCS1, rsa.getPublic(), msg, 0, msg.length, sig, 0, sigLen);
+        // the verification of the cleared key fails, the others are still reported
+        cleared.getPublic().clearKey();
+        boolean[] results = verifier.verifyAll();
+        assertEquals(3, results.length);
+        assertTrue(results[0]);
+        assertFalse(results[1]);
+        assertTrue(results[2]);
+        assertEquals(0, verifier.size());
+    }
+
+    public void testRecoveryAlgorithmIsRejected() {
+        System.out.println("testRecoveryAlgorithmIsRejected");
+        KeyPair rsa = new KeyPair(KeyPair.ALG_RSA, KeyBuilder.LENGTH_RSA_1024);
+        rsa.genKeyPair();
+        try {
+            new BatchVerifier().add(Signature.ALG_RSA_SHA_ISO9796_MR, rsa.getPublic(),
+                    new byte[1], 0, 1, new byte[128], 0, 128);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.ILLEGAL_USE, e.getReason());
+        }
+    }
+}
@@ -20,6 +20,8 @@ import junit.framework.TestCase;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
+import java.util.Random;
+
 /**
  * Test for <code>CRC16</code>
  * Test data from NXP JCOP31-36 JavaCard
@@ -54,4 +56,41 @@ public class CRC16Test extends TestCase {
         crcEngine.doFinal(msg, (short) 0, (short) msg.length, crc, (short) 0);
         assertEquals(true, Arrays.areEqual(Hex.decode(CRC), crc));
     }
+
+    /**
+     * Test the table driven implementation against the bitwise algorithm
+     */
+    public void testMatchesBitwiseAlgorithm() {
+        System.out.println("test crc16 bitwise");
+        Checksum crcEngine = Checksum.getInstance(Checksum.ALG_ISO3309_CRC16, false);
+        Random random = new Random(16);
+        byte[] msg = new byte[300];
+        random.nextBytes(msg);
+        for (int length = 0; length < msg.length; length += 1 + length / 8) {
+            short init = (short) random.nextInt();
+            int split = random.nextInt(length + 1);
+            byte[] crc = new byte[2];
+            crcEngine.init(new byte[]{(byte) (init >> 8), (byte) init}, (short) 0, (short) 2);
+            crcEngine.update(msg, (short) 0, (short) split);
+            crcEngine.doFinal(msg, (short) split, (short) (length - split), crc, (short) 0);
+
+            short expected = (short) ~bitwise(bitwise(init, msg, 0, split), msg, split, length - split);
+            assertEquals("length " + length, expected, (short) (((crc[0] & 0xFF) << 8) | (crc[1] & 0xFF)));
+        }
+    }
+
+    private static short bitwise(short fcs, byte[] inBuf, int inOff, int inLen) {
+        for (int i = inOff; i < inOff + inLen; i++) {
+            short d = (short) (inBuf[i] << 8);
+            for (int k = 0; k < 8; k++) {
+                if (((fcs ^ d) & 0x8000) != 0) {
+                    fcs = (short) ((fcs << 1) ^ 0x1021);
+                } else {
+                    fcs <<= 1;
+                }
+                d <<= 1;
+            }
+        }
+        return fcs;
+    }
 }
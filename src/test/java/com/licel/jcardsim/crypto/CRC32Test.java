@@ -19,6 +19,7 @@ import javacard.security.Checksum;
 import junit.framework.TestCase;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
+import java.util.Random;
 import java.util.zip.CRC32;
 
 /**
@@ -56,4 +57,47 @@ public class CRC32Test extends TestCase {
         crcEngine.doFinal(msg, (short) 0, (short) msg.length, crc, (short) 0);
         assertEquals(true, Arrays.areEqual(Hex.decode(CRC), crc));
     }
+
+    /**
+     * Test the table driven implementation against the bitwise algorithm
+     */
+    public void testMatchesBitwiseAlgorithm() {
+        System.out.println("test crc32 bitwise");
+        Checksum crcEngine = Checksum.getInstance(Checksum.ALG_ISO3309_CRC32, false);
+        Random random = new Random(32);
+        byte[] msg = new byte[300];
+        random.nextBytes(msg);
+        for (int length = 0; length < msg.length; length += 1 + length / 8) {
+            int init = random.nextInt();
+            int split = random.nextInt(length + 1);
+            byte[] crc = new byte[4];
+            crcEngine.init(toBytes(init), (short) 0, (short) 4);
+            crcEngine.update(msg, (short) 0, (short) split);
+            crcEngine.doFinal(msg, (short) split, (short) (length - split), crc, (short) 0);
+
+            // the state is stored reflected after every update
+            int state = Integer.reverse(bitwise(init, msg, 0, split));
+            int expected = ~Integer.reverse(bitwise(state, msg, split, length - split));
+            assertTrue("length " + length, Arrays.areEqual(toBytes(expected), crc));
+        }
+    }
+
+    private static int bitwise(int fcs, byte[] inBuf, int inOff, int inLen) {
+        for (int i = inOff; i < inOff + inLen; i++) {
+            int d = Integer.reverse(inBuf[i] & 0xFF);
+            for (int k = 0; k < 8; k++) {
+                if (((fcs ^ d) & 0x80000000) != 0) {
+                    fcs = (fcs << 1) ^ 0x04C11DB7;
+                } else {
+                    fcs <<= 1;
+                }
+                d <<= 1;
+            }
+        }
+        return fcs;
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
 }
@@ -15,9 +15,13 @@
  */
 package com.licel.jcardsim.crypto;
 
+import com.licel.jcardsim.base.Simulator;
+import java.math.BigInteger;
 import java.security.SecureRandom;
+import javacard.framework.JCSystem;
 import javacard.security.KeyBuilder;
 import junit.framework.TestCase;
+import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.math.ec.ECCurve;
 
@@ -61,4 +65,53 @@ public class ECKeyImplTest extends TestCase {
         assertEquals(result.getDomainParameters().getCurve()instanceof ECCurve.Fp, true);
     }
 
+    /**
+     * Test of getDomainParameters method, of class ECKeyImpl.
+     */
+    public void testDomainParametersAreShared() {
+        System.out.println("getDomainParameters");
+        ECKeyImpl named = new ECPublicKeyImpl(KeyBuilder.TYPE_EC_FP_PUBLIC, KeyBuilder.LENGTH_EC_FP_256);
+        ECDomainParameters parameters = named.getDomainParameters();
+        assertSame(parameters, named.getDomainParameters());
+
+        // explicit fields of the same curve
+        byte[] buffer = new byte[128];
+        ECKeyImpl explicit = new ECPrivateKeyImpl(KeyBuilder.TYPE_EC_FP_PRIVATE, KeyBuilder.LENGTH_EC_FP_256);
+        explicit.setFieldFP(buffer, (short) 0, named.getField(buffer, (short) 0));
+        explicit.setA(buffer, (short) 0, named.getA(buffer, (short) 0));
+        explicit.setB(buffer, (short) 0, named.getB(buffer, (short) 0));
+        explicit.setG(buffer, (short) 0, named.getG(buffer, (short) 0));
+        explicit.setR(buffer, (short) 0, named.getR(buffer, (short) 0));
+        explicit.setK(named.getK());
+        assertSame(parameters, explicit.getDomainParameters());
+
+        // a changed field invalidates the cached parameters
+        short len = named.getR(buffer, (short) 0);
+        buffer[len - 1] ^= 2;
+        explicit.setR(buffer, (short) 0, len);
+        ECDomainParameters changed = explicit.getDomainParameters();
+        assertNotSame(parameters, changed);
+        assertEquals(parameters.getN().xor(BigInteger.valueOf(2)), changed.getN());
+    }
+
+    /**
+     * Test of getDomainParameters method, of class ECKeyImpl, after an aborted transaction.
+     */
+    public void testDomainParametersAfterAbortedTransaction() {
+        System.out.println("getDomainParametersAfterAbortedTransaction");
+        new Simulator();
+        ECKeyImpl key = new ECPublicKeyImpl(KeyBuilder.TYPE_EC_FP_PUBLIC, KeyBuilder.LENGTH_EC_FP_256);
+        ECDomainParameters parameters = key.getDomainParameters();
+
+        byte[] buffer = new byte[128];
+        short len = key.getR(buffer, (short) 0);
+        buffer[len - 1] ^= 2;
+        JCSystem.beginTransaction();
+        key.setR(buffer, (short) 0, len);
+        assertEquals(parameters.getN().xor(BigInteger.valueOf(2)), key.getDomainParameters().getN());
+        JCSystem.abortTransaction();
+
+        // the order is rolled back without a setter call
+        assertSame(parameters, key.getDomainParameters());
+    }
 }
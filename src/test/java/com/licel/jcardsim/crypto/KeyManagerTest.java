@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import com.licel.jcardsim.base.SimulatorRuntime;
+import javacard.security.CryptoException;
+import javacard.security.Key;
+import javacard.security.KeyBuilder;
+import junit.framework.TestCase;
+
+public class KeyManagerTest extends TestCase {
+
+    public KeyManagerTest(String name) {
+        super(name);
+    }
+
+    public void testKeyIdsDoNotCollide() {
+        System.out.println("testKeyIdsDoNotCollide");
+        KeyManager keyManager = new KeyManager();
+        // both had id 4 before
+        Key rsa1024 = keyManager.getOrCreate(KeyManager.keyId(KeyBuilder.TYPE_RSA_PUBLIC, KeyBuilder.LENGTH_RSA_1024),
+                KeyBuilder.TYPE_RSA_PUBLIC, KeyBuilder.LENGTH_RSA_1024, false);
+        Key rsa2048 = keyManager.getOrCreate(KeyManager.keyId(KeyBuilder.TYPE_RSA_PUBLIC, KeyBuilder.LENGTH_RSA_2048),
+                KeyBuilder.TYPE_RSA_PUBLIC, KeyBuilder.LENGTH_RSA_2048, false);
+        assertEquals(KeyBuilder.LENGTH_RSA_1024, rsa1024.getSize());
+        assertEquals(KeyBuilder.LENGTH_RSA_2048, rsa2048.getSize());
+        assertEquals(2, keyManager.size());
+
+        try {
+            keyManager.getOrCreate(KeyManager.keyId(KeyBuilder.TYPE_RSA_PUBLIC, KeyBuilder.LENGTH_RSA_1024),
+                    KeyBuilder.TYPE_RSA_PUBLIC, KeyBuilder.LENGTH_RSA_2048, false);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.ILLEGAL_VALUE, e.getReason());
+        }
+    }
+
+    public void testVersionsAndStatistics() {
+        System.out.println("testVersionsAndStatistics");
+        KeyManager keyManager = new KeyManager();
+        int id = 0x12345678;
+        assertNull(keyManager.get(id));
+        Key key = keyManager.getOrCreate(id, KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        assertSame(key, keyManager.getOrCreate(id, KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false));
+        assertEquals(1, keyManager.get(id).getVersion());
+        assertEquals(1, keyManager.getHitCount());
+        assertEquals(1, keyManager.getMissCount());
+        assertEquals(1, keyManager.getCreatedCount());
+
+        KeyManager.Entry entry = keyManager.replace(id, KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        assertEquals(2, entry.getVersion());
+        assertNotSame(key, entry.getKey());
+        assertSame(entry, keyManager.get(id));
+        assertEquals(2, keyManager.getCreatedCount());
+        assertTrue(keyManager.getCreationTimeNanos() >= 0);
+
+        assertTrue(keyManager.remove(id));
+        assertFalse(keyManager.remove(id));
+    }
+
+    public void testStorePerRuntime() {
+        System.out.println("testStorePerRuntime");
+        SimulatorRuntime first = new SimulatorRuntime();
+        SimulatorRuntime second = new SimulatorRuntime();
+
+        first.resetRuntime();
+        Key key = KeyManager.getKey(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_2KEY, false);
+        assertSame(key, KeyManager.getKey(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_2KEY, false));
+        assertEquals(1, first.getKeyManager().size());
+
+        second.resetRuntime();
+        assertNotSame(key, KeyManager.getKey(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_2KEY, false));
+        KeyManager.updateKey(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_2KEY, false);
+        assertEquals(2, second.getKeyManager().get(
+                KeyManager.keyId(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_2KEY)).getVersion());
+        KeyManager.deleteKey(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_2KEY);
+        assertEquals(0, second.getKeyManager().size());
+
+        first.resetRuntime();
+        assertEquals(0, first.getKeyManager().size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.KeyBuilder;
+import javacard.security.KeyPair;
+import javacard.security.RSAPublicKey;
+import javacard.security.Signature;
+import junit.framework.TestCase;
+
+/**
+ * Test for <code>KeyPairPool</code>
+ */
+public class KeyPairPoolTest extends TestCase {
+    private static final short LENGTH = KeyBuilder.LENGTH_RSA_512;
+
+    private KeyPairPool pool;
+
+    public KeyPairPoolTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        pool = new KeyPairPool(2, 1);
+        KeyPairPool.setShared(pool);
+    }
+
+    protected void tearDown() throws Exception {
+        KeyPairPool.setShared(null);
+        pool.close();
+        super.tearDown();
+    }
+
+    public void testPooledKeyPair() throws InterruptedException {
+        System.out.println("testPooledKeyPair");
+        pool.prefill(KeyPair.ALG_RSA_CRT, LENGTH);
+        awaitFull(KeyPair.ALG_RSA_CRT);
+
+        KeyPair keyPair = new KeyPair(KeyPair.ALG_RSA_CRT, LENGTH);
+        keyPair.genKeyPair();
+        assertTrue(pool.available(KeyPair.ALG_RSA_CRT, LENGTH) < 2);
+        assertSignatureValid(keyPair);
+
+        // the pool refills itself, RSA and RSA CRT share key pairs
+        awaitFull(KeyPair.ALG_RSA);
+        keyPair = new KeyPair(KeyPair.ALG_RSA, LENGTH);
+        keyPair.genKeyPair();
+        assertTrue(pool.available(KeyPair.ALG_RSA, LENGTH) < 2);
+        assertSignatureValid(keyPair);
+    }
+
+    public void testCustomExponentIsNotPooled() throws InterruptedException {
+        System.out.println("testCustomExponentIsNotPooled");
+        pool.prefill(KeyPair.ALG_RSA, LENGTH);
+        awaitFull(KeyPair.ALG_RSA);
+
+        KeyPair keyPair = new KeyPair(KeyPair.ALG_RSA, LENGTH);
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        publicKey.setExponent(new byte[]{3}, (short) 0, (short) 1);
+        keyPair.genKeyPair();
+        assertEquals(2, pool.available(KeyPair.ALG_RSA, LENGTH));
+        byte[] exponent = new byte[4];
+        assertEquals(1, publicKey.getExponent(exponent, (short) 0));
+        assertEquals(3, exponent[0]);
+        assertSignatureValid(keyPair);
+    }
+
+    public void testEmptyPoolFallsBack() {
+        System.out.println("testEmptyPoolFallsBack");
+        KeyPair keyPair = new KeyPair(KeyPair.ALG_DSA, KeyBuilder.LENGTH_DSA_512);
+        keyPair.genKeyPair();
+        assertTrue(keyPair.getPrivate().isInitialized());
+        assertTrue(keyPair.getPublic().isInitialized());
+    }
+
+    private void awaitFull(byte algorithm) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (pool.available(algorithm, LENGTH) < pool.getDepth()) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertSignatureValid(KeyPair keyPair) {
+        byte[] msg = new byte[]{1, 2, 3};
+        byte[] sig = new byte[LENGTH / 8];
+        Signature signature = Signature.getInstance(Signature.ALG_RSA_SHA_PKCS1, false);
+        signature.init(keyPair.getPrivate(), Signature.MODE_SIGN);
+        short sigLength = signature.sign(msg, (short) 0, (short) msg.length, sig, (short) 0);
+        signature.init(keyPair.getPublic(), Signature.MODE_VERIFY);
+        assertTrue(signature.verify(msg, (short) 0, (short) msg.length, sig, (short) 0, sigLength));
+    }
+}
@@ -387,4 +387,68 @@ public class MessageDigestImplTest extends TestCase {
 
     }
 
+    /**
+     * Test of saveState, restoreState and fork methods, of class MessageDigestImpl.
+     */
+    public void testSaveRestoreState() {
+        byte[] prefix = new byte[300];
+        byte[] suffix = new byte[50];
+        rnd.nextBytes(prefix);
+        rnd.nextBytes(suffix);
+        byte[] message = Arrays.concatenate(prefix, suffix);
+        byte[] algorithms = new byte[]{MessageDigest.ALG_SHA, MessageDigest.ALG_MD5, MessageDigest.ALG_RIPEMD160,
+                MessageDigest.ALG_SHA_224, MessageDigest.ALG_SHA_256, MessageDigest.ALG_SHA_384, MessageDigest.ALG_SHA_512,
+                MessageDigest.ALG_SHA3_224, MessageDigest.ALG_SHA3_256, MessageDigest.ALG_SHA3_384, MessageDigest.ALG_SHA3_512};
+
+        for (short i = 0; i < algorithms.length; i++) {
+            System.out.println("testSaveRestoreState() - " + algorithms[i]);
+            MessageDigestImpl md = new MessageDigestImpl(algorithms[i]);
+            byte[] etalonDigest = new byte[md.getLength()];
+            byte[] digest = new byte[md.getLength()];
+            md.doFinal(message, (short) 0, (short) message.length, etalonDigest, (short) 0);
+
+            md.update(prefix, (short) 0, (short) prefix.length);
+            MessageDigestImpl.State state = md.saveState();
+            MessageDigestImpl forked = md.fork();
+            for (int round = 0; round < 2; round++) {
+                md.doFinal(suffix, (short) 0, (short) suffix.length, digest, (short) 0);
+                assertEquals(true, Arrays.areEqual(etalonDigest, digest));
+                md.update(suffix, (short) 0, (short) 1);
+                md.restoreState(state);
+            }
+            forked.doFinal(suffix, (short) 0, (short) suffix.length, digest, (short) 0);
+            assertEquals(true, Arrays.areEqual(etalonDigest, digest));
+        }
+    }
+
+    /**
+     * Test of setInitialDigest method, of class MessageDigestImpl, called twice with the same prefix.
+     */
+    public void testSetInitialDigestTwice() {
+        System.out.println("testSetInitialDigestTwice");
+        byte[] inputData = new byte[200];
+        rnd.nextBytes(inputData);
+        MessageDigestImpl md = new MessageDigestImpl(MessageDigest.ALG_SHA_256);
+        byte[] etalonDigest = new byte[md.getLength()];
+        byte[] digest = new byte[md.getLength()];
+        md.doFinal(inputData, (short) 0, (short) inputData.length, etalonDigest, (short) 0);
+        md.update(inputData, (short) 0, (short) 64);
+        byte[] initialDigest = new byte[32];
+        md.getIntermediateDigest(initialDigest, 0);
+        byte[] length = new byte[]{0, 64};
+
+        InitializedMessageDigest mdInstance = MessageDigest.getInitializedMessageDigestInstance(MessageDigest.ALG_SHA_256, false);
+        for (int round = 0; round < 2; round++) {
+            mdInstance.update(inputData, (short) 0, (short) 3);
+            mdInstance.setInitialDigest(initialDigest, (short) 0, (short) initialDigest.length, length, (short) 0, (short) length.length);
+            mdInstance.doFinal(inputData, (short) 64, (short) (inputData.length - 64), digest, (short) 0);
+            assertEquals(true, Arrays.areEqual(etalonDigest, digest));
+        }
+        // a different prefix is not served from the saved state
+        initialDigest[0] ^= 1;
+        mdInstance.setInitialDigest(initialDigest, (short) 0, (short) initialDigest.length, length, (short) 0, (short) length.length);
+        mdInstance.doFinal(inputData, (short) 64, (short) (inputData.length - 64), digest, (short) 0);
+        assertEquals(false, Arrays.areEqual(etalonDigest, digest));
+    }
+
 }
\ No newline at end of file
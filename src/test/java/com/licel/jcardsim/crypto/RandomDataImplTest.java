@@ -15,11 +15,17 @@
  */
 package com.licel.jcardsim.crypto;
 
+import com.licel.jcardsim.base.EntropySource;
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorPool;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.base.TransientMemory;
 import javacard.framework.Util;
 import javacard.security.RandomData;
 import junit.framework.TestCase;
 
 import java.util.Arrays;
+import java.util.function.Function;
 
 /**
  * Test for <code>RandomDataImpl</code>
@@ -119,4 +125,81 @@ public class RandomDataImplTest extends TestCase {
         instance.setSeed(buffer, (short) 0, (short) buffer.length);
         instance.generateData(buffer, (short) 0, (short) buffer.length);
     }
+
+    /**
+     * Test of the deterministic mode of <code>EntropySource</code>
+     */
+    public void testConfiguredSeedIsReproducible() {
+        System.out.println("configuredSeedIsReproducible");
+        SimulatorRuntime runtime0;
+        SimulatorRuntime runtime1;
+        System.setProperty(EntropySource.SEED_PROPERTY, "jcardsim");
+        try {
+            runtime0 = new SimulatorRuntime();
+            runtime1 = new SimulatorRuntime();
+        } finally {
+            System.clearProperty(EntropySource.SEED_PROPERTY);
+        }
+        assertTrue(runtime0.getEntropySource().isDeterministic());
+
+        new Simulator(runtime0);
+        byte[] expected = generate();
+        new Simulator(runtime1);
+        assertTrue(Arrays.equals(expected, generate()));
+
+        // a reset starts over
+        runtime1.resetRuntime();
+        assertTrue(Arrays.equals(expected, generate()));
+
+        // without a seed every runtime is different
+        SimulatorRuntime runtime2 = new SimulatorRuntime();
+        assertFalse(runtime2.getEntropySource().isDeterministic());
+        new Simulator(runtime2);
+        assertFalse(Arrays.equals(expected, generate()));
+    }
+
+    /**
+     * Test of per-runtime <code>EntropySource</code> instances
+     */
+    public void testEntropySourcePerRuntime() throws Exception {
+        System.out.println("entropySourcePerRuntime");
+        SimulatorRuntime runtime0 = new SimulatorRuntime(new TransientMemory(), EntropySource.deterministic(new byte[]{1}));
+        SimulatorRuntime runtime1 = new SimulatorRuntime(new TransientMemory(), EntropySource.deterministic(new byte[]{1}));
+        new Simulator(runtime0);
+        byte[] expected = generate();
+        new Simulator(runtime1);
+        assertTrue(Arrays.equals(expected, generate()));
+
+        // every card of a pool has its own reproducible stream
+        byte[][] streams = generateOnPool();
+        assertFalse(Arrays.equals(streams[0], streams[1]));
+        assertTrue(Arrays.equals(streams[1], generateOnPool()[1]));
+    }
+
+    private static byte[][] generateOnPool() throws Exception {
+        SimulatorPool pool;
+        System.setProperty(EntropySource.SEED_PROPERTY, "jcardsim");
+        try {
+            pool = new SimulatorPool(2, 1);
+        } finally {
+            System.clearProperty(EntropySource.SEED_PROPERTY);
+        }
+        try {
+            Function<Simulator, byte[]> task = new Function<Simulator, byte[]>() {
+                public byte[] apply(Simulator simulator) {
+                    return generate();
+                }
+            };
+            return new byte[][]{pool.submit(0, task).get(), pool.submit(1, task).get()};
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static byte[] generate() {
+        byte[] buffer = new byte[48];
+        RandomData.getInstance(RandomData.ALG_PSEUDO_RANDOM).nextBytes(buffer, (short) 0, (short) 16);
+        RandomData.getInstance(RandomData.ALG_KEYGENERATION).nextBytes(buffer, (short) 16, (short) 32);
+        return buffer;
+    }
 }
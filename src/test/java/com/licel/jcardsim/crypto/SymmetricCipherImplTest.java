@@ -671,5 +671,83 @@ public class SymmetricCipherImplTest extends TestCase {
         assertEquals(true,Arrays.areEqual(decrypted, msg));
     }
 
+    /**
+     * Test that re-initialization of a cipher instance uses the current key and IV
+     */
+    public void testReinitUsesCurrentKeyAndIV() {
+        Simulator simulator = new Simulator();
+        AESKey key = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        Cipher cipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        byte[] msg = Hex.decode("00112233445566778899AABBCCDDEEFF");
+        byte[] iv1 = new byte[16];
+        byte[] iv2 = Hex.decode("0102030405060708090A0B0C0D0E0F10");
+
+        key.setKey(Hex.decode("000102030405060708090A0B0C0D0E0F"), (short) 0);
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv2, msg);
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv1, msg);
+        assertReinit(cipher, key, Cipher.MODE_DECRYPT, iv2, msg);
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, null, msg);
+
+        key.setKey(Hex.decode("F0E0D0C0B0A090807060504030201000"), (short) 0);
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv2, msg);
+        assertReinit(cipher, key, Cipher.MODE_DECRYPT, iv2, msg);
+
+        // clear event zeroes the key data without setKey
+        simulator.reset();
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv2, msg);
+        assertReinit(cipher, key, Cipher.MODE_DECRYPT, iv2, msg);
+
+        Cipher ecb = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_ECB_NOPAD, false);
+        assertReinit(ecb, key, Cipher.MODE_ENCRYPT, null, msg);
+        assertReinit(ecb, key, Cipher.MODE_ENCRYPT, null, msg);
+        try {
+            ecb.init(key, Cipher.MODE_ENCRYPT, iv2, (short) 0, (short) iv2.length);
+            fail("No exception");
+        } catch (IllegalArgumentException e) {
+            // AESEngine does not accept an IV
+        }
+    }
+
+    public void testReinitAfterAbortedSetKey() {
+        new Simulator();
+        AESKey key = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        Cipher cipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        byte[] msg = Hex.decode("00112233445566778899AABBCCDDEEFF");
+        byte[] iv = new byte[16];
+        byte[] keyData = Hex.decode("000102030405060708090A0B0C0D0E0F");
+
+        key.setKey(keyData, (short) 0);
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv, msg);
+
+        JCSystem.beginTransaction();
+        key.setKey(Hex.decode("F0E0D0C0B0A090807060504030201000"), (short) 0);
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv, msg);
+        JCSystem.abortTransaction();
+
+        // the key data is rolled back, the version is not
+        byte[] restored = new byte[16];
+        key.getKey(restored, (short) 0);
+        assertEquals(Hex.toHexString(keyData), Hex.toHexString(restored));
+        assertReinit(cipher, key, Cipher.MODE_ENCRYPT, iv, msg);
+        assertReinit(cipher, key, Cipher.MODE_DECRYPT, iv, msg);
+    }
+
+    private void assertReinit(Cipher cipher, Key key, byte mode, byte[] iv, byte[] msg) {
+        Cipher fresh = Cipher.getInstance(cipher.getAlgorithm(), false);
+        if (iv == null) {
+            cipher.init(key, mode);
+            fresh.init(key, mode);
+        } else {
+            cipher.init(key, mode, iv, (short) 0, (short) iv.length);
+            fresh.init(key, mode, iv, (short) 0, (short) iv.length);
+        }
+        byte[] expected = new byte[msg.length];
+        fresh.doFinal(msg, (short) 0, (short) msg.length, expected, (short) 0);
+        for (int i = 0; i < 2; i++) {
+            byte[] actual = new byte[msg.length];
+            cipher.doFinal(msg, (short) 0, (short) msg.length, actual, (short) 0);
+            assertEquals(Hex.toHexString(expected), Hex.toHexString(actual));
+        }
+    }
 
 }
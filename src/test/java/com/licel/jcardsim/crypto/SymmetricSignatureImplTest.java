@@ -15,6 +15,10 @@
  */
 package com.licel.jcardsim.crypto;
 
+import com.licel.jcardsim.base.Simulator;
+import javacard.framework.JCSystem;
+import javacard.security.AESKey;
+import javacard.security.CryptoException;
 import javacard.security.HMACKey;
 import javacard.security.Key;
 import javacard.security.KeyBuilder;
@@ -362,6 +366,96 @@ public class SymmetricSignatureImplTest extends TestCase {
         }
     }
 
+    /**
+     * Test of init method, of class SymmetricSignatureImpl, re-initialized with
+     * the same key object before and after the key is changed
+     */
+    public void testReinit() {
+        byte[] hmacKeyBytes = Hex.decode(HMAC_TESTS[0][0]);
+        byte[] hmacMsg = Hex.decode(HMAC_TESTS[0][1]);
+        HMACKey hmacKey = (HMACKey) KeyBuilder.buildKey(KeyBuilder.TYPE_HMAC, (short) hmacKeyBytes.length, false);
+        hmacKey.setKey(hmacKeyBytes, (short) 0, (short) hmacKeyBytes.length);
+        Signature hmac = Signature.getInstance(HMAC_IDS[0], false);
+        hmac.init(hmacKey, Signature.MODE_SIGN);
+        hmac.update(hmacMsg, (short) 0, (short) 1);
+        // init discards the pending data
+        testEngineSignVerify(hmac, hmacKey, null, hmacMsg, Hex.decode(HMAC_TESTS[0][2]));
+
+        hmacKeyBytes[0] ^= 1;
+        hmacKey.setKey(hmacKeyBytes, (short) 0, (short) hmacKeyBytes.length);
+        byte[] expected = new byte[hmac.getLength()];
+        Signature fresh = Signature.getInstance(HMAC_IDS[0], false);
+        fresh.init(hmacKey, Signature.MODE_SIGN);
+        fresh.sign(hmacMsg, (short) 0, (short) hmacMsg.length, expected, (short) 0);
+        testEngineSignVerify(hmac, hmacKey, null, hmacMsg, expected);
+
+        SymmetricKeyImpl aesKey = new SymmetricKeyImpl(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128);
+        aesKey.setKey(Hex.decode(AES_128_KEY), (short) 0);
+        byte[] aesMsg = Hex.decode(MESSAGE_16);
+        byte[] iv = new byte[16];
+        iv[0] = 1;
+        Signature aesMac = Signature.getInstance(Signature.ALG_AES_MAC_128_NOPAD, false);
+        expected = new byte[16];
+        fresh = Signature.getInstance(Signature.ALG_AES_MAC_128_NOPAD, false);
+        fresh.init(aesKey, Signature.MODE_SIGN, iv, (short) 0, (short) iv.length);
+        fresh.sign(aesMsg, (short) 0, (short) aesMsg.length, expected, (short) 0);
+        testEngineSignVerify(aesMac, aesKey, null, aesMsg, Hex.decode(AES_CBC_MAC));
+        testEngineSignVerify(aesMac, aesKey, iv, aesMsg, expected);
+        testEngineSignVerify(aesMac, aesKey, null, aesMsg, Hex.decode(AES_CBC_MAC));
+        try {
+            aesMac.init(aesKey, Signature.MODE_SIGN, iv, (short) 0, (short) 8);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.ILLEGAL_VALUE, e.getReason());
+        }
+
+        // a cleared transient key must not be used
+        AESKey transientKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        transientKey.setKey(Hex.decode(AES_128_KEY), (short) 0);
+        testEngineSignVerify(aesMac, transientKey, null, aesMsg, Hex.decode(AES_CBC_MAC));
+        transientKey.clearKey();
+        try {
+            aesMac.init(transientKey, Signature.MODE_SIGN);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.UNINITIALIZED_KEY, e.getReason());
+        }
+    }
+
+    /**
+     * Test of init method, of class SymmetricSignatureImpl, re-initialized after
+     * a transaction which changed the key was aborted
+     */
+    public void testReinitAfterAbortedSetKey() {
+        new Simulator();
+        byte[] hmacKeyBytes = Hex.decode(HMAC_TESTS[0][0]);
+        byte[] hmacMsg = Hex.decode(HMAC_TESTS[0][1]);
+        HMACKey hmacKey = (HMACKey) KeyBuilder.buildKey(KeyBuilder.TYPE_HMAC, (short) hmacKeyBytes.length, false);
+        hmacKey.setKey(hmacKeyBytes, (short) 0, (short) hmacKeyBytes.length);
+        Signature hmac = Signature.getInstance(HMAC_IDS[0], false);
+        testEngineSignVerify(hmac, hmacKey, null, hmacMsg, Hex.decode(HMAC_TESTS[0][2]));
+
+        byte[] otherKeyBytes = hmacKeyBytes.clone();
+        otherKeyBytes[0] ^= 1;
+        JCSystem.beginTransaction();
+        hmacKey.setKey(otherKeyBytes, (short) 0, (short) otherKeyBytes.length);
+        hmac.init(hmacKey, Signature.MODE_SIGN);
+        JCSystem.abortTransaction();
+        testEngineSignVerify(hmac, hmacKey, null, hmacMsg, Hex.decode(HMAC_TESTS[0][2]));
+
+        SymmetricKeyImpl aesKey = new SymmetricKeyImpl(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128);
+        aesKey.setKey(Hex.decode(AES_128_KEY), (short) 0);
+        byte[] aesMsg = Hex.decode(MESSAGE_16);
+        Signature aesMac = Signature.getInstance(Signature.ALG_AES_MAC_128_NOPAD, false);
+        testEngineSignVerify(aesMac, aesKey, null, aesMsg, Hex.decode(AES_CBC_MAC));
+
+        JCSystem.beginTransaction();
+        aesKey.setKey(Hex.decode("F0E0D0C0B0A090807060504030201000"), (short) 0);
+        aesMac.init(aesKey, Signature.MODE_SIGN);
+        JCSystem.abortTransaction();
+        testEngineSignVerify(aesMac, aesKey, null, aesMsg, Hex.decode(AES_CBC_MAC));
+    }
+
     /**
      * Test of sign/verify methods, of class SymmetricSignatureImpl with specified key
      * and etalon data
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import junit.framework.TestCase;
+import org.bouncycastle.util.encoders.Hex;
+
+public class FrameChannelTest extends TestCase {
+
+    public FrameChannelTest(String name) {
+        super(name);
+    }
+
+    public void testShortHeader() throws IOException {
+        System.out.println("testShortHeader");
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        FrameChannel channel = new FrameChannel("127.0.0.1", server.getLocalPort(), 2, ByteOrder.BIG_ENDIAN);
+        Socket peer = server.accept();
+        try {
+            OutputStream out = peer.getOutputStream();
+            out.write(Hex.decode("0001040004" + "00a40400" + "8000"));
+            assertEquals(1, channel.readHeader());
+            assertEquals(4, channel.read(1).get());
+            assertEquals(4, channel.readHeader());
+            ByteBuffer apdu = channel.read(4);
+            assertEquals("00a40400", Hex.toHexString(apdu.array(), apdu.position(), apdu.remaining()));
+            // larger than the read buffer
+            assertEquals(0x8000, channel.readHeader());
+            out.write(new byte[0x8000]);
+            assertEquals(0x8000, channel.read(0x8000).remaining());
+
+            ByteBuffer response = ByteBuffer.allocate(8);
+            response.put(Hex.decode("019000"));
+            response.flip();
+            channel.write(response);
+            assertFalse(response.hasRemaining());
+            byte[] frame = new byte[5];
+            new DataInputStream(peer.getInputStream()).readFully(frame);
+            assertEquals("0003019000", Hex.toHexString(frame));
+        } finally {
+            channel.close();
+            peer.close();
+            server.close();
+        }
+        assertTrue(channel.isClosed());
+    }
+
+    public void testIntHeader() throws IOException {
+        System.out.println("testIntHeader");
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        FrameChannel channel = new FrameChannel("127.0.0.1", server.getLocalPort(), 4, ByteOrder.LITTLE_ENDIAN);
+        Socket peer = server.accept();
+        try {
+            peer.getOutputStream().write(Hex.decode("02000000" + "0200000001029000"));
+            assertEquals(2, channel.readHeader());
+            assertEquals(2, channel.readHeader());
+            channel.writeHeader(1);
+            channel.write(ByteBuffer.wrap(Hex.decode("9000")));
+            byte[] frame = new byte[10];
+            new DataInputStream(peer.getInputStream()).readFully(frame);
+            assertEquals("01000000" + "020000009000", Hex.toHexString(frame));
+
+            peer.close();
+            channel.read(2);
+            try {
+                channel.readHeader();
+                fail("No exception");
+            } catch (IOException e) {
+                // closed by peer
+            }
+        } finally {
+            channel.close();
+            peer.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import javacard.framework.AID;
+import javacard.framework.SystemException;
+import junit.framework.TestCase;
+import org.bouncycastle.util.Arrays;
+
+public class JavaCardBinaryServerTest extends TestCase {
+    private static final String TEST_APPLET_AID = "010203040506070809";
+
+    private final AID aid = AIDUtil.create(TEST_APPLET_AID);
+    private List<Simulator> cards;
+    private JavaCardBinaryServer server;
+
+    public JavaCardBinaryServerTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cards = new ArrayList<Simulator>();
+        for (int i = 0; i < 2; i++) {
+            Simulator simulator = new Simulator(new SimulatorRuntime());
+            simulator.installApplet(aid, HelloWorldApplet.class);
+            cards.add(simulator);
+        }
+        server = new JavaCardBinaryServer("127.0.0.1", 0, cards);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        super.tearDown();
+    }
+
+    private JavaCardBinaryClient connect(int card) throws IOException {
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        return new JavaCardBinaryClient("127.0.0.1", port, card);
+    }
+
+    public void testTransmit() throws IOException {
+        System.out.println("testTransmit");
+        JavaCardBinaryClient client = connect(0);
+        try {
+            assertTrue(Arrays.areEqual(cards.get(0).getATR(), client.getATR()));
+            assertTrue(client.selectApplet(aid));
+            byte[] response = client.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+            assertEquals((byte) 0x90, response[response.length - 2]);
+            assertEquals(0x00, response[response.length - 1]);
+        } finally {
+            client.close();
+        }
+    }
+
+    public void testTransmitBatch() throws IOException {
+        System.out.println("testTransmitBatch");
+        Simulator reference = new Simulator();
+        reference.installApplet(aid, HelloWorldApplet.class);
+        List<byte[]> commands = new ArrayList<byte[]>();
+        commands.add(AIDUtil.select(aid));
+        for (int i = 0; i < 10; i++) {
+            commands.add(new byte[]{0x01, 0x01, 0x00, 0x00});
+        }
+        commands.add(new byte[]{0x01, 0x02, 0x00, 0x00});
+
+        JavaCardBinaryClient client = connect(1);
+        try {
+            List<byte[]> responses = client.transmitBatch(commands);
+            assertEquals(commands.size(), responses.size());
+            for (int i = 0; i < commands.size(); i++) {
+                assertTrue(Arrays.areEqual(reference.transmitCommand(commands.get(i)), responses.get(i)));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    public void testTransmitBatchStopOnError() throws IOException {
+        System.out.println("testTransmitBatchStopOnError");
+        List<byte[]> commands = new ArrayList<byte[]>();
+        commands.add(AIDUtil.select(aid));
+        commands.add(new byte[]{0x01, 0x7F, 0x00, 0x00});
+        commands.add(new byte[]{0x01, 0x01, 0x00, 0x00});
+
+        JavaCardBinaryClient client = connect(0);
+        try {
+            List<byte[]> responses = client.transmitBatch(commands, true);
+            assertEquals(2, responses.size());
+        } finally {
+            client.close();
+        }
+    }
+
+    public void testCardsAreSeparate() throws IOException {
+        System.out.println("testCardsAreSeparate");
+        JavaCardBinaryClient first = connect(0);
+        JavaCardBinaryClient second = connect(1);
+        try {
+            assertTrue(first.selectApplet(aid));
+            byte[] response = first.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+            assertEquals((byte) 0x90, response[response.length - 2]);
+            // no applet is selected on the second card
+            response = second.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+            assertEquals(2, response.length);
+            assertFalse(response[0] == (byte) 0x90 && response[1] == 0x00);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testMalformedRequests() throws IOException {
+        System.out.println("testMalformedRequests");
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            socket.setSoTimeout(10000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[][] requests = {
+                    // command longer than the request
+                    {JavaCardBinaryProtocol.OP_TRANSMIT_BATCH, 0, 0, 0, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF},
+                    // truncated command length
+                    {JavaCardBinaryProtocol.OP_TRANSMIT_BATCH, 0, 0, 0, 0, 0},
+                    {JavaCardBinaryProtocol.OP_LOAD_APPLET, 0, 0},
+                    {JavaCardBinaryProtocol.OP_CHANGE_PROTOCOL, 0, 0, 0},
+                    {JavaCardBinaryProtocol.OP_CREATE_APPLET, 0, 0},
+                    {JavaCardBinaryProtocol.OP_CREATE_APPLET, 0, 0, 9, 1, 2}
+            };
+            for (byte[] request : requests) {
+                out.writeInt(request.length);
+                out.write(request);
+                out.flush();
+                assertEquals(JavaCardBinaryProtocol.STATUS_ERROR, readResponse(in)[0]);
+            }
+            // the connection is still usable
+            out.writeInt(3);
+            out.write(new byte[]{JavaCardBinaryProtocol.OP_GET_ATR, 0, 0});
+            out.flush();
+            byte[] response = readResponse(in);
+            assertEquals(JavaCardBinaryProtocol.STATUS_OK, response[0]);
+            assertTrue(Arrays.areEqual(cards.get(0).getATR(), Arrays.copyOfRange(response, 1, response.length)));
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testRequestTooLong() throws IOException {
+        System.out.println("testRequestTooLong");
+        assertEquals(JavaCardBinaryProtocol.STATUS_ERROR,
+                sendHeader(server, JavaCardBinaryProtocol.MAX_REQUEST_LENGTH + 1, JavaCardBinaryProtocol.OP_TRANSMIT));
+        assertEquals(JavaCardBinaryProtocol.STATUS_ERROR,
+                sendHeader(server, Integer.MAX_VALUE, JavaCardBinaryProtocol.OP_LOAD_APPLET));
+
+        System.setProperty(JavaCardBinaryServer.MAX_REQUEST_LENGTH_PROPERTY, "100000");
+        JavaCardBinaryServer limited;
+        try {
+            limited = new JavaCardBinaryServer("127.0.0.1", 0, cards);
+        } finally {
+            System.clearProperty(JavaCardBinaryServer.MAX_REQUEST_LENGTH_PROPERTY);
+        }
+        try {
+            assertEquals(JavaCardBinaryProtocol.STATUS_ERROR,
+                    sendHeader(limited, 100001, JavaCardBinaryProtocol.OP_TRANSMIT_BATCH));
+        } finally {
+            limited.close();
+        }
+    }
+
+    /**
+     * Send the header of a request and read the response, the server closes the connection
+     */
+    private static byte sendHeader(JavaCardBinaryServer server, int length, byte op) throws IOException {
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            socket.setSoTimeout(10000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(length);
+            out.write(new byte[]{op, 0, 0});
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte status = readResponse(in)[0];
+            assertEquals(-1, in.read());
+            return status;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static byte[] readResponse(DataInputStream in) throws IOException {
+        byte[] response = new byte[in.readInt()];
+        in.readFully(response);
+        return response;
+    }
+
+    public void testPortInUse() throws IOException {
+        System.out.println("testPortInUse");
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        try {
+            new JavaCardBinaryServer("127.0.0.1", port, cards).close();
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected, the channel is closed again
+        }
+    }
+
+    public void testUnknownCard() throws IOException {
+        System.out.println("testUnknownCard");
+        JavaCardBinaryClient client = connect(5);
+        try {
+            client.getATR();
+            fail("SystemException expected");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_RESOURCE, e.getReason());
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.bouncycastle.util.Arrays;
 
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public class JavaCardRemoteServerTest extends TestCase {
     private static final String TEST_APPLET_AID = "010203040506070809";
@@ -33,6 +34,11 @@ public class JavaCardRemoteServerTest extends TestCase {
         // test NOP
         byte[] response = client.transmitCommand(new byte[]{0x01, 0x02, 0x00, 0x00});
         assertEquals(Arrays.areEqual(new byte[]{(byte) 0x90, 0x00}, response), true);
+        // test batch
+        List<byte[]> responses = client.transmitBatch(java.util.Arrays.asList(
+                new byte[]{0x01, 0x02, 0x00, 0x00}, new byte[]{0x01, 0x02, 0x00, 0x00}));
+        assertEquals(2, responses.size());
+        assertEquals(Arrays.areEqual(new byte[]{(byte) 0x90, 0x00}, responses.get(1)), true);
         System.out.println("testServer ... done");
     }
 
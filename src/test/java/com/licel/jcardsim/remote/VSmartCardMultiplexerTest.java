@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Licel Corporation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorPool;
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import javacard.framework.AID;
+import junit.framework.TestCase;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+
+public class VSmartCardMultiplexerTest extends TestCase {
+    private static final String TEST_APPLET_AID = "010203040506070809";
+
+    public VSmartCardMultiplexerTest(String name) {
+        super(name);
+    }
+
+    public void testPipelinedCommands() throws IOException {
+        System.out.println("testPipelinedCommands");
+        int cardCount = 3;
+        AID aid = AIDUtil.create(TEST_APPLET_AID);
+        SimulatorPool pool = new SimulatorPool(cardCount, 2);
+        for (Simulator simulator : pool.getSimulators()) {
+            simulator.installApplet(aid, HelloWorldApplet.class);
+        }
+        ServerSocket[] readers = new ServerSocket[cardCount];
+        Socket[] sockets = new Socket[cardCount];
+        VSmartCardMultiplexer multiplexer = new VSmartCardMultiplexer(pool);
+        try {
+            // vpcd readers
+            for (int i = 0; i < cardCount; i++) {
+                readers[i] = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                multiplexer.connect(i, "127.0.0.1", readers[i].getLocalPort());
+            }
+            for (int i = 0; i < cardCount; i++) {
+                sockets[i] = readers[i].accept();
+                sockets[i].setSoTimeout(10000);
+            }
+
+            byte[] select = AIDUtil.select(aid);
+            byte[] hello = new byte[]{0x01, 0x01, 0x00, 0x00};
+            for (int i = 0; i < cardCount; i++) {
+                ByteArrayOutputStream frames = new ByteArrayOutputStream();
+                frame(frames, new byte[]{VSmartCardTCPProtocol.POWER_ON});
+                frame(frames, new byte[]{VSmartCardTCPProtocol.GET_ATR});
+                frame(frames, select);
+                frame(frames, hello);
+                sockets[i].getOutputStream().write(frames.toByteArray());
+            }
+
+            Simulator reference = new Simulator();
+            reference.installApplet(aid, HelloWorldApplet.class);
+            byte[] expectedSelect = reference.transmitCommand(select);
+            byte[] expectedHello = reference.transmitCommand(hello);
+            for (int i = 0; i < cardCount; i++) {
+                DataInputStream in = new DataInputStream(sockets[i].getInputStream());
+                assertTrue(Arrays.areEqual(reference.getATR(), readFrame(in)));
+                assertTrue(Arrays.areEqual(expectedSelect, readFrame(in)));
+                byte[] response = readFrame(in);
+                assertTrue(Arrays.areEqual(expectedHello, response));
+                assertEquals("9000", Hex.toHexString(response, response.length - 2, 2));
+            }
+        } finally {
+            multiplexer.close();
+            pool.close();
+            for (int i = 0; i < cardCount; i++) {
+                if (sockets[i] != null) {
+                    sockets[i].close();
+                }
+                if (readers[i] != null) {
+                    readers[i].close();
+                }
+            }
+        }
+    }
+
+    public void testFailedCommand() throws IOException {
+        System.out.println("testFailedCommand");
+        AID aid = AIDUtil.create(TEST_APPLET_AID);
+        SimulatorPool pool = new SimulatorPool(1, 1);
+        pool.getSimulators().get(0).installApplet(aid, HelloWorldApplet.class);
+        ServerSocket reader = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket socket = null;
+        VSmartCardMultiplexer multiplexer = new VSmartCardMultiplexer(pool);
+        try {
+            multiplexer.connect(0, "127.0.0.1", reader.getLocalPort());
+            socket = reader.accept();
+            socket.setSoTimeout(10000);
+
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            // CREATE APPLET without data fails with an exception
+            frame(frames, new byte[]{(byte) 0x80, (byte) 0xB8, 0x00, 0x00});
+            frame(frames, AIDUtil.select(aid));
+            socket.getOutputStream().write(frames.toByteArray());
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals("6f00", Hex.toHexString(readFrame(in)));
+            byte[] response = readFrame(in);
+            assertEquals("9000", Hex.toHexString(response, response.length - 2, 2));
+        } finally {
+            multiplexer.close();
+            pool.close();
+            if (socket != null) {
+                socket.close();
+            }
+            reader.close();
+        }
+    }
+
+    private static void frame(ByteArrayOutputStream out, byte[] data) {
+        out.write(data.length >> 8);
+        out.write(data.length);
+        out.write(data, 0, data.length);
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readUnsignedShort()];
+        in.readFully(data);
+        return data;
+    }
+}
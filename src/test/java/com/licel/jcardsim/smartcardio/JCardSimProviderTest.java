@@ -17,6 +17,7 @@ package com.licel.jcardsim.smartcardio;
 
 import com.licel.jcardsim.base.SimulatorSystem;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.util.Arrays;
@@ -119,6 +120,13 @@ public class JCardSimProviderTest extends TestCase {
         assertEquals(0x9000, response.getSW());
         assertEquals(0xF, response.getData()[0]);
         assertEquals(0xF, response.getData()[1]);
+        // test echo via ByteBuffer
+        ByteBuffer commandBuffer = ByteBuffer.wrap(new CommandAPDU(0x00, 0x01, 0x01, 0x00, ("Hello javacard world !").getBytes()).getBytes());
+        ByteBuffer responseBuffer = ByteBuffer.allocate(258);
+        int responseLength = jcsChannel.transmit(commandBuffer, responseBuffer);
+        response = new ResponseAPDU(Arrays.copyOf(responseBuffer.array(), responseLength));
+        assertEquals(0x9000, response.getSW());
+        assertEquals("Hello javacard world !", new String(response.getData()));
         // test continued data
         response = jcsChannel.transmit(new CommandAPDU(0x00, 0x06, 0x00, 0x00));
         assertEquals(0x6107, response.getSW());
@@ -16,13 +16,19 @@
 package com.licel.jcardsim.utils;
 
 import com.licel.jcardsim.base.SimulatorSystem;
+import com.licel.jcardsim.samples.HelloWorldApplet;
 import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.text.ParseException;
 import java.util.Properties;
+import javax.smartcardio.CommandAPDU;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
 
 /**
  * Test class APDUScriptTool.
@@ -31,10 +37,47 @@ import java.util.Properties;
 public class APDUScriptToolTest extends TestCase {
 
     private static final String TEST_APPLET_AID = "010203040506070809";
+    private static final String SCRIPT = (
+            "powerup;\n" +
+            "//CREATE APPLET CMD\n" +
+            "0x80 0xb8 0x00 0x00 0x10 0x9 0x01 0x02 0x03 0x04 0x05 0x06 0x07 0x8 0x09 0x05 0x00 0x00 0x02 0xF 0xF 0x7f;\n" +
+            "// SELECT APPLET CMD\n" +
+            "0x00 0xa4 0x04 0x00 0x09 0x01 0x02 0x03 0x04 0x05 0x06 0x07 0x8 0x09 0x7f;\n" +
+            "// TEST NOP\n" +
+            "0x00 0x02 0x00 0x00 0x00 0x2; \n" +
+            "// TEST SW_INS_NOT_SUPPORTED\n" +
+            "0x00 0x05 0x00 0x00 0x00 0x2 ;\n" +
+            "// test hello world from card\n" +
+            "0x00 0x01 0x00 0x00 0x00 0x0d;\n" +
+            "// test echo\n" +
+            "0x00 0x01 0x01 0x00 0x0d 0x48 0x65 0x6c 0x6c 0x6f 0x20 0x77 0x6f 0x72 0x6c 0x64 0x20 0x21 0x0d;\n" +
+            "// test echo2\n" +
+            "0x00 0x03 0x01 0x02 0x05 0x01 0x02 0x03 0x04 0x05 0x7F;" +
+            "powerdown;\n")
+            .replaceAll("\n", System.getProperty("line.separator"));
+
+    private static final String EXPECTED_OUTPUT =
+            "CLA: 80, INS: b8, P1: 00, P2: 00, Lc: 10, 09, 01, 02, 03, 04, 05, 06, 07, 08, 09, 05, 00, 00, 02, 0f, 0f, Le: 09, 01, 02, 03, 04, 05, 06, 07, 08, 09, SW1: 90, SW2: 00\n" +
+            "CLA: 00, INS: a4, P1: 04, P2: 00, Lc: 09, 01, 02, 03, 04, 05, 06, 07, 08, 09, Le: 00, SW1: 90, SW2: 00\n" +
+            "CLA: 00, INS: 02, P1: 00, P2: 00, Lc: 00, Le: 00, SW1: 90, SW2: 00\n" +
+            "CLA: 00, INS: 05, P1: 00, P2: 00, Lc: 00, Le: 00, SW1: 6d, SW2: 00\n" +
+            "CLA: 00, INS: 01, P1: 00, P2: 00, Lc: 00, Le: 0d, 48, 65, 6c, 6c, 6f, 20, 77, 6f, 72, 6c, 64, 20, 21, SW1: 90, SW2: 00\n" +
+            "CLA: 00, INS: 01, P1: 01, P2: 00, Lc: 0d, 48, 65, 6c, 6c, 6f, 20, 77, 6f, 72, 6c, 64, 20, 21, Le: 0d, 48, 65, 6c, 6c, 6f, 20, 77, 6f, 72, 6c, 64, 20, 21, SW1: 90, SW2: 00\n" +
+            "CLA: 00, INS: 03, P1: 01, P2: 02, Lc: 05, 01, 02, 03, 04, 05, Le: 05, 01, 02, 03, 04, 05, SW1: 90, SW2: 00\n";
+
+    private Properties cfg;
 
     @Override
     protected void setUp() throws Exception {
         super.setUp();
+        cfg = new Properties();
+        cfg.setProperty("com.licel.jcardsim.smartcardio.applet.0.AID", TEST_APPLET_AID);
+        cfg.setProperty("com.licel.jcardsim.smartcardio.applet.0.Class", "com.licel.jcardsim.samples.HelloWorldApplet");
+        // the terminal card shares the default runtime, start every test without applet instances
+        synchronized (SimulatorSystem.DEFAULT_RUNTIME) {
+            SimulatorSystem.DEFAULT_RUNTIME.resetRuntime();
+            SimulatorSystem.DEFAULT_RUNTIME.loadApplet(AIDUtil.create(TEST_APPLET_AID), HelloWorldApplet.class);
+        }
     }
 
     @Override
@@ -48,27 +91,7 @@ public class APDUScriptToolTest extends TestCase {
      */
     public void testExecuteCommands() throws Exception {
         System.out.println("executeCommands");
-        Properties cfg = new Properties();
-        cfg.setProperty("com.licel.jcardsim.smartcardio.applet.0.AID", TEST_APPLET_AID);
-        cfg.setProperty("com.licel.jcardsim.smartcardio.applet.0.Class", "com.licel.jcardsim.samples.HelloWorldApplet");
-        StringBuilder sb = new StringBuilder();
-        sb.append("powerup;\n");
-        sb.append("//CREATE APPLET CMD\n");
-        sb.append("0x80 0xb8 0x00 0x00 0x10 0x9 0x01 0x02 0x03 0x04 0x05 0x06 0x07 0x8 0x09 0x05 0x00 0x00 0x02 0xF 0xF 0x7f;\n");
-        sb.append("// SELECT APPLET CMD\n");
-        sb.append("0x00 0xa4 0x04 0x00 0x09 0x01 0x02 0x03 0x04 0x05 0x06 0x07 0x8 0x09 0x7f;\n");
-        sb.append("// TEST NOP\n");
-        sb.append("0x00 0x02 0x00 0x00 0x00 0x2; \n");
-        sb.append("// TEST SW_INS_NOT_SUPPORTED\n");
-        sb.append("0x00 0x05 0x00 0x00 0x00 0x2 ;\n");
-        sb.append("// test hello world from card\n");
-        sb.append("0x00 0x01 0x00 0x00 0x00 0x0d;\n");
-        sb.append("// test echo\n");
-        sb.append("0x00 0x01 0x01 0x00 0x0d 0x48 0x65 0x6c 0x6c 0x6f 0x20 0x77 0x6f 0x72 0x6c 0x64 0x20 0x21 0x0d;\n");
-        sb.append("// test echo2\n");
-        sb.append("0x00 0x03 0x01 0x02 0x05 0x01 0x02 0x03 0x04 0x05 0x7F;");
-        sb.append("powerdown;\n");
-        InputStream commandsStream = new ByteArrayInputStream(sb.toString().replaceAll("\n", System.getProperty("line.separator")).getBytes());     
+        InputStream commandsStream = new ByteArrayInputStream(SCRIPT.getBytes());     
         boolean isException = true;
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -83,17 +106,63 @@ public class APDUScriptToolTest extends TestCase {
         }
         assertEquals(isException, false);
 
-        String expectedOutput =
-        "CLA: 80, INS: b8, P1: 00, P2: 00, Lc: 10, 09, 01, 02, 03, 04, 05, 06, 07, 08, 09, 05, 00, 00, 02, 0f, 0f, Le: 09, 01, 02, 03, 04, 05, 06, 07, 08, 09, SW1: 90, SW2: 00\n" +
-        "CLA: 00, INS: a4, P1: 04, P2: 00, Lc: 09, 01, 02, 03, 04, 05, 06, 07, 08, 09, Le: 00, SW1: 90, SW2: 00\n" +
-        "CLA: 00, INS: 02, P1: 00, P2: 00, Lc: 00, Le: 00, SW1: 90, SW2: 00\n" +
-        "CLA: 00, INS: 05, P1: 00, P2: 00, Lc: 00, Le: 00, SW1: 6d, SW2: 00\n" +
-        "CLA: 00, INS: 01, P1: 00, P2: 00, Lc: 00, Le: 0d, 48, 65, 6c, 6c, 6f, 20, 77, 6f, 72, 6c, 64, 20, 21, SW1: 90, SW2: 00\n" +
-        "CLA: 00, INS: 01, P1: 01, P2: 00, Lc: 0d, 48, 65, 6c, 6c, 6f, 20, 77, 6f, 72, 6c, 64, 20, 21, Le: 0d, 48, 65, 6c, 6c, 6f, 20, 77, 6f, 72, 6c, 64, 20, 21, SW1: 90, SW2: 00\n" +
-        "CLA: 00, INS: 03, P1: 01, P2: 02, Lc: 05, 01, 02, 03, 04, 05, Le: 05, 01, 02, 03, 04, 05, SW1: 90, SW2: 00\n";
-
         String output = baos.toString("UTF-8");
         System.out.print(output);
-        assertEquals(expectedOutput, output.replace("\r\n","\n"));
+        assertEquals(EXPECTED_OUTPUT, output.replace("\r\n","\n"));
+    }
+
+    /**
+     * Test of compileScript method, of class APDUScriptTool.
+     */
+    public void testCompileScript() throws Exception {
+        System.out.println("compileScript");
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        assertEquals(7, APDUScriptTool.compileScript(new ByteArrayInputStream(SCRIPT.getBytes()), compiled));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        LatencyStatistics statistics = APDUScriptTool.executeScript(cfg,
+                new ByteArrayInputStream(compiled.toByteArray()), new PrintStream(baos));
+        assertEquals(EXPECTED_OUTPUT, baos.toString("UTF-8").replace("\r\n","\n"));
+        assertEquals(7, statistics.getCount());
+        assertTrue(statistics.getMin() <= statistics.getPercentile(50));
+        assertTrue(statistics.getPercentile(50) <= statistics.getMax());
+    }
+
+    /**
+     * Test of executeParallel method, of class APDUScriptTool.
+     */
+    public void testExecuteParallel() throws Exception {
+        System.out.println("executeParallel");
+        byte[][] lastResponses = new byte[4][];
+        LatencyStatistics statistics = APDUScriptTool.executeParallel(cfg,
+                new ByteArrayInputStream(SCRIPT.getBytes()), 4, 2, lastResponses);
+        assertEquals(4 * 7, statistics.getCount());
+        // every simulator answers the final echo
+        for (byte[] response : lastResponses) {
+            assertEquals("01020304059000", Hex.toHexString(response));
+        }
+    }
+
+    /**
+     * Test of APDUScriptParser.
+     */
+    public void testParser() throws Exception {
+        System.out.println("parser");
+        APDUScriptParser parser = new APDUScriptParser(new StringReader(
+                "0x00 0x02 0x00 0x00 0x00 0x2; 0x00 0x05\n 0x00 0x00 0x00 0x2; // comment\npowerdown;"));
+        assertTrue(Arrays.areEqual(new CommandAPDU(0, 2, 0, 0, new byte[0], 2).getBytes(), parser.next().getBytes()));
+        assertTrue(Arrays.areEqual(new CommandAPDU(0, 5, 0, 0, new byte[0], 2).getBytes(), parser.next().getBytes()));
+        assertEquals(1, parser.getLine());
+        assertNull(parser.next());
+
+        String[] invalid = {"0x00 0x02;", "0x00 0x02 0x00 0x00 0x02 0x01 0x02;", "delay 100;", "0x00 0x02 0x00 0x00 0x00 0x2", "0xZZ 0x02 0x00 0x00 0x00 0x2;"};
+        for (String script : invalid) {
+            try {
+                new APDUScriptParser(new StringReader(script)).next();
+                fail("ParseException expected: " + script);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
     }
 }